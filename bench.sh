@@ -0,0 +1,7 @@
+#!/bin/bash
+# Compiles Walnut together with the benchmarks in bench/ and runs them, see bench/Automata/KernelBenchmark.java.
+# Options are system properties, e.g. JAVA_OPTS="-Dwalnut.bench.filter=minimize -Dwalnut.bench.states=1000" ./bench.sh
+
+mkdir -p bench/classes
+javac -nowarn -d bench/classes -cp src $(find src bench -name '*.java') || exit 1
+java $JAVA_OPTS -cp bench/classes Automata.KernelBenchmark "$@"
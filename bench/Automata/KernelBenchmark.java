@@ -0,0 +1,415 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Micro benchmarks of the automata kernels, each on its own, so that a regression in one of them shows up without
+ * running whole commands like IntegrationTest.runPerformanceTest does. Run them with bench.sh.<br>
+ * It follows JMH: every benchmark runs for each combination of the parameters, with warmup iterations and then
+ * measured iterations of a fixed length. It reports the average time per operation with a 99.9% confidence interval,
+ * and, like JMH's -prof gc, the bytes allocated per operation and the number of collections.
+ * The input of an operation is prepared before its clock starts, so operations that change the automaton
+ * get a fresh copy every time.<br>
+ * The inputs are random deterministic automata with two inputs in base b (so b*b letters), seeded so that every run
+ * sees the same ones, and for the arithmetic kernels the automaton of y = n*x, which has about n states.<br>
+ * Options (system properties):<br>
+ * walnut.bench.states (100,1000), walnut.bench.bases (2,3): the parameters.<br>
+ * walnut.bench.warmup (3), walnut.bench.iterations (5), walnut.bench.time (500 milliseconds per iteration).<br>
+ * walnut.bench.filter: a regular expression; only the benchmarks whose names it finds run.
+ */
+public class KernelBenchmark {
+	static int[] STATES = parse(System.getProperty("walnut.bench.states", "100,1000"));
+	static int[] BASES = parse(System.getProperty("walnut.bench.bases", "2,3"));
+	static int WARMUP = Integer.getInteger("walnut.bench.warmup", 3);
+	static int ITERATIONS = Integer.getInteger("walnut.bench.iterations", 5);
+	static long TIME = Long.getLong("walnut.bench.time", 500);
+	static String FILTER = System.getProperty("walnut.bench.filter", "");
+
+	/**
+	 * Results of operations end up here, so that the JIT cannot drop them.
+	 */
+	static volatile int sink;
+
+	interface Operation {
+		Object run() throws Exception;
+	}
+
+	/**
+	 * Prepares the input of one operation. Not timed.
+	 */
+	interface Setup {
+		Operation next() throws Exception;
+	}
+
+	/**
+	 * Builds what the operations of a benchmark share, for one value of the parameters. Not timed.
+	 */
+	interface Fixture {
+		Setup create(int states,int base) throws Exception;
+	}
+
+	Map<String,Fixture> benchmarks = new LinkedHashMap<String,Fixture>();
+	Map<String,NumberSystem> numberSystems = new TreeMap<String,NumberSystem>();
+	File directory;
+
+	public static void main(String[] args) throws Exception {
+		new KernelBenchmark().run();
+	}
+
+	public KernelBenchmark() throws Exception {
+		AutomatonCache.USE_DISK = false;
+		directory = new File(System.getProperty("java.io.tmpdir"), "walnut-bench-" + ProcessHandle.current().pid());
+		directory.mkdirs();
+		directory.deleteOnExit();
+
+		benchmarks.put("crossProduct", (states, base) -> {
+			Automaton M = random(states, base, "a", "b", 1), N = random(16, base, "b", "c", 2);
+			return () -> () -> M.crossProduct(N, "&", false, "", null);
+		});
+		benchmarks.put("and", (states, base) -> {
+			Automaton M = random(states, base, "a", "b", 1), N = random(16, base, "b", "c", 2);
+			return () -> () -> M.and(N, false, "", null);
+		});
+		benchmarks.put("minimize_valmari", (states, base) -> {
+			Automaton M = doubled(random(states, base, "a", "b", 3), 4);
+			return () -> {
+				Automaton N = M.clone();
+				return () -> {
+					N.minimize_valmari(false, "", null);
+					return N;
+				};
+			};
+		});
+		benchmarks.put("minimize_hopcroft", (states, base) -> {
+			Automaton M = doubled(random(states, base, "a", "b", 3), 4);
+			return () -> {
+				Automaton N = M.clone();
+				return () -> {
+					N.minimize_hopcroft();
+					return N;
+				};
+			};
+		});
+		benchmarks.put("subsetConstruction", (states, base) -> {
+			Automaton M = projected(multiplication("msd", base, states));
+			return () -> {
+				Automaton N = M.clone();
+				return () -> {
+					N.subsetConstruction(new HashSet<Integer>(Arrays.asList(N.q0)), false, "", null);
+					return N;
+				};
+			};
+		});
+		for(String msd_or_lsd:new String[] {"msd","lsd"}) {
+			benchmarks.put("quantify_" + msd_or_lsd, (states, base) -> {
+				Automaton M = multiplication(msd_or_lsd, base, states);
+				return () -> {
+					Automaton N = M.clone();
+					return () -> {
+						N.quantify("x", false, "", null);
+						return N;
+					};
+				};
+			});
+		}
+		benchmarks.put("reverse", (states, base) -> {
+			Automaton M = multiplication("msd", base, states);
+			return () -> {
+				Automaton N = M.clone();
+				return () -> {
+					N.reverse(false, "", null);
+					return N;
+				};
+			};
+		});
+		benchmarks.put("sortLabel", (states, base) -> {
+			Automaton M = random(states, base, "b", "a", 5);
+			return () -> {
+				Automaton N = M.clone();
+				return () -> {
+					N.sortLabel();
+					return N;
+				};
+			};
+		});
+		benchmarks.put("canonize", (states, base) -> {
+			Automaton M = random(states, base, "a", "b", 6);
+			return () -> {
+				Automaton N = M.clone();
+				return () -> {
+					N.canonize();
+					return N;
+				};
+			};
+		});
+		benchmarks.put("write", (states, base) -> {
+			Automaton M = random(states, base, "a", "b", 7);
+			String address = address("write", states, base);
+			return () -> () -> {
+				M.write(address);
+				return M;
+			};
+		});
+		benchmarks.put("load_text", (states, base) -> {
+			String address = address("load_text", states, base);
+			boolean binary = Automaton.WRITE_BINARY;
+			Automaton.WRITE_BINARY = false;
+			random(states, base, "a", "b", 8).write(address);
+			Automaton.WRITE_BINARY = binary;
+			return () -> () -> new Automaton(address);
+		});
+		benchmarks.put("load_binary", (states, base) -> {
+			String address = address("load_binary", states, base);
+			boolean binary = Automaton.WRITE_BINARY;
+			Automaton.WRITE_BINARY = true;
+			random(states, base, "a", "b", 8).write(address);
+			Automaton.WRITE_BINARY = binary;
+			return () -> () -> new Automaton(address);
+		});
+		benchmarks.put("NumberSystem.constant", (states, base) -> {
+			return () -> {
+				NumberSystem ns = new NumberSystem("msd_" + base);
+				return () -> ns.get(states);
+			};
+		});
+		benchmarks.put("NumberSystem.multiplication", (states, base) -> {
+			return () -> {
+				NumberSystem ns = new NumberSystem("msd_" + base);
+				return () -> ns.getMultiplication(states);
+			};
+		});
+	}
+
+	public void run() throws Exception {
+		System.out.println(String.format(Locale.ROOT, "# Warmup: %d iterations, %d ms each", WARMUP, TIME));
+		System.out.println(String.format(Locale.ROOT, "# Measurement: %d iterations, %d ms each", ITERATIONS, TIME));
+		System.out.println(String.format(Locale.ROOT, "%-48s %6s %8s %5s %4s %14s    %12s %6s",
+			"Benchmark", "(base)", "(states)", "Mode", "Cnt", "Score", "Error", "Units"));
+		java.util.regex.Pattern filter = java.util.regex.Pattern.compile(FILTER);
+		for(String name:benchmarks.keySet()) {
+			if(!filter.matcher(name).find())continue;
+			for(int base:BASES) {
+				for(int states:STATES) {
+					measure(name, base, states);
+				}
+			}
+		}
+	}
+
+	private void measure(String name,int base,int states) throws Exception {
+		Setup setup;
+		try {
+			setup = benchmarks.get(name).create(states, base);
+		} catch(Exception e) {
+			System.out.println(String.format(Locale.ROOT, "%-48s %6d %8d  skipped: %s", name, base, states, e.getMessage()));
+			return;
+		}
+		for(int i = 0; i < WARMUP; i++) {
+			iteration(setup);
+		}
+		long gcBefore = collections();
+		double[] time = new double[ITERATIONS], allocated = new double[ITERATIONS];
+		for(int i = 0; i < ITERATIONS; i++) {
+			double[] r = iteration(setup);
+			time[i] = r[0];
+			allocated[i] = r[1];
+		}
+		long gc = collections() - gcBefore;
+		print(name, base, states, time, "us/op");
+		print(name + ":gc.alloc.rate.norm", base, states, allocated, "B/op");
+		System.out.println(String.format(Locale.ROOT, "%-48s %6d %8d %5s %4d %14d    %12s %6s",
+			name + ":gc.count", base, states, "avgt", ITERATIONS, gc, "", "counts"));
+	}
+
+	/**
+	 * Runs operations for TIME milliseconds, and at least once.
+	 * @return the average time in microseconds and the average number of bytes allocated by one operation.
+	 */
+	private double[] iteration(Setup setup) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long end = System.nanoTime() + TIME * 1000000;
+		long operations = 0, nanos = 0, bytes = 0;
+		do {
+			Operation operation = setup.next();
+			long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+			long timeBefore = System.nanoTime();
+			Object result = operation.run();
+			long timeAfter = System.nanoTime();
+			long allocatedAfter = threads.getThreadAllocatedBytes(thread);
+			sink += System.identityHashCode(result);
+			nanos += timeAfter - timeBefore;
+			bytes += allocatedAfter - allocatedBefore;
+			operations++;
+		} while(System.nanoTime() < end);
+		return new double[] {nanos / 1000.0 / operations, (double)bytes / operations};
+	}
+
+	private static void print(String name,int base,int states,double[] samples,String units) {
+		double mean = 0;
+		for(double x:samples)mean += x;
+		mean /= samples.length;
+		double variance = 0;
+		for(double x:samples)variance += (x - mean) * (x - mean);
+		double error = samples.length > 1 ?
+			student(samples.length - 1) * Math.sqrt(variance / (samples.length - 1)) / Math.sqrt(samples.length) : Double.NaN;
+		System.out.println(String.format(Locale.ROOT, "%-48s %6d %8d %5s %4d %14.3f +- %12.3f %6s",
+			name, base, states, "avgt", samples.length, mean, error, units));
+	}
+
+	/**
+	 * @param df
+	 * @return the quantile of the Student t distribution with df degrees of freedom for a 99.9% confidence interval.
+	 */
+	private static double student(int df) {
+		double[] t = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587};
+		if(df <= t.length)return t[df - 1];
+		if(df <= 15)return 4.073;
+		if(df <= 20)return 3.850;
+		if(df <= 30)return 3.646;
+		return 3.291;
+	}
+
+	private static long collections() {
+		long n = 0;
+		for(GarbageCollectorMXBean gc:ManagementFactory.getGarbageCollectorMXBeans()) {
+			n += Math.max(0, gc.getCollectionCount());
+		}
+		return n;
+	}
+
+	private NumberSystem numberSystem(String name) throws Exception {
+		if(!numberSystems.containsKey(name))numberSystems.put(name, new NumberSystem(name));
+		return numberSystems.get(name);
+	}
+
+	/**
+	 * @return a total deterministic automaton with the given number of states and inputs first and second in base base.
+	 * About a quarter of the states are final.
+	 */
+	Automaton random(int states,int base,String first,String second,long seed) throws Exception {
+		Random random = new Random(seed);
+		NumberSystem ns = numberSystem("msd_" + base);
+		Automaton M = new Automaton();
+		List<Integer> digits = new ArrayList<Integer>();
+		for(int i = 0; i < base; i++)digits.add(i);
+		M.A.add(digits);
+		M.A.add(new ArrayList<Integer>(digits));
+		M.NS.add(ns);
+		M.NS.add(ns);
+		M.label.add(first);
+		M.label.add(second);
+		M.alphabetSize = base * base;
+		M.encoder = new ArrayList<Integer>(Arrays.asList(1, base));
+		M.Q = states;
+		M.q0 = 0;
+		for(int q = 0; q < states; q++) {
+			M.O.add(random.nextInt(4) == 0 ? 1 : 0);
+			TreeMap<Integer,List<Integer>> transitions = new TreeMap<Integer,List<Integer>>();
+			for(int x = 0; x < M.alphabetSize; x++) {
+				transitions.put(x, new ArrayList<Integer>(Arrays.asList(random.nextInt(states))));
+			}
+			M.d.add(transitions);
+		}
+		return M;
+	}
+
+	/**
+	 * @return an automaton with twice as many states as M that accepts the same language: every state of M has two
+	 * copies, and every transition goes to a copy chosen at random. Minimizing it gives M back.
+	 */
+	static Automaton doubled(Automaton M,long seed) {
+		Random random = new Random(seed);
+		Automaton N = M.clone();
+		for(int q = 0; q < M.Q; q++) {
+			N.O.add(M.O.get(q));
+			N.d.add(new TreeMap<Integer,List<Integer>>());
+		}
+		for(int q = 0; q < 2 * M.Q; q++) {
+			for(int x:M.d.get(q % M.Q).keySet()) {
+				int p = M.d.get(q % M.Q).get(x).get(0);
+				N.d.get(q).put(x, new ArrayList<Integer>(Arrays.asList(p + (random.nextBoolean() ? M.Q : 0))));
+			}
+		}
+		N.Q = 2 * M.Q;
+		return N;
+	}
+
+	/**
+	 * @return the automaton of y = n*x with inputs x and y, in msd_base or lsd_base.
+	 */
+	Automaton multiplication(String msd_or_lsd,int base,int n) throws Exception {
+		Automaton M = numberSystem(msd_or_lsd + "_" + base).getMultiplication(n);
+		M.bind("x", "y");
+		return M;
+	}
+
+	/**
+	 * @return M without its first input: the nondeterministic automaton that quantify hands to the subset construction.
+	 */
+	static Automaton projected(Automaton M) {
+		Automaton N = M.clone();
+		int size = M.A.get(0).size();
+		for(int q = 0; q < M.Q; q++) {
+			TreeMap<Integer,List<Integer>> transitions = new TreeMap<Integer,List<Integer>>();
+			for(int x:M.d.get(q).keySet()) {
+				List<Integer> destinations = transitions.computeIfAbsent(x / size, k -> new ArrayList<Integer>());
+				for(int p:M.d.get(q).get(x)) {
+					if(!destinations.contains(p))destinations.add(p);
+				}
+			}
+			N.d.set(q, transitions);
+		}
+		N.A.remove(0);
+		N.NS.remove(0);
+		N.label.remove(0);
+		N.alphabetSize = M.alphabetSize / size;
+		N.encoder = new ArrayList<Integer>(Arrays.asList(1));
+		return N;
+	}
+
+	private String address(String name,int states,int base) {
+		File file = new File(directory, name + "_" + states + "_" + base + ".txt");
+		file.deleteOnExit();
+		new File(Automaton.binaryAddress(file.getPath())).deleteOnExit();
+		return file.getPath();
+	}
+
+	private static int[] parse(String list) {
+		String[] parts = list.split("\\s*,\\s*");
+		int[] values = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i]);
+		}
+		return values;
+	}
+}
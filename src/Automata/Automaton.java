@@ -17,16 +17,28 @@
 */
 
 package Automata;
-import Main.GraphViz;
+import Main.OutputPolicy;
+import Main.Predicate;
 import Main.UtilityMethods;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -38,8 +50,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import dk.brics.automaton.RegExp;
 import dk.brics.automaton.State;
@@ -86,6 +100,53 @@ import dk.brics.automaton.Transition;
  *
  */
 public class Automaton {
+    /**
+     * Whether write also writes the binary format (see writeBinary) next to every .txt file.
+     * It is off unless set with -Dwalnut.binary=true. Binary files that are present are read either way.
+     */
+    public static boolean WRITE_BINARY = Boolean.getBoolean("walnut.binary");
+    static final int BINARY_MAGIC = 0x57414c42;
+    static final int BINARY_VERSION = 1;
+
+    /**
+     * The largest number of states of a cross product or of a subset construction computed by this thread
+     * since the last call to resetPeakStates. Used by Main.PerformanceSuite.
+     */
+    private static ThreadLocal<int[]> peakStates = ThreadLocal.withInitial(() -> new int[1]);
+
+    public static void resetPeakStates() {
+        peakStates.get()[0] = 0;
+    }
+
+    public static int getPeakStates() {
+        return peakStates.get()[0];
+    }
+
+    /**
+     * @return where the peak states of the current thread are kept, to be passed to adoptPeakStates.
+     */
+    public static int[] peakStatesHolder() {
+        return peakStates.get();
+    }
+
+    /**
+     * Makes the current thread count its peak states with those of another thread, e.g., a thread that computes
+     * part of an eval on behalf of the thread whose peakStatesHolder is holder.
+     * @return the holder it replaces, to be passed to adoptPeakStates when done.
+     */
+    public static int[] adoptPeakStates(int[] holder) {
+        int[] previous = peakStates.get();
+        peakStates.set(holder);
+        return previous;
+    }
+
+    private static void notePeakStates(int states) {
+        int[] peak = peakStates.get();
+        synchronized(peak) {
+            if(states > peak[0])peak[0] = states;
+        }
+    }
+
     /**
      * When TRUE_FALSE_AUTOMATON = false, it means that this automaton is
      * an actual automaton and not one of the special automata: true or false
@@ -209,22 +270,6 @@ public class Automaton {
     // for use in the combine command, allows crossProduct to determine what to set outputs to
     public List<Integer> combineOutputs;
 
-    // for use in inf command, keeps track of which states we have visited
-    public HashSet<Integer> visited;
-
-    // for use in inf command, records where we started our depth first search to find a cycle
-    public Integer started;
-
-    // for use in test command, to gather a list of all accepted values of a specified length in lexicographic order
-    public List<String> accepted;
-
-    // for use in test command, tells us what length of solutions we are currently searching for in this subautomaton
-    public Integer searchLength;
-
-    // for use in test command, tells us the number of accepted strings remaining to be added to the main list, so we can end early if
-    // we find that many
-    public Integer maxNeeded;
-
     void make_adjacent(Integer K[]) {
         int q, t;
         for( q = 0; q <= num_states; ++q ) {
@@ -272,7 +317,7 @@ public class Automaton {
     }
 
     /* Minimization algorithm */
-    void minimize_valmari(boolean print, String prefix,StringBuffer log) throws Exception{
+    void minimize_valmari(boolean print, String prefix,Log log) throws Exception{
         HashSet<Integer> qqq = new HashSet<Integer>();
         qqq.add(q0);
         subsetConstruction(qqq,print,prefix,log);
@@ -310,9 +355,10 @@ public class Automaton {
         num_finalstates = rr; rem_unreachable( H, T );
 
         /* Make initial partition */
-        Partition.W = new int[ num_transitions+1 ]; Partition.M = new int[ num_transitions+1];
-        Partition.M[0] = num_finalstates;
-        if( num_finalstates != 0 ){ Partition.W[Partition.w++] = 0; B.split(); }
+        Partition.Marks marks = new Partition.Marks( num_transitions+1 );
+        B.marks = C.marks = marks;
+        marks.M[0] = num_finalstates;
+        if( num_finalstates != 0 ){ marks.W[marks.w++] = 0; B.split(); }
 
         /* Make transition partition */
         C.init( num_transitions );
@@ -325,12 +371,12 @@ public class Automaton {
                     return L[a] - L[b];
                 }
             });
-            C.z = Partition.M[0] = 0; int a = L[C.E[0]];
+            C.z = marks.M[0] = 0; int a = L[C.E[0]];
             for( int i = 0; i < num_transitions; ++i ){
                 int t = C.E[i];
                 if( L[t] != a ){
                     a = L[t]; C.P[C.z++] = i;
-                    C.F[C.z] = i; Partition.M[C.z] = 0;
+                    C.F[C.z] = i; marks.M[C.z] = 0;
                 }
                 C.S[t] = C.z; C.L[t] = i;
             }
@@ -341,6 +387,7 @@ public class Automaton {
         make_adjacent( H );
         int b = 1, c = 0;
         while( c < C.z ){
+            ResourceGovernor.check(num_states);
             for(int i = C.F[c]; i < C.P[c]; ++i ){
                 B.mark( T[C.E[i]] );
             }
@@ -432,6 +479,14 @@ public class Automaton {
      * @throws Exception
      */
     public Automaton(String regularExpression, List <Integer> alphabet) throws Exception {
+        this(regularExpression, alphabet, true);
+    }
+
+    /**
+     * @param print whether to print the time it took. NumberSystem builds small automata this way the first time
+     *              they are needed, in whichever command that happens to be, so it does not print.
+     */
+    Automaton(String regularExpression, List <Integer> alphabet, boolean print) throws Exception {
         this();
         if(alphabet == null || alphabet.size()== 0)throw new Exception("empty alphabet is not accepted");
         long timeBefore = System.currentTimeMillis();
@@ -482,7 +537,7 @@ public class Automaton {
         }
         long timeAfter = System.currentTimeMillis();
         String msg = "computed ~:" + Q + " states - "+(timeAfter-timeBefore)+"ms";
-        System.out.println(msg);
+        if(print)System.out.println(msg);
     }
 
     public Automaton(
@@ -534,7 +589,11 @@ public class Automaton {
      */
     public Automaton(String address) throws Exception {
         this();
-        final String REGEXP_FOR_WHITESPACE = "^\\s*$";
+        Metrics.Probe probe = Metrics.start("load");
+        if(readBinary(address)) {
+            probe.stop(this);
+            return;
+        }
 
         //lineNumber will be used in error messages
         int lineNumber = 0;
@@ -547,7 +606,7 @@ public class Automaton {
             boolean[] singleton = new boolean[1];
             while((line = in.readLine())!= null) {
                 lineNumber++;
-                if(line.matches(REGEXP_FOR_WHITESPACE)) {
+                if(ParseMethods.isBlank(line)) {
                     // Ignore blank lines.
                     continue;
                 } else if(ParseMethods.parseTrueFalse(line, singleton)) {
@@ -555,6 +614,7 @@ public class Automaton {
                     TRUE_FALSE_AUTOMATON = true;
                     TRUE_AUTOMATON = singleton[0];
                     in.close();
+                    probe.stop(this);
                     return;
                 } else {
                     boolean flag = false;
@@ -593,6 +653,7 @@ public class Automaton {
             }
 
             int[] pair = new int[2];
+            setEncoder();
             List<Integer> input = new ArrayList<Integer>();
             List<Integer> dest = new ArrayList<Integer>();
             int currentState = -1;
@@ -609,7 +670,7 @@ public class Automaton {
             Q = 0;
             while((line = in.readLine())!= null) {
                 lineNumber++;
-                if(line.matches(REGEXP_FOR_WHITESPACE)) {
+                if(ParseMethods.isBlank(line)) {
                     continue;
                 }
 
@@ -638,11 +699,11 @@ public class Automaton {
                         throw new Exception("This automaton requires a " + A.size() +
                             "-tuple as input: line " + lineNumber + " of file " + address);
                     }
-                    List<List<Integer>> inputs = expandWildcard(input);
-
-                    for(List<Integer> i:inputs){
-                        currentStateTransitions.put(encode(i), dest);
+                    int[] index = new int[input.size()];
+                    for(int i = 0; i < input.size(); i++) {
+                        if(input.get(i) != null)index[i] = A.get(i).indexOf(input.get(i));
                     }
+                    addTransitions(currentStateTransitions, input, index, 0, 0, dest);
 
                     input = new ArrayList<Integer>();
                     dest = new ArrayList<Integer>();
@@ -664,12 +725,126 @@ public class Automaton {
                 O.add(state_output.get(q));
                 d.add(state_transition.get(q));
             }
+            probe.stop(this);
         } catch (IOException e) {
             e.printStackTrace();
             throw new Exception("File does not exist: " + address);
         }
     }
 
+    /**
+     * If address ends with .txt and the binary file next to it (see writeBinary) is present and up to date,
+     * loads this automaton from the binary file.
+     * @param address
+     * @return true if this automaton was loaded from the binary file.
+     * @throws Exception
+     */
+    private boolean readBinary(String address) throws Exception {
+        String binaryAddress = binaryAddress(address);
+        if(binaryAddress == null)return false;
+        File binary = new File(binaryAddress);
+        if(!binary.isFile())return false;
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(binary.toPath(), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch(IOException e) {
+            return false;
+        }
+        try {
+            if(in.getInt() != BINARY_MAGIC || in.getInt() != BINARY_VERSION)return false;
+            long textLength = in.getLong();
+            long textModified = in.getLong();
+            File text = new File(address);
+            // the text file was edited after the binary file was written, so the binary file is stale.
+            if(text.exists() && (text.length() != textLength || text.lastModified() != textModified))return false;
+            if(in.get() == 1) {
+                TRUE_FALSE_AUTOMATON = true;
+                TRUE_AUTOMATON = in.get() == 1;
+                return true;
+            }
+            in.get();
+            int arity = in.getInt();
+            List<List<Integer>> alphabets = new ArrayList<List<Integer>>();
+            List<NumberSystem> numberSystems = new ArrayList<NumberSystem>();
+            int size = 1;
+            // every count is checked against what is left of the file, so that a corrupt count neither allocates
+            // a huge array nor throws an exception the text file would not
+            if(arity < 0 || arity > in.remaining())return false;
+            for(int i = 0; i < arity; i++) {
+                int length = in.getInt();
+                if(length < 0 || length > in.remaining())return false;
+                byte[] name = new byte[length];
+                in.get(name);
+                numberSystems.add(name.length == 0 ? null : numberSystem(new String(name, StandardCharsets.UTF_8)));
+                int n = in.getInt();
+                if(n < 0 || n > in.remaining() / 4)return false;
+                List<Integer> l = new ArrayList<Integer>(n);
+                for(int j = 0; j < n; j++)l.add(in.getInt());
+                alphabets.add(l);
+                size *= n;
+            }
+            // the rest of the file is ints: copy them out of the mapped file at once, and build O and d from the array.
+            IntBuffer ints = in.asIntBuffer();
+            int[] data = new int[ints.remaining()];
+            ints.get(data);
+            int i = 0;
+            int states = data[i++];
+            int initial = data[i++];
+            if(states < 0 || states > data.length || initial < 0 || (initial >= states && states > 0))return false;
+            List<Integer> outputs = new ArrayList<Integer>(states);
+            for(int q = 0; q < states; q++)outputs.add(data[i++]);
+            List<TreeMap<Integer,List<Integer>>> transitions = new ArrayList<TreeMap<Integer,List<Integer>>>(states);
+            for(int q = 0; q < states; q++) {
+                TreeMap<Integer,List<Integer>> t = new TreeMap<Integer,List<Integer>>();
+                int count = data[i++];
+                if(count < 0 || count > data.length - i)return false;
+                for(int k = 0; k < count; k++) {
+                    int x = data[i++];
+                    int n = data[i++];
+                    if(x < 0 || x >= size || n < 0 || n > data.length - i)return false;
+                    List<Integer> dest = new ArrayList<Integer>(n);
+                    for(int j = 0; j < n; j++) {
+                        int p = data[i++];
+                        if(p < 0 || p >= states)return false;
+                        dest.add(p);
+                    }
+                    t.put(x, dest);
+                }
+                transitions.add(t);
+            }
+            A = alphabets;
+            NS = numberSystems;
+            alphabetSize = size;
+            Q = states;
+            q0 = initial;
+            O = outputs;
+            d = transitions;
+            return true;
+        } catch(RuntimeException e) {
+            // a truncated or otherwise corrupt binary file, e.g., BufferUnderflowException: fall back to the text file.
+            return false;
+        }
+    }
+
+    private static NumberSystem numberSystem(String name) throws Exception {
+        try {
+            return Predicate.get_number_system(name);
+        } catch(Exception e) {
+            throw new Exception(
+                e.getMessage() + UtilityMethods.newLine() +
+                "\tNumber system " + name + " does not exist.");
+        }
+    }
+
+    /**
+     * @param address
+     * @return the address of the binary file that goes with the text file address, or null if address is not a .txt file.
+     */
+    public static String binaryAddress(String address) {
+        if(!address.endsWith(".txt"))return null;
+        return address.substring(0, address.length() - 4) + ".bin";
+    }
+
     /**
      * returns a deep copy of this automaton.
      * @return a deep copy of this automaton
@@ -706,13 +881,13 @@ public class Automaton {
         return M;
     }
 
-    public void quantify(String labelToQuantify,boolean print, String prefix,StringBuffer log)throws Exception{
+    public void quantify(String labelToQuantify,boolean print, String prefix,Log log)throws Exception{
         Set<String> listOfLabelsToQuantify = new HashSet<String>();
         listOfLabelsToQuantify.add(labelToQuantify);
         quantify(listOfLabelsToQuantify,print,prefix,log);
     }
 
-    public void quantify(String labelToQuantify1,String labelToQuantify2,boolean leadingZeros,boolean print, String prefix,StringBuffer log)throws Exception{
+    public void quantify(String labelToQuantify1,String labelToQuantify2,boolean leadingZeros,boolean print, String prefix,Log log)throws Exception{
         Set<String> listOfLabelsToQuantify = new HashSet<String>();
         listOfLabelsToQuantify.add(labelToQuantify1);
         listOfLabelsToQuantify.add(labelToQuantify2);
@@ -731,10 +906,29 @@ public class Automaton {
      * @param listOfLabelsToQuantify must contain at least one element. listOfLabelsToQuantify must be a subset of this.label.
      * @return
      */
-    public void quantify(Set<String> listOfLabelsToQuantify, boolean print, String prefix,StringBuffer log)throws Exception{
+    public void quantify(Set<String> listOfLabelsToQuantify, boolean print, String prefix,Log log)throws Exception{
+        Metrics.Probe probe = Metrics.start("quantify", this);
+        FlightEvents.Quantification event = new FlightEvents.Quantification();
+        int depth = FlightEvents.enter(event);
+        int inputStates = TRUE_FALSE_AUTOMATON ? 0 : Q;
         quantifyHelper(listOfLabelsToQuantify,print,prefix,log);
-        if(TRUE_FALSE_AUTOMATON)return;
+        if(!TRUE_FALSE_AUTOMATON)fixZerosProblem(print,prefix,log);
+        FlightEvents.exit(depth);
+        if(event.shouldCommit()) {
+            event.variables = String.join(",", listOfLabelsToQuantify);
+            event.inputStates = inputStates;
+            event.outputStates = TRUE_FALSE_AUTOMATON ? 0 : Q;
+            event.depth = depth;
+            event.commit();
+        }
+        probe.stop(this);
+    }
 
+    /**
+     * Fixes the leading (for msd) or trailing (for lsd) zeros problem after a quantification, if all inputs are
+     * arithmetic and of the same kind.
+     */
+    private void fixZerosProblem(boolean print, String prefix,Log log)throws Exception{
         boolean isMsd = true;
         boolean flag = false;
         for(NumberSystem ns:NS){
@@ -761,7 +955,7 @@ public class Automaton {
         Set<String> listOfLabelsToQuantify,
         boolean print,
         String prefix,
-        StringBuffer log) throws Exception {
+        Log log) throws Exception {
         if(listOfLabelsToQuantify.isEmpty() || label == null) {
             return;
         }
@@ -848,8 +1042,9 @@ public class Automaton {
      * @return the reverse of this automaton
      * @throws Exception
      */
-    public void reverse(boolean print, String prefix, StringBuffer log) throws Exception {
+    public void reverse(boolean print, String prefix, Log log) throws Exception {
         if(TRUE_FALSE_AUTOMATON)return;
+        Metrics.Probe probe = Metrics.start("reverse", this);
         long timeBefore = System.currentTimeMillis();
         if(print) {
             String msg = prefix + "reversing:" + Q + " states";
@@ -894,6 +1089,7 @@ public class Automaton {
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
         }
+        probe.stop(this);
     }
 
     /**
@@ -912,12 +1108,12 @@ public class Automaton {
      * @return this automaton cross product M.
 
      */
-    private Automaton crossProduct(
+    Automaton crossProduct(
         Automaton M,
         String op,
         boolean print,
         String prefix,
-        StringBuffer log) throws Exception{
+        Log log) throws Exception{
         if(this.TRUE_FALSE_AUTOMATON || M.TRUE_FALSE_AUTOMATON)
             throw new Exception("Invalid use of the crossProduct method: " +
                 "the automata for this method cannot be true or false automata.");
@@ -927,8 +1123,15 @@ public class Automaton {
             M.label.size() != M.A.size())
             throw new Exception("Invalid use of the crossProduct method: " +
                 "the automata for this method must have labeled inputs.");
+        // a pair of states p,q is encoded as p*M.Q+q, which has to fit in an int
+        if((long)Q * M.Q > Integer.MAX_VALUE)
+            throw new Exception("cannot compute the cross product of automata with " + Q + " and " + M.Q +
+                " states: too many pairs of states");
         /**N is going to hold the cross product*/
         Automaton N = new Automaton();
+        Metrics.Probe probe = Metrics.start("product", this, M);
+        FlightEvents.Product event = new FlightEvents.Product();
+        int depth = FlightEvents.enter(event);
 
         long timeBefore = System.currentTimeMillis();
         if(print){
@@ -993,6 +1196,7 @@ public class Automaton {
         statesHash.put(q0*M.Q + M.q0,0);
         int currentState = 0;
         while(currentState<statesList.size()){
+            ResourceGovernor.check(statesList.size());
             int s = statesList.get(currentState);
             int p = s/M.Q;
             int q = s%M.Q;
@@ -1075,6 +1279,17 @@ public class Automaton {
             currentState++;
         }
         N.Q = statesList.size();
+        notePeakStates(N.Q);
+        FlightEvents.exit(depth);
+        if(event.shouldCommit()) {
+            event.operator = op;
+            event.leftStates = Q;
+            event.rightStates = M.Q;
+            event.outputStates = N.Q;
+            event.depth = depth;
+            event.commit();
+        }
+        probe.stop(N);
         long timeAfter = System.currentTimeMillis();
         if(print){
             String msg = prefix + "computed cross product:" + N.Q + " states - "+(timeAfter-timeBefore)+"ms";
@@ -1094,7 +1309,7 @@ public class Automaton {
         Automaton M,
         boolean print,
         String prefix,
-        StringBuffer log) throws Exception {
+        Log log) throws Exception {
         if((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) &&
             (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) {
             return new Automaton(true);
@@ -1113,6 +1328,7 @@ public class Automaton {
             return this;
         }
 
+        Metrics.Probe probe = Metrics.start("and", this, M);
         long timeBefore = System.currentTimeMillis();
         if(print) {
             String msg = prefix + "computing &:" + Q + " states - " + M.Q + " states";
@@ -1130,6 +1346,7 @@ public class Automaton {
             System.out.println(msg);
         }
 
+        probe.stop(N);
         return N;
     }
 
@@ -1138,13 +1355,14 @@ public class Automaton {
      * @return  this automaton or M
      * @throws Exception
      */
-    public Automaton or(Automaton M, boolean print, String prefix, StringBuffer log) throws Exception{
+    public Automaton or(Automaton M, boolean print, String prefix, Log log) throws Exception{
         if((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) || (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) return new Automaton(true);
         if((TRUE_FALSE_AUTOMATON && !TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON)) return new Automaton(false);
 
         if(TRUE_FALSE_AUTOMATON && !TRUE_AUTOMATON)return M;
         if(M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON)return this;
 
+        Metrics.Probe probe = Metrics.start("or", this, M);
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "computing |:" + Q + " states - " + M.Q + " states";
@@ -1166,6 +1384,7 @@ public class Automaton {
             System.out.println(msg);
         }
 
+        probe.stop(N);
         return N;
     }
 
@@ -1175,7 +1394,7 @@ public class Automaton {
      * @return this automaton xor M
      * @throws Exception
      */
-    public Automaton xor(Automaton M, boolean print, String prefix, StringBuffer log) throws Exception{
+    public Automaton xor(Automaton M, boolean print, String prefix, Log log) throws Exception{
         if((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON)) return new Automaton(true);
         if((TRUE_FALSE_AUTOMATON && !TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) return new Automaton(true);
         if((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) return new Automaton(false);
@@ -1220,7 +1439,7 @@ public class Automaton {
      * @return  this automaton imply M
      * @throws Exception
      */
-    public Automaton imply(Automaton M,boolean print, String prefix, StringBuffer log) throws Exception{
+    public Automaton imply(Automaton M,boolean print, String prefix, Log log) throws Exception{
         if((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON)) return new Automaton(false);
         if((TRUE_FALSE_AUTOMATON && !TRUE_AUTOMATON) || (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) return new Automaton(true);
         if(TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON)return M;
@@ -1257,7 +1476,7 @@ public class Automaton {
      * @return  this automaton iff M
      * @throws Exception
      */
-    public Automaton iff(Automaton M,boolean print, String prefix, StringBuffer log) throws Exception{
+    public Automaton iff(Automaton M,boolean print, String prefix, Log log) throws Exception{
         if(((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && M.TRUE_AUTOMATON)) ||
                 ((TRUE_FALSE_AUTOMATON && !TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON))) return new Automaton(true);
         if(((TRUE_FALSE_AUTOMATON && TRUE_AUTOMATON) && (M.TRUE_FALSE_AUTOMATON && !M.TRUE_AUTOMATON)) ||
@@ -1301,7 +1520,7 @@ public class Automaton {
      * @return changes this automaton to its negation
      * @throws Exception
      */
-    public void not(boolean print, String prefix, StringBuffer log) throws Exception{
+    public void not(boolean print, String prefix, Log log) throws Exception{
         if(TRUE_FALSE_AUTOMATON){
             TRUE_AUTOMATON = !TRUE_AUTOMATON;
             return;
@@ -1341,16 +1560,16 @@ public class Automaton {
         return X.equals(Y);
     }
 
-    public Automaton combine(List<String> automataNames, List<Integer> outputs, boolean print, String prefix, StringBuffer log) throws Exception {
+    public Automaton combine(List<String> automataNames, List<Integer> outputs, boolean print, String prefix, Log log) throws Exception {
         Queue<Automaton> subautomata =  new LinkedList<Automaton>();
 		for (String name : automataNames) {
-			Automaton M = new Automaton(UtilityMethods.get_address_for_automata_library()+name+".txt");
+			Automaton M = LibraryCache.load(UtilityMethods.get_address_for_automata_library()+name+".txt");
 			subautomata.add(M);
 		}
         return combine(subautomata, outputs, print, prefix, log);
     }
 
-    public Automaton combine(Queue<Automaton> subautomata, List<Integer> outputs, boolean print, String prefix, StringBuffer log) throws Exception {
+    public Automaton combine(Queue<Automaton> subautomata, List<Integer> outputs, boolean print, String prefix, Log log) throws Exception {
         Automaton first = this.clone();
 
         // In an automaton without output, every non-zero output value represents an accepting state
@@ -1400,7 +1619,7 @@ public class Automaton {
      * which accepts if the output in our automaton is 0,1 or 2 respectively.
      * @throws Exception
      */
-    public List<Automaton> uncombine(List<Integer> outputs, boolean print, String prefix, StringBuffer log) throws Exception {
+    public List<Automaton> uncombine(List<Integer> outputs, boolean print, String prefix, Log log) throws Exception {
         List<Automaton> automata = new ArrayList<>();
         for (Integer output : outputs) {
             Automaton M = clone();
@@ -1423,7 +1642,7 @@ public class Automaton {
      * then recombining. It follows that if the ubcombined autoamta are minimal, then the combined automata is also minimal
      * @throws Exception
      */
-    public Automaton minimizeWithOuput(boolean print, String prefix, StringBuffer log) throws Exception {
+    public Automaton minimizeWithOuput(boolean print, String prefix, Log log) throws Exception {
         List<Integer> outputs = new ArrayList<>(O);
         UtilityMethods.removeDuplicates(outputs);
         List<Automaton> subautomata = uncombine(outputs,print,prefix,log);
@@ -1437,42 +1656,221 @@ public class Automaton {
         return N;
     }
 
+    /**
+     * @return the encoded inputs of a shortest word this automaton accepts, found by breadth first search,
+     * or null if it accepts nothing.
+     */
+    public List<Integer> shortestAcceptedWord() {
+        if(TRUE_FALSE_AUTOMATON)return TRUE_AUTOMATON ? new ArrayList<Integer>() : null;
+        int[] previous = new int[Q], letter = new int[Q];
+        Arrays.fill(previous, -1);
+        int[] queue = new int[Q];
+        int head = 0, tail = 0;
+        queue[tail++] = q0;
+        previous[q0] = q0;
+        while(head < tail) {
+            int p = queue[head++];
+            if(O.get(p) != 0) {
+                List<Integer> word = new ArrayList<Integer>();
+                for(; p != q0; p = previous[p])word.add(letter[p]);
+                Collections.reverse(word);
+                return word;
+            }
+            for(int x:d.get(p).keySet()) {
+                for(int q:d.get(p).get(x)) {
+                    if(previous[q] != -1)continue;
+                    previous[q] = p;
+                    letter[q] = x;
+                    queue[tail++] = q;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param word encoded inputs
+     * @return the values read by each input: element i is the list of values of input i along word.
+     */
+    public List<List<Integer>> decodeWord(List<Integer> word) {
+        List<List<Integer>> inputs = new ArrayList<List<Integer>>();
+        for(int i = 0; i < A.size(); i++)inputs.add(new ArrayList<Integer>());
+        for(int x:word) {
+            List<Integer> tuple = decode(x);
+            for(int i = 0; i < A.size(); i++)inputs.get(i).add(tuple.get(i));
+        }
+        return inputs;
+    }
+
     // Determines whether an automaton accepts infinitely many values. If it does, a regex of infinitely many accepted values (not all)
     // is given. This is true iff there exists a cycle in a minimized version of the automaton, which previously had leading or
     // trailing zeroes removed according to whether it was msd or lsd
     public String infinite() throws Exception {
-        for (int i=0; i<Q; i++) {
-            visited = new HashSet<Integer>();
-            started = i;
-            String cycle = infiniteHelper(i, "");
-            // once a cycle is detected, we compute a prefix leading to state i and a suffix from state i to an accepting state
-            if(cycle != "") {
-                return constructPrefix(i) + "(" + cycle + ")*" + constructSuffix(i);
-            }
-        }
-        return ""; // an empty string signals that we have failed to find a cycle
+        return infinite(new ArrayList<String>());
     }
 
-    // helper function for our DFS to facilitate recursion
-    private String infiniteHelper(Integer state, String result) {
-        if(visited.contains(state)) {
-            if(state == started) {
-                return result;
+    /**
+     * Determines whether this automaton accepts infinitely many words that have no leading zeroes (if msd) or trailing
+     * zeroes (if lsd) in the inputs listOfLabels, i.e., whether removeLeadingZeroes(listOfLabels) accepts infinitely many words.
+     * The zeroes are not removed with a product of automata: we walk the graph of pairs (q,f) where q is a state and f
+     * records whether the first letter read (msd) and the last letter read (lsd) had a non-zero value in one of these inputs.<br>
+     * The words are infinitely many iff a state that is reachable and co-reachable in this graph is on a cycle, which we find
+     * with the strongly connected components of the trimmed graph, in time linear in the number of transitions.
+     * @param listOfLabels
+     * @return prefix(cycle)*suffix, a regular expression of infinitely many accepted words (not all), where every letter
+     * is written as a tuple, or the empty string if the words are finitely many.
+     * @throws Exception
+     */
+    public String infinite(List<String> listOfLabels) throws Exception {
+        if(TRUE_FALSE_AUTOMATON)return "";
+        // the inputs whose first (msd) and last (lsd) letter must not be zero, unless the word is empty.
+        List<Integer> msd_inputs = new ArrayList<Integer>(), lsd_inputs = new ArrayList<Integer>();
+        boolean condition = !listOfLabels.isEmpty();
+        for(String l:listOfLabels) {
+            if(!label.contains(l)) {
+                throw new Exception( "Variable " + l + " in the list of quantified variables is not a free variable.");
+            }
+            int n = label.indexOf(l);
+            // removeLeadingZeroesHelper imposes nothing on inputs without a number system.
+            if(NS.get(n) == null)condition = false;
+            else if(NS.get(n).isMsd())msd_inputs.add(n);
+            else lsd_inputs.add(n);
+        }
+        // A vertex is 6*q+2*a+b: a is 0 before the first letter, then 1 if the first letter is non-zero in an msd input, and 2 otherwise.
+        // b is 1 if the last letter read is non-zero in an lsd input.
+        HashMap<Integer,Integer> letter_kind = new HashMap<Integer,Integer>();
+        int[] id = new int[6*Q];
+        Arrays.fill(id, -1);
+        List<Integer> vertices = new ArrayList<Integer>();
+        List<int[]> successors = new ArrayList<int[]>(), letters = new ArrayList<int[]>();
+        id[6*q0] = 0;
+        vertices.add(6*q0);
+        for(int i = 0; i < vertices.size(); i++) {
+            int v = vertices.get(i), q = v / 6, a = (v % 6) / 2;
+            List<Integer> next = new ArrayList<Integer>(), next_letters = new ArrayList<Integer>();
+            for(int x:d.get(q).keySet()) {
+                Integer kind = letter_kind.get(x);
+                if(kind == null) {
+                    List<Integer> decoding = decode(x);
+                    kind = 0;
+                    for(int n:msd_inputs)if(decoding.get(n) != 0)kind |= 1;
+                    for(int n:lsd_inputs)if(decoding.get(n) != 0)kind |= 2;
+                    letter_kind.put(x, kind);
+                }
+                int a2 = a != 0 ? a : ((kind & 1) != 0 ? 1 : 2);
+                int b2 = (kind & 2) != 0 ? 1 : 0;
+                for(int r:d.get(q).get(x)) {
+                    int w = 6*r + 2*a2 + b2;
+                    if(id[w] == -1) {
+                        id[w] = vertices.size();
+                        vertices.add(w);
+                    }
+                    next.add(id[w]);
+                    next_letters.add(x);
+                }
+            }
+            successors.add(next.stream().mapToInt(Integer::intValue).toArray());
+            letters.add(next_letters.stream().mapToInt(Integer::intValue).toArray());
+        }
+        int n = vertices.size();
+        boolean[] accepting = new boolean[n];
+        for(int i = 0; i < n; i++) {
+            int v = vertices.get(i), a = (v % 6) / 2, b = v % 2;
+            accepting[i] = O.get(v / 6) != 0 && (!condition || a != 2 || b == 1);
+        }
+        // co-reachable vertices, by a breadth first search on the reversed graph.
+        int[] in_degree = new int[n + 1];
+        for(int i = 0; i < n; i++)for(int j:successors.get(i))in_degree[j+1]++;
+        for(int i = 0; i < n; i++)in_degree[i+1] += in_degree[i];
+        int[] predecessors = new int[in_degree[n]];
+        int[] fill = Arrays.copyOf(in_degree, n);
+        for(int i = 0; i < n; i++)for(int j:successors.get(i))predecessors[fill[j]++] = i;
+        boolean[] trimmed = new boolean[n];
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        for(int i = 0; i < n; i++) {
+            if(accepting[i]) {
+                trimmed[i] = true;
+                queue[tail++] = i;
+            }
+        }
+        while(head < tail) {
+            int j = queue[head++];
+            for(int k = in_degree[j]; k < in_degree[j+1]; k++) {
+                int i = predecessors[k];
+                if(!trimmed[i]) {
+                    trimmed[i] = true;
+                    queue[tail++] = i;
+                }
             }
-            return "";
         }
-        visited.add(state);
-        for (Integer x : d.get(state).keySet()) {
-            for (Integer y : d.get(state).get(x)) {
-                // this adds brackets even when inputs have arity 1 - this is fine, since we just want a usable infinite regex
-                String cycle = infiniteHelper(y, result + decode(x).toString());
-                if (cycle != "") {
-                    return cycle;
+        if(!trimmed[0])return "";
+        StronglyConnectedComponents scc = new StronglyConnectedComponents(n,
+            v -> trimmed[v] ? Arrays.stream(successors.get(v)).filter(w -> trimmed[w]).toArray() : new int[0], new int[]{0});
+        int[] size = new int[scc.count];
+        for(int i = 0; i < n; i++)if(trimmed[i] && scc.component[i] != -1)size[scc.component[i]]++;
+        // the first vertex, in the order they were discovered, that is on a cycle.
+        int c = -1;
+        for(int i = 0; i < n && c == -1; i++) {
+            if(!trimmed[i] || scc.component[i] == -1)continue;
+            if(size[scc.component[i]] > 1)c = i;
+            for(int j:successors.get(i))if(j == i)c = i;
+        }
+        if(c == -1)return "";
+        final int start = c, cycle_component = scc.component[c];
+        String cycle = shortestPath(successors, letters, start, w -> w == start, w -> trimmed[w] && scc.component[w] == cycle_component, true);
+        String prefix = shortestPath(successors, letters, 0, w -> w == start, w -> trimmed[w], false);
+        String suffix = shortestPath(successors, letters, start, w -> accepting[w], w -> trimmed[w], false);
+        return prefix + "(" + cycle + ")*" + suffix;
+    }
+
+    /**
+     * A breadth first search from source, through the vertices allowed, to a vertex that is a target.
+     * @param nonempty whether the path must have at least one letter, even if source is a target.
+     * @return the letters on the shortest path, written as tuples, or null if there is no path.
+     */
+    private String shortestPath(
+            List<int[]> successors, List<int[]> letters, int source,
+            IntPredicate target, IntPredicate allowed, boolean nonempty) {
+        if(!nonempty && target.test(source))return "";
+        int n = successors.size();
+        int[] previous = new int[n], letter = new int[n];
+        Arrays.fill(previous, -1);
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        queue[tail++] = source;
+        previous[source] = source;
+        int end = -1, end_letter = -1, end_previous = -1;
+        while(head < tail && end == -1) {
+            int v = queue[head++];
+            for(int k = 0; k < successors.get(v).length; k++) {
+                int w = successors.get(v)[k];
+                if(!allowed.test(w))continue;
+                if(target.test(w)) {
+                    // the target may be source itself, so we remember the last step apart.
+                    end = w;
+                    end_previous = v;
+                    end_letter = letters.get(v)[k];
+                    break;
                 }
+                if(previous[w] != -1)continue;
+                previous[w] = v;
+                letter[w] = letters.get(v)[k];
+                queue[tail++] = w;
             }
         }
-        visited.remove(state);
-        return "";
+        if(end == -1)return null;
+        List<Integer> path = new ArrayList<Integer>();
+        path.add(end_letter);
+        for(int v = end_previous; v != source; v = previous[v]) {
+            path.add(letter[v]);
+        }
+        Collections.reverse(path);
+        StringBuilder result = new StringBuilder();
+        for(int x:path) {
+            result.append(decode(x).toString());
+        }
+        return result.toString();
     }
 
     /**
@@ -1485,7 +1883,7 @@ public class Automaton {
      * x' and y' are in the corresponding base -2 representations of x and -y.
      * @throws Exception
      */
-    public Automaton split(List<String> inputs, boolean print, String prefix, StringBuffer log) throws Exception {
+    public Automaton split(List<String> inputs, boolean print, String prefix, Log log) throws Exception {
         if(alphabetSize == 0) {
             throw new Exception("Cannot split automaton with no inputs.");
         }
@@ -1550,7 +1948,7 @@ public class Automaton {
      * base 2 representation, then the automaton outputs 0.
      * @throws Exception
      */
-    public Automaton reverseSplit(List<String> inputs, boolean print, String prefix, StringBuffer log) throws Exception {
+    public Automaton reverseSplit(List<String> inputs, boolean print, String prefix, Log log) throws Exception {
         if(alphabetSize == 0) {
             throw new Exception("Cannot reverse split automaton with no inputs.");
         }
@@ -1613,7 +2011,7 @@ public class Automaton {
      * Then on input x, returned automaton should output the first non-zero value of [ M1(x), M2(x), M3(x) ].
      * @throws Exception
      */
-    public Automaton join(Queue<Automaton> subautomata, boolean print, String prefix, StringBuffer log) throws Exception {
+    public Automaton join(Queue<Automaton> subautomata, boolean print, String prefix, Log log) throws Exception {
         Automaton first = this.clone();
 
         while (subautomata.size() > 0) {
@@ -1641,140 +2039,6 @@ public class Automaton {
         return first;
     }
 
-    // helper function for inf, finds an input string that leads from q0 to the specified state
-    private String constructPrefix(Integer target) {
-        List<Integer> distance = new ArrayList<Integer>(Collections.nCopies(Q, -1));
-        List<Integer> prev = new ArrayList<Integer>(Collections.nCopies(Q, -1));
-        List<Integer> input = new ArrayList<Integer>(Collections.nCopies(Q, -1));
-        Integer counter = 0;
-        boolean found = false;
-        distance.set(q0, 0);
-
-        // we very well could have no prefix
-        if (q0 == target) {
-            return "";
-        }
-        while(!found) {
-            for (int i=0; i<Q; i++) {
-                if (distance.get(i)!=counter)
-                    continue;
-                for (Integer x : d.get(i).keySet()) {
-                    for (Integer y : d.get(i).get(x)) {
-                        if (y == target)
-                            found = true;
-                        if (distance.get(y) == -1) {
-                            distance.set(y, counter+1);
-                            prev.set(y, i);
-                            input.set(y, x);
-                        }
-                    }
-                }
-            }
-            counter++;
-        }
-        List<Integer> path = new ArrayList<Integer>();
-        Integer current = target;
-
-        while (current != q0) {
-            path.add(input.get(current));
-            current = prev.get(current);
-        }
-        Collections.reverse(path);
-        String result = "";
-        for (Integer node : path) {
-            result += decode(node).toString();
-        }
-        return result;
-    }
-
-    // helper function for inf, find an input string that leads from the specified state to an accepting state
-    private String constructSuffix(Integer target) {
-        List<Integer> distance = new ArrayList<Integer>(Collections.nCopies(Q, -1));
-        List<Integer> prev = new ArrayList<Integer>(Collections.nCopies(Q, -1));
-        List<Integer> input = new ArrayList<Integer>(Collections.nCopies(Q, -1));
-        Integer counter = 0;
-        boolean found = false;
-        Integer endState = 0;
-        distance.set(target, 0);
-
-        // the starting state may indeed by accepting
-        if (O.get(target) != 0) {
-            return "";
-        }
-        while(!found) {
-            for (int i=0; i<Q; i++) {
-                if (distance.get(i)!=counter)
-                    continue;
-                for (Integer x : d.get(i).keySet()) {
-                    for (Integer y : d.get(i).get(x)) {
-                        if (O.get(y) != 0) {
-                            found = true;
-                            endState = y;
-                        }
-                        if (distance.get(y) == -1) {
-                            distance.set(y, counter+1);
-                            prev.set(y, i);
-                            input.set(y, x);
-                        }
-                    }
-                }
-            }
-            counter++;
-        }
-        List<Integer> path = new ArrayList<Integer>();
-        Integer current = endState;
-
-        while (current != target) {
-            path.add(input.get(current));
-            current = prev.get(current);
-        }
-        Collections.reverse(path);
-        String result = "";
-        for (Integer node : path) {
-            result += decode(node).toString();
-        }
-        return result;
-    }
-
-    public void findAccepted(Integer searchLength, Integer maxNeeded) {
-        this.accepted = new ArrayList<String>();
-        this.searchLength = searchLength;
-        this.maxNeeded = maxNeeded;
-        findAcceptedHelper(0, "", q0);
-    }
-
-    private boolean findAcceptedHelper(Integer curLength, String path, Integer state) {
-        if (curLength == searchLength) {
-            // if we reach an accepting state of desired length, we add the string we've formed to our subautomata list
-            if (O.get(state) != 0) {
-                accepted.add(path);
-                if (accepted.size() >= maxNeeded) {
-                    return true;
-                }
-            }
-            else {
-                return false;
-            }
-        }
-        for (Integer x : d.get(state).keySet()) {
-            for (Integer y : d.get(state).get(x)) {
-                String input = decode(x).toString();
-
-                // we remove brackets if we have a single arity input that is between 0 and 9 (and hence unambiguous)
-                if (A.size() == 1) {
-                    if (decode(x).get(0) >= 0 && decode(x).get(0) <= 9) {
-                        input = input.substring(1, input.length()-1);
-                    }
-                }
-                // if we've already found as much as we need, then there's no need to search further; we propagate the signal
-                if (findAcceptedHelper(curLength+1, path + input, y)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
     public void applyAllRepresentations() throws Exception{
         boolean flag = false;
         if(label == null || label.size() != A.size()){
@@ -1786,6 +2050,8 @@ public class Automaton {
             if(NS.get(i) != null){
                 Automaton N = NS.get(i).getAllRepresentations();
                 if(N != null && NS.get(i).should_we_use_allRepresentations()) {
+                    // the number system's automaton is shared, so we label a copy of it.
+                    N = N.clone();
                     N.bind(label.get(i));
                     K = K.and(N,false,null,null);
                 }
@@ -1829,7 +2095,8 @@ public class Automaton {
      * This method adds a dead state to totalize the transition function
      * @throws Exception
      */
-    private void totalize(boolean print, String prefix, StringBuffer log) throws Exception{
+    private void totalize(boolean print, String prefix, Log log) throws Exception{
+        Metrics.Probe probe = Metrics.start("totalize", this);
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "totalizing:" + Q + " states";
@@ -1865,6 +2132,7 @@ public class Automaton {
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
         }
+        probe.stop(this);
     }
 
     /**
@@ -1877,7 +2145,7 @@ public class Automaton {
      * @return
      * @throws Exception
      */
-    public Automaton applyOperator(Automaton W, String operator,boolean print, String prefix,StringBuffer log) throws Exception{
+    public Automaton applyOperator(Automaton W, String operator,boolean print, String prefix,Log log) throws Exception{
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "applying operator ("+operator+"):" + Q + " states - " + W.Q + " states";
@@ -1904,7 +2172,7 @@ public class Automaton {
      * @return
      * @throws Exception
      */
-    public void applyOperator(String operator,int o,boolean print, String prefix,StringBuffer log) throws Exception{
+    public void applyOperator(String operator,int o,boolean print, String prefix,Log log) throws Exception{
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "applying operator ("+operator+"):" + Q + " states";
@@ -1949,7 +2217,7 @@ public class Automaton {
      * @return
      * @throws Exception
      */
-    public void applyOperator(int o,String operator,boolean print, String prefix,StringBuffer log) throws Exception{
+    public void applyOperator(int o,String operator,boolean print, String prefix,Log log) throws Exception{
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "applying operator ("+operator+"):" + Q + " states";
@@ -1995,7 +2263,7 @@ public class Automaton {
      * @return
      * @throws Exception
      */
-    public Automaton compare(Automaton W, String operator,boolean print, String prefix,StringBuffer log) throws Exception{
+    public Automaton compare(Automaton W, String operator,boolean print, String prefix,Log log) throws Exception{
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "comparing ("+operator+"):" + Q + " states - " + W.Q + " states";
@@ -2022,7 +2290,7 @@ public class Automaton {
      * @return
      * @throws Exception
      */
-    public void compare(int o, String operator, boolean print, String prefix,StringBuffer log) throws Exception{
+    public void compare(int o, String operator, boolean print, String prefix,Log log) throws Exception{
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "comparing ("+operator+") against "+ o +":" + Q + " states";
@@ -2067,8 +2335,9 @@ public class Automaton {
      * @throws
      */
     public void write(String address){
+        Metrics.Probe probe = Metrics.start("write", this);
         try {
-            PrintWriter out = new PrintWriter(address, "UTF-8");
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(address), "UTF-8"), 1 << 16));
             if(TRUE_FALSE_AUTOMATON){
                 if(TRUE_AUTOMATON)
                     out.write("true");
@@ -2088,6 +2357,60 @@ public class Automaton {
         } catch (UnsupportedEncodingException e2) {
             e2.printStackTrace();
         }
+        if(WRITE_BINARY && binaryAddress(address) != null) {
+            writeBinary(binaryAddress(address), new File(address));
+        }
+        probe.stop(this);
+    }
+
+    /**
+     * Writes this automaton in the binary format to a file given by the address. The format is, in big endian order:<br>
+     * int magic, int version, long length and long modification time of the text file written together with it,
+     * byte 1 if this is a true/false automaton and byte 1 if it is the true automaton.
+     * Then, unless this is a true/false automaton: int arity, and for every input the name of its number system
+     * (int length followed by UTF-8 bytes, length 0 for non arithmetic inputs) and its alphabet (int size followed by the ints).
+     * Then int Q, int q0, Q ints for the outputs, and for every state the int number of its transitions followed by,
+     * for every transition, the int encoded input, the int number of destinations and the destinations.<br>
+     * The binary file is only used by Automaton(String) when the text file still has the recorded length and modification time.
+     * @param address
+     * @param text the text file written together with this binary file, or null.
+     */
+    public void writeBinary(String address,File text){
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(address)));
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_VERSION);
+            out.writeLong(text != null && text.exists() ? text.length() : -1);
+            out.writeLong(text != null && text.exists() ? text.lastModified() : -1);
+            out.writeByte(TRUE_FALSE_AUTOMATON ? 1 : 0);
+            out.writeByte(TRUE_AUTOMATON ? 1 : 0);
+            if(!TRUE_FALSE_AUTOMATON){
+                canonize();
+                out.writeInt(A.size());
+                for(int i = 0; i < A.size(); i++){
+                    byte[] name = NS.get(i) == null ? new byte[0] : NS.get(i).toString().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(name.length);
+                    out.write(name);
+                    out.writeInt(A.get(i).size());
+                    for(int x:A.get(i))out.writeInt(x);
+                }
+                out.writeInt(Q);
+                out.writeInt(q0);
+                for(int q = 0; q < Q; q++)out.writeInt(O.get(q));
+                for(int q = 0; q < Q; q++){
+                    out.writeInt(d.get(q).size());
+                    for(int x:d.get(q).keySet()){
+                        List<Integer> dest = d.get(q).get(x);
+                        out.writeInt(x);
+                        out.writeInt(dest.size());
+                        for(int y:dest)out.writeInt(y);
+                    }
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private void writeAlphabet(PrintWriter out) {
@@ -2115,19 +2438,107 @@ public class Automaton {
         out.write(UtilityMethods.newLine());
     }
 
+    /**
+     * Writes the transitions of state q. Transitions to the same destinations are folded into lines with wildcards
+     * where possible (see foldInputs). The lines written are disjoint, and they are sorted by the smallest encoded input they match.
+     */
     private void writeState(PrintWriter out,int q){
-        out.write(
-            UtilityMethods.newLine() + q + " " +
-            Integer.toString(O.get(q)) + UtilityMethods.newLine());
-        for(int n: d.get(q).keySet()){
-            List<Integer> l = decode(n);
-            for(int j = 0 ; j < l.size();j++)
-                out.write(Integer.toString(l.get(j)) + " ");
-            out.write("->");
-            for(int dest:d.get(q).get(n))
-                out.write(" " + Integer.toString(dest));
-            out.write(UtilityMethods.newLine());
+        StringBuilder b = new StringBuilder();
+        b.append(UtilityMethods.newLine()).append(q).append(' ').append(O.get(q)).append(UtilityMethods.newLine());
+        HashMap<List<Integer>,List<Integer>> inputs_of_dest = new HashMap<List<Integer>,List<Integer>>();
+        List<List<Integer>> dests = new ArrayList<List<Integer>>();
+        for(int x:d.get(q).keySet()){
+            List<Integer> dest = d.get(q).get(x);
+            if(!inputs_of_dest.containsKey(dest)){
+                inputs_of_dest.put(dest, new ArrayList<Integer>());
+                dests.add(dest);
+            }
+            inputs_of_dest.get(dest).add(x);
+        }
+        TreeMap<Integer,String> sorted_lines = new TreeMap<Integer,String>();
+        for(List<Integer> dest:dests){
+            TreeMap<Integer,List<Integer>> folded = foldInputs(inputs_of_dest.get(dest));
+            for(int smallest:folded.keySet()){
+                StringBuilder l = new StringBuilder();
+                for(Integer y:folded.get(smallest)){
+                    l.append(y == null ? "*" : Integer.toString(y)).append(' ');
+                }
+                l.append("->");
+                for(int p:dest)l.append(' ').append(p);
+                sorted_lines.put(smallest, l.toString());
+            }
         }
+        for(String line:sorted_lines.values()){
+            b.append(line).append(UtilityMethods.newLine());
+        }
+        out.write(b.toString());
+    }
+
+    /**
+     * Folds a set of encoded inputs into disjoint tuples with wildcards: for every input coordinate in turn, the tuples
+     * that agree everywhere else and together cover the whole alphabet of that coordinate become one tuple with a
+     * wildcard (null) in that coordinate. Coordinates with a single letter are never folded.
+     * @param inputs distinct encoded inputs, as in decode.
+     * @return the tuples, indexed by the smallest encoded input they match.
+     */
+    private TreeMap<Integer,List<Integer>> foldInputs(List<Integer> inputs){
+        /**
+         * A tuple is coded as a long in the mixed radix base radix, where the digit of a coordinate whose alphabet
+         * has size m is either the index of a letter, or m for a wildcard.
+         */
+        int n = A.size();
+        long[] radix = new long[n];
+        // the encoding of inputs, as in decode
+        int[] weight = new int[n];
+        radix[0] = 1;
+        weight[0] = 1;
+        for(int i = 0; i + 1 < n; i++){
+            radix[i+1] = radix[i] * (A.get(i).size() > 1 ? A.get(i).size() + 1 : 1);
+            weight[i+1] = weight[i] * A.get(i).size();
+        }
+        List<Long> lines = new ArrayList<Long>(inputs.size());
+        for(int x:inputs){
+            long line = 0;
+            for(int i = 0; i < n; i++){
+                line += radix[i] * ((x / weight[i]) % A.get(i).size());
+            }
+            lines.add(line);
+        }
+        for(int i = 0; i < n; i++){
+            int m = A.get(i).size();
+            if(m == 1 || lines.size() < m)continue;
+            HashMap<Long,Integer> count = new HashMap<Long,Integer>();
+            for(long line:lines){
+                long digit = (line / radix[i]) % (m + 1);
+                if(digit != m)count.merge(line - digit * radix[i], 1, Integer::sum);
+            }
+            List<Long> folded = new ArrayList<Long>();
+            for(long line:lines){
+                long digit = (line / radix[i]) % (m + 1);
+                long rest = line - digit * radix[i];
+                if(digit == m || count.get(rest) < m)folded.add(line);
+                else if(digit == 0)folded.add(rest + m * radix[i]);
+            }
+            lines = folded;
+        }
+        TreeMap<Integer,List<Integer>> result = new TreeMap<Integer,List<Integer>>();
+        for(long line:lines){
+            List<Integer> tuple = new ArrayList<Integer>(n);
+            int smallest = 0;
+            for(int i = 0; i < n; i++){
+                int m = A.get(i).size();
+                long digit = m > 1 ? (line / radix[i]) % (m + 1) : 0;
+                if(digit == m){
+                    tuple.add(null);
+                }
+                else{
+                    tuple.add(A.get(i).get((int)digit));
+                    smallest += weight[i] * (int)digit;
+                }
+            }
+            result.put(smallest, tuple);
+        }
+        return result;
     }
 
     /**
@@ -2139,219 +2550,188 @@ public class Automaton {
      * @param address
      */
     public void draw(String address,String predicate, boolean isDFAO)throws Exception{
-        GraphViz gv = new GraphViz();
+        String newLine = UtilityMethods.newLine();
+        PrintWriter out;
+        try {
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(address), "UTF-8"), 1 << 16));
+        } catch (FileNotFoundException e2) {
+            e2.printStackTrace();
+            return;
+        } catch (UnsupportedEncodingException e2) {
+            e2.printStackTrace();
+            return;
+        }
+        out.write("digraph G {" + newLine);
         if(TRUE_FALSE_AUTOMATON){
-            gv.addln(gv.start_graph());
-            gv.addln("label = \"(): "+predicate+"\";");
-            gv.addln("rankdir = LR;");
+            out.write("label = \"(): "+predicate+"\";" + newLine);
+            out.write("rankdir = LR;" + newLine);
             if(TRUE_AUTOMATON)
-                gv.addln("node [shape = doublecircle, label=\""+0+"\", fontsize=12]"+0 +";");
+                out.write("node [shape = doublecircle, label=\""+0+"\", fontsize=12]"+0 +";" + newLine);
             else
-                gv.addln("node [shape = circle, label=\""+0+"\", fontsize=12]"+0 +";");
-            gv.addln("node [shape = point ]; qi");
-            gv.addln("qi ->" + 0+";");
+                out.write("node [shape = circle, label=\""+0+"\", fontsize=12]"+0 +";" + newLine);
+            out.write("node [shape = point ]; qi" + newLine);
+            out.write("qi ->" + 0+";" + newLine);
             if(TRUE_AUTOMATON)
-                gv.addln(0 + " -> " + 0+ "[ label = \"*\"];");
-            gv.addln(gv.end_graph());
+                out.write(0 + " -> " + 0+ "[ label = \"*\"];" + newLine);
         }
         else{
             canonize();
-            gv.addln(gv.start_graph());
-            gv.addln("label = \""+ UtilityMethods.toTuple(label) +": "+predicate+"\";");
-            gv.addln("rankdir = LR;");
-            for(int q = 0 ; q < Q;q++){
-                if(isDFAO)
-                    gv.addln("node [shape = circle, label=\""+q+"/"+O.get(q)+"\", fontsize=12]"+q +";");
-                else if(O.get(q)!=0)
-                    gv.addln("node [shape = doublecircle, label=\""+q+"\", fontsize=12]"+q +";");
-                else
-                    gv.addln("node [shape = circle, label=\""+q+"\", fontsize=12]"+q +";");
+            if(Q > OutputPolicy.GV_SUMMARY_STATES){
+                drawSummary(out, predicate, isDFAO);
             }
+            else{
+                out.write("label = \""+ UtilityMethods.toTuple(label) +": "+predicate+"\";" + newLine);
+                out.write("rankdir = LR;" + newLine);
+                for(int q = 0 ; q < Q;q++){
+                    if(isDFAO)
+                        out.write("node [shape = circle, label=\""+q+"/"+O.get(q)+"\", fontsize=12]"+q +";" + newLine);
+                    else if(O.get(q)!=0)
+                        out.write("node [shape = doublecircle, label=\""+q+"\", fontsize=12]"+q +";" + newLine);
+                    else
+                        out.write("node [shape = circle, label=\""+q+"\", fontsize=12]"+q +";" + newLine);
+                }
 
-            gv.addln("node [shape = point ]; qi");
-            gv.addln("qi -> " + q0+";");
+                out.write("node [shape = point ]; qi" + newLine);
+                out.write("qi -> " + q0+";" + newLine);
 
-            TreeMap<Integer, TreeMap<Integer, List<String>>> transitions =
-                new TreeMap<Integer, TreeMap<Integer, List<String>>>();
-            for(int q = 0; q < Q; q++) {
-                transitions.put(q, new TreeMap<>());
-                for(int x : d.get(q).keySet()) {
-                    for(int dest : d.get(q).get(x)) {
-                        transitions.get(q).putIfAbsent(dest, new ArrayList<String>());
-                        transitions.get(q).get(dest).add(
-                            UtilityMethods.toTransitionLabel(decode(x)));
+                // edges are grouped per (source, destination) one source at a time, so only the edges of one state are in memory.
+                for(int q = 0; q < Q; q++) {
+                    TreeMap<Integer, List<Integer>> inputs_of_dest = new TreeMap<Integer, List<Integer>>();
+                    for(int x : d.get(q).keySet()) {
+                        for(int dest : d.get(q).get(x)) {
+                            inputs_of_dest.computeIfAbsent(dest, k -> new ArrayList<Integer>()).add(x);
+                        }
+                    }
+                    for(int dest : inputs_of_dest.keySet()) {
+                        out.write(q + " -> " + dest + "[ label = \"" + transitionLabel(inputs_of_dest.get(dest)) + "\"];" + newLine);
                     }
                 }
             }
-
-            for(int q = 0; q < Q; q++) {
-                for(int dest : transitions.get(q).keySet()) {
-                    String transition_label = String.join(", ", transitions.get(q).get(dest));
-                    gv.addln(q + " -> " + dest + "[ label = \"" + transition_label + "\"];");
-                }
-            }
-
-            gv.addln(gv.end_graph());
-        }
-        try {
-            PrintWriter out = new PrintWriter(address, "UTF-8");
-            out.write(gv.getDotSource());
-            out.close();
-        } catch (FileNotFoundException e2) {
-            e2.printStackTrace();
-        } catch (UnsupportedEncodingException e2) {
-            e2.printStackTrace();
         }
+        out.write("}" + newLine);
+        out.close();
     }
 
     /**
-     * Writes down matrices for this automaton to a .mpl file given by the address.
-     * @param address
+     * @param inputs distinct encoded inputs, in increasing order.
+     * @return the label of an edge on these inputs. Tuples are folded into wildcards as in foldInputs,
+     * and, for automata with one input, runs of at least three consecutive integers are written as a range, e.g., 2..5.
      */
-    public String write_matrices(String address,List<String> free_variables)throws Exception{
-        if(TRUE_FALSE_AUTOMATON){
-            throw new Exception("incidence matrices cannot be calculated, because the automaton does not have a free variable.");
-        }
-        canonize();
-        StringBuffer s = new StringBuffer();
-        s.append("with(ArrayTools):" + UtilityMethods.newLine());
-        write_initial_state_vector(s);
-        s.append(UtilityMethods.newLine() + "# In what follows, the M_i_x, for a free variable i and a value x, denotes" + UtilityMethods.newLine());
-        s.append("# an incidence matrix of the underlying graph of (the automaton of)" + UtilityMethods.newLine());
-        s.append("# the predicate in the query." + UtilityMethods.newLine());
-        s.append("# For every pair of states p and q, the entry M_i_x[p][q] denotes the number of" + UtilityMethods.newLine());
-        s.append("# transitions with i=x from p to q." + UtilityMethods.newLine());
-        for(String variable : free_variables){
-            if(!label.contains(variable)){
-                throw new Exception("incidence matrices for the variable " + variable + " cannot be calculated, because " + variable +" is not a free variable.");
-            }
-        }
-        List<Integer> indices = free_variables.stream().map(variable -> label.indexOf(variable)).collect(Collectors.toList());
-        List<List<Integer>> indexValueLists = indices.stream().map(index -> A.get(index)).collect(Collectors.toList());
-        List<List<Integer>> valueLists = cartesianProduct(indexValueLists);
-        for (List<Integer> valueList: valueLists) {
-            write_matrix_for_a_variable_list_value_pair(free_variables,valueList,indices,s);
-        }
-        write_final_states_vector(s);
-        s.append(UtilityMethods.newLine() + "for i from 1 to Size(v)[2] do v := v.M_");
-        s.append(String.join("_", free_variables)+"_");
-        s.append(String.join("_", Collections.nCopies(free_variables.size(), "0")));
-        s.append("; od; #fix up v by multiplying");
-
-        String res = s.toString();
-
-        try {
-            PrintWriter out = new PrintWriter(address, "UTF-8");
-            out.write(res);
-            out.close();
-        } catch (FileNotFoundException e2) {
-            e2.printStackTrace();
-        } catch (UnsupportedEncodingException e2) {
-            e2.printStackTrace();
-        }
-        return res;
-    }
-
-    private void write_matrix_for_a_variable_list_value_pair(List<String> variables, List<Integer> valueList, List<Integer> indices, StringBuffer s) {
-        s.append(UtilityMethods.newLine() + "M_"+String.join("_", variables)+"_");
-        s.append(valueList.stream().map(String::valueOf).collect(Collectors.joining("_")));
-        s.append(" := Matrix([");
-        Set<Integer> encoded_values = new HashSet<Integer>();
-        for(int x = 0; x != alphabetSize;++x){
-            List<Integer> decoding = decode(x);
-            List<Integer> compareList = indices.stream().map(index -> decoding.get(index)).collect(Collectors.toList());
-            if(compareList.equals(valueList)){
-                encoded_values.add(x);
-            }
-        }
-        int[][] M = new int[Q][Q];
-        for(int p = 0 ; p < Q;++p){
-            TreeMap<Integer, List<Integer>> transitions_p = d.get(p);
-            for(int v : encoded_values){
-                if(transitions_p.containsKey(v)){
-                    List<Integer> dest = transitions_p.get(v);
-                    for(int q:dest){
-                        M[p][q]++;
-                    }
+    private String transitionLabel(List<Integer> inputs) {
+        TreeMap<Integer,List<Integer>> folded = foldInputs(inputs);
+        List<String> labels = new ArrayList<String>();
+        if(A.size() == 1) {
+            List<Integer> run = new ArrayList<Integer>();
+            for(List<Integer> tuple:folded.values()) {
+                Integer y = tuple.get(0);
+                if(y == null) {
+                    labels.add("*");
+                    continue;
                 }
-            }
-
-            s.append("[");
-            for(int q = 0; q < Q;++q){
-                s.append(M[p][q]);
-                if(q < (Q-1)){
-                    s.append(",");
+                if(!run.isEmpty() && run.get(run.size() - 1) + 1 != y) {
+                    addRun(labels, run);
+                    run.clear();
                 }
+                run.add(y);
             }
-            s.append("]");
-            if(p < (Q-1)){
-                s.append("," + UtilityMethods.newLine());
+            addRun(labels, run);
+        }
+        else {
+            for(List<Integer> tuple:folded.values()) {
+                List<String> l = new ArrayList<String>();
+                for(Integer y:tuple)l.add(y == null ? "*" : Integer.toString(y));
+                labels.add(UtilityMethods.toTransitionLabel(l));
             }
         }
-        s.append("]);" + UtilityMethods.newLine());
+        return String.join(", ", labels);
     }
 
-    private void write_initial_state_vector(StringBuffer s){
-        s.append("# The row vector v denotes the indicator vector of the (singleton)" + UtilityMethods.newLine());
-        s.append("# set of initial states." + UtilityMethods.newLine());
-        s.append("v := Vector[row]([");
-        for(int q = 0 ; q != Q; ++q){
-            if(q == q0){
-                s.append("1");
-            }
-            else{
-                s.append("0");
-            }
-            if(q < (Q-1)){
-                s.append(",");
-            }
+    private static void addRun(List<String> labels,List<Integer> run) {
+        if(run.size() >= 3) {
+            labels.add(run.get(0) + ".." + run.get(run.size() - 1));
+        }
+        else {
+            for(int y:run)labels.add(Integer.toString(y));
         }
-        s.append("]);" + UtilityMethods.newLine());
     }
 
-    private void write_final_states_vector(StringBuffer s){
-        s.append(UtilityMethods.newLine()+"# The column vector w denotes the indicator vector of the" + UtilityMethods.newLine());
-        s.append("# set of final states." + UtilityMethods.newLine());
-        s.append("w := Vector[column]([");
-        for(int q = 0; q != Q; ++q){
-            if(O.get(q) != 0){
-                s.append("1");
-            }
-            else{
-                s.append("0");
-            }
-            if(q < (Q-1)){
-                s.append(",");
+    /**
+     * Draws the condensation of this automaton: one node per strongly connected component, with the number
+     * of its states, and one edge per pair of components, with the number of transitions between them.
+     * A component is drawn with a double circle if it has an accepting state, and lists its outputs if isDFAO.
+     */
+    private void drawSummary(PrintWriter out,String predicate,boolean isDFAO) {
+        String newLine = UtilityMethods.newLine();
+        StronglyConnectedComponents scc = new StronglyConnectedComponents(Q, q -> {
+            Set<Integer> successors = new HashSet<Integer>();
+            for(List<Integer> dest:d.get(q).values())successors.addAll(dest);
+            int[] result = new int[successors.size()];
+            int k = 0;
+            for(int p:successors)result[k++] = p;
+            return result;
+        });
+        int[] size = new int[scc.count];
+        boolean[] accepting = new boolean[scc.count];
+        List<TreeSet<Integer>> outputs = new ArrayList<TreeSet<Integer>>();
+        for(int c = 0; c < scc.count; c++)outputs.add(new TreeSet<Integer>());
+        TreeMap<Long,Long> transitions = new TreeMap<Long,Long>();
+        for(int q = 0; q < Q; q++) {
+            int c = scc.component[q];
+            size[c]++;
+            if(O.get(q) != 0)accepting[c] = true;
+            if(isDFAO)outputs.get(c).add(O.get(q));
+            for(List<Integer> dest:d.get(q).values()) {
+                for(int p:dest) {
+                    if(scc.component[p] != c)transitions.merge((long)c * scc.count + scc.component[p], 1L, Long::sum);
+                }
             }
         }
-        s.append("]);" + UtilityMethods.newLine());
+        out.write("label = \""+ UtilityMethods.toTuple(label) +": "+predicate+
+            " (" + Q + " states in " + scc.count + " strongly connected components)\";" + newLine);
+        out.write("rankdir = LR;" + newLine);
+        // components are numbered in reverse topological order, so we number them the other way around.
+        for(int c = scc.count - 1; c >= 0; c--) {
+            int name = scc.count - 1 - c;
+            String text = "C" + name + ": " + size[c] + (size[c] == 1 ? " state" : " states");
+            if(isDFAO)
+                out.write("node [shape = box, label=\""+text+"/"+UtilityMethods.toTuple(new ArrayList<Integer>(outputs.get(c)))+"\", fontsize=12]C"+name +";" + newLine);
+            else if(accepting[c])
+                out.write("node [shape = doublecircle, label=\""+text+"\", fontsize=12]C"+name +";" + newLine);
+            else
+                out.write("node [shape = circle, label=\""+text+"\", fontsize=12]C"+name +";" + newLine);
+        }
+        out.write("node [shape = point ]; qi" + newLine);
+        out.write("qi -> C" + (scc.count - 1 - scc.component[q0]) + ";" + newLine);
+        for(long key:transitions.descendingKeySet()) {
+            int from = scc.count - 1 - (int)(key / scc.count);
+            int to = scc.count - 1 - (int)(key % scc.count);
+            long n = transitions.get(key);
+            out.write("C" + from + " -> C" + to + "[ label = \"" + n + (n == 1 ? " transition" : " transitions") + "\"];" + newLine);
+        }
     }
 
-    private <T> List<List<T>> cartesianProduct(List<List<T>> lists) {
-        List<List<T>> resultLists = new ArrayList<List<T>>();
-        if (lists.size() == 0) {
-            resultLists.add(new ArrayList<T>());
-            return resultLists;
-        } else {
-            List<T> firstList = lists.get(0);
-            List<List<T>> remainingLists = cartesianProduct(lists.subList(1, lists.size()));
-            for (T condition : firstList) {
-                for (List<T> remainingList : remainingLists) {
-                    ArrayList<T> resultList = new ArrayList<T>();
-                    resultList.add(condition);
-                    resultList.addAll(remainingList);
-                    resultLists.add(resultList);
-                }
-            }
+    /**
+     * Writes down matrices for this automaton to a .mpl file given by the address.
+     * See LinearRepresentation for the other formats.
+     * @param address
+     */
+    public void write_matrices(String address,List<String> free_variables)throws Exception{
+        if(TRUE_FALSE_AUTOMATON){
+            throw new Exception("incidence matrices cannot be calculated, because the automaton does not have a free variable.");
         }
-        return resultLists;
+        canonize();
+        new LinearRepresentation(this, free_variables).writeMaple(address, false);
     }
 
     /**
      * We can choose to do Valmari or Hopcroft.
      * @throws Exception
      */
-    public void minimize(boolean print, String prefix, StringBuffer log) throws Exception {
+    public void minimize(boolean print, String prefix, Log log) throws Exception {
+        Metrics.Probe probe = Metrics.start("minimize", this);
+        FlightEvents.Minimization event = new FlightEvents.Minimization();
+        int depth = FlightEvents.enter(event);
+        int inputStates = Q;
         long timeBefore = System.currentTimeMillis();
         if(print) {
             String msg = prefix + "Minimizing: " + Q + " states.";
@@ -2361,6 +2741,13 @@ public class Automaton {
 
         minimize_valmari(print, prefix + " ", log);
         //minimize_hopcroft();
+        FlightEvents.exit(depth);
+        if(event.shouldCommit()) {
+            event.inputStates = inputStates;
+            event.outputStates = Q;
+            event.depth = depth;
+            event.commit();
+        }
 
         long timeAfter = System.currentTimeMillis();
         if(print) {
@@ -2369,12 +2756,13 @@ public class Automaton {
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
         }
+        probe.stop(this);
     }
 
     /**
      * Uses the Hopcroft minimization algorithm of the package dk.brics.automaton to minimize this automaton.
      */
-    private void minimize_hopcroft()throws Exception{
+    void minimize_hopcroft()throws Exception{
         dk.brics.automaton.Automaton M = to_dk_bricks_automaton();
         if(M.isDeterministic()){
             M.minimize();
@@ -2621,7 +3009,7 @@ public class Automaton {
      * @param c
      * @return
      */
-    private List<Integer> decode(int n){
+    List<Integer> decode(int n){
         List<Integer> l = new ArrayList<Integer>();
         for(int i = 0 ; i < A.size();i++){
             l.add(A.get(i).get(n % A.get(i).size()));
@@ -2657,11 +3045,7 @@ public class Automaton {
      */
     public int encode(List<Integer> l){
         if(encoder == null){
-            encoder = new ArrayList<Integer>();
-            encoder.add(1);
-            for(int i = 0 ; i < A.size()-1;i++){
-                encoder.add(encoder.get(i)*A.get(i).size());
-            }
+            setEncoder();
         }
         int encoding = 0;
         for(int i = 0 ; i < l.size();i++){
@@ -2670,6 +3054,14 @@ public class Automaton {
         return encoding;
     }
 
+    private void setEncoder(){
+        encoder = new ArrayList<Integer>();
+        encoder.add(1);
+        for(int i = 0 ; i < A.size()-1;i++){
+            encoder.add(encoder.get(i)*A.get(i).size());
+        }
+    }
+
     public int encode(List<Integer> l,List<List<Integer>> A,List<Integer> encoder){
         int encoding = 0;
         for(int i = 0 ; i < l.size();i++){
@@ -2678,26 +3070,26 @@ public class Automaton {
         return encoding;
     }
 
-    /**A wildcard is denoted by null in L. What do we mean by expanding wildcard?
-     * Here is an example: suppose that A = [[1,2],[0,-1],[3,4,5]] and L = [1,*,4]. Then the method would return
-     * [[1,0,4],[1,-1,4]]. In other words, it'll replace * in the second position with 0 and -1.
-     * */
-    private List<List<Integer>> expandWildcard(List<Integer> L){
-        List<List<Integer>> R = new ArrayList<List<Integer>>();
-        R.add(new ArrayList<Integer>(L));
-        for(int i = 0 ; i < L.size();i++){
-            if(L.get(i) == null){
-                List<List<Integer>> tmp = new ArrayList<List<Integer>>();
-                for(int x:A.get(i)){
-                    for(List<Integer> tmp2:R){
-                        tmp.add(new ArrayList<Integer>(tmp2));
-                        tmp.get(tmp.size()-1).set(i, x);
-                    }
-                }
-                R = new ArrayList<List<Integer>>(tmp);
-            }
+    /**
+     * Adds a transition to dest on every input that matches L, where a wildcard is denoted by null in L.
+     * For example, suppose that A = [[1,2],[0,-1],[3,4,5]] and L = [1,*,4]. Then transitions on
+     * [1,0,4] and [1,-1,4] are added. The encodings are computed directly, without building the tuples.
+     * @param index index[i] is the index of L.get(i) in A.get(i), if L.get(i) is not a wildcard.
+     * @param i the first coordinate of L that is not handled yet.
+     * @param encoding the encoding of the coordinates before i.
+     */
+    private void addTransitions(TreeMap<Integer,List<Integer>> transitions,List<Integer> L,int[] index,int i,int encoding,List<Integer> dest){
+        if(i == L.size()){
+            transitions.put(encoding, dest);
+            return;
+        }
+        if(L.get(i) != null){
+            addTransitions(transitions, L, index, i+1, encoding + encoder.get(i) * index[i], dest);
+            return;
+        }
+        for(int j = 0; j < A.get(i).size(); j++){
+            addTransitions(transitions, L, index, i+1, encoding + encoder.get(i) * j, dest);
         }
-        return R;
     }
 
     public void bind(String a)throws Exception{
@@ -2769,7 +3161,11 @@ public class Automaton {
         return to_dk_bricks_automaton().isEmpty();
     }
 
-    private void subsetConstruction(HashSet<Integer> initial_state,boolean print, String prefix, StringBuffer log)throws Exception{
+    void subsetConstruction(HashSet<Integer> initial_state,boolean print, String prefix, Log log)throws Exception{
+        Metrics.Probe probe = Metrics.start("determinize", this);
+        FlightEvents.Determinization event = new FlightEvents.Determinization();
+        int depth = FlightEvents.enter(event);
+        int inputStates = Q;
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "determinizing:" + Q + " states";
@@ -2786,6 +3182,7 @@ public class Automaton {
         List<TreeMap<Integer,List<Integer>>> new_d = new ArrayList<TreeMap<Integer,List<Integer>>>();
 
         while(current_state < number_of_states){
+            ResourceGovernor.check(number_of_states);
             HashSet<Integer> state = statesList.get(current_state);
             new_d.add(new TreeMap<Integer,List<Integer>>());
             HashSet<Integer> dest;
@@ -2833,15 +3230,24 @@ public class Automaton {
             }
         }
         O = newO;
+        notePeakStates(Q);
+        FlightEvents.exit(depth);
+        if(event.shouldCommit()) {
+            event.inputStates = inputStates;
+            event.outputStates = Q;
+            event.depth = depth;
+            event.commit();
+        }
         long timeAfter = System.currentTimeMillis();
         if(print){
             String msg = prefix + "determinized:" + Q + " states - "+(timeAfter-timeBefore)+"ms";
             log.append(msg + UtilityMethods.newLine());
             System.out.println(msg);
         }
+        probe.stop(this);
     }
 
-    private void fixLeadingZerosProblem(boolean print, String prefix,StringBuffer log)throws Exception{
+    private void fixLeadingZerosProblem(boolean print, String prefix,Log log)throws Exception{
         if(TRUE_FALSE_AUTOMATON)return;
         long timeBefore = System.currentTimeMillis();
         if(print){
@@ -2871,7 +3277,7 @@ public class Automaton {
         }
     }
 
-    private void fixTrailingZerosProblem(boolean print, String prefix,StringBuffer log) throws Exception{
+    private void fixTrailingZerosProblem(boolean print, String prefix,Log log) throws Exception{
         long timeBefore = System.currentTimeMillis();
         if(print){
             String msg = prefix + "fixing trailing zeros:" + Q + " states";
@@ -2911,7 +3317,7 @@ public class Automaton {
      * @return
      * @throws Exception
      */
-    public Automaton removeLeadingZeroes(List<String> listOfLabels, boolean print, String prefix, StringBuffer log) throws Exception {
+    public Automaton removeLeadingZeroes(List<String> listOfLabels, boolean print, String prefix, Log log) throws Exception {
         for(String s:listOfLabels) {
             if(!label.contains(s)) {
                 throw new Exception( "Variable " + s + " in the list of quantified variables is not a free variable.");
@@ -2956,7 +3362,7 @@ public class Automaton {
      * @return
      * @throws Exception
      */
-    private Automaton removeLeadingZeroesHelper(int n, boolean print, String prefix, StringBuffer log) throws Exception{
+    private Automaton removeLeadingZeroesHelper(int n, boolean print, String prefix, Log log) throws Exception{
         if (n >= A.size() || n < 0) {
             throw new Exception("Cannot remove leading zeroes for the "
                     + (n+1) + "-th input when automaton only has " + A.size() + " inputs.");
@@ -0,0 +1,175 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of automata indexed by integers, like the automaton for the constant n or for
+ * multiplication by n in NumberSystem.<br>
+ * The cache is bounded by the total number of states of the automata it holds in memory (its weight).
+ * When a directory is given, every automaton put in the cache is also written to that directory, and an automaton
+ * that is not in memory is read back from there. So evicted automata, and automata computed by earlier runs,
+ * are not computed again. Reading a small automaton from disk is slower than computing it, so only automata that took
+ * at least MIN_MILLIS_TO_STORE milliseconds to compute are written.<br>
+ * Automata returned by get must not be altered, exactly like the ones returned by private methods of NumberSystem.
+ */
+public class AutomatonCache {
+	/**
+	 * The default bound on the total number of states an AutomatonCache keeps in memory.
+	 * It can be set with -Dwalnut.cache.states=...
+	 */
+	public static long MAX_STATES = Long.getLong("walnut.cache.states", 1000000);
+	/**
+	 * Whether caches of number systems are backed by a directory. It can be turned off with -Dwalnut.cache.disk=false
+	 */
+	public static boolean USE_DISK = !"false".equals(System.getProperty("walnut.cache.disk"));
+	public static long MIN_MILLIS_TO_STORE = 20;
+
+	LinkedHashMap<Integer,Automaton> table;
+	long weight;
+	long capacity;
+	String directory;
+	String prefix;
+	/**
+	 * Indices of the automata stored in directory. Read once, so that a miss does not cost a file system lookup.
+	 */
+	HashSet<Integer> stored;
+
+	/**
+	 * @param capacity the maximum total number of states kept in memory. The most recently added automaton is
+	 * always kept, even if it alone is heavier than capacity.
+	 * @param directory where automata are stored on disk, or null for an in memory only cache.
+	 * @param prefix the file name of the automaton with index n is prefix + n + ".txt"
+	 */
+	public AutomatonCache(long capacity,String directory,String prefix) {
+		this.capacity = capacity;
+		this.directory = directory;
+		this.prefix = prefix;
+		table = new LinkedHashMap<Integer,Automaton>(16, 0.75f, true);
+	}
+
+	/**
+	 * @param n
+	 * @param ns the number system of all inputs of the cached automata. Automata read from disk get ns as their number systems.
+	 * @return the automaton with index n, or null if it is neither in memory nor on disk.
+	 * @throws Exception
+	 */
+	public synchronized Automaton get(int n,NumberSystem ns) throws Exception {
+		Automaton M = table.get(n);
+		if(M != null || directory == null || !stored().contains(n))return M;
+		File file = new File(address(n));
+		try {
+			M = new Automaton(file.getPath());
+		} catch(Exception e) {
+			// a damaged cache entry is simply recomputed
+			file.delete();
+			stored.remove(n);
+			return null;
+		}
+		if(!M.TRUE_FALSE_AUTOMATON) {
+			for(int i = 0; i < M.NS.size(); i++) {
+				M.NS.set(i, ns);
+			}
+		}
+		add(n, M);
+		return M;
+	}
+
+	public synchronized void put(int n,Automaton M) throws Exception {
+		put(n, M, 0);
+	}
+
+	/**
+	 * Adds M to the cache, and writes it to disk if this cache has a directory and M was expensive to compute.
+	 * @param n
+	 * @param M
+	 * @param millis the time it took to compute M.
+	 * @throws Exception
+	 */
+	public synchronized void put(int n,Automaton M,long millis) throws Exception {
+		add(n, M);
+		if(directory == null || millis < MIN_MILLIS_TO_STORE || stored().contains(n))return;
+		File file = new File(address(n));
+		new File(directory).mkdirs();
+		stored.add(n);
+		// write to a temporary file first, so that a concurrent reader never sees half of an automaton.
+		File temporary = new File(address(n) + ".tmp");
+		M.clone().write(temporary.getPath());
+		if(!temporary.renameTo(file))temporary.delete();
+	}
+
+	public synchronized boolean containsKey(int n) {
+		return table.containsKey(n) || (directory != null && stored().contains(n));
+	}
+
+	/**
+	 * Removes all automata from memory. Files on disk are kept.
+	 */
+	public synchronized void clear() {
+		table.clear();
+		weight = 0;
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	private void add(int n,Automaton M) {
+		Automaton old = table.put(n, M);
+		if(old != null)weight -= weight(old);
+		weight += weight(M);
+		Iterator<Map.Entry<Integer,Automaton>> it = table.entrySet().iterator();
+		while(weight > capacity && table.size() > 1 && it.hasNext()) {
+			Map.Entry<Integer,Automaton> eldest = it.next();
+			if(eldest.getKey() == n)continue;
+			weight -= weight(eldest.getValue());
+			it.remove();
+		}
+	}
+
+	private HashSet<Integer> stored() {
+		if(stored == null) {
+			stored = new HashSet<Integer>();
+			String[] names = new File(directory).list();
+			if(names == null)return stored;
+			for(String name:names) {
+				if(!name.startsWith(prefix) || !name.endsWith(".txt"))continue;
+				try {
+					stored.add(Integer.parseInt(name.substring(prefix.length(), name.length() - 4)));
+				} catch(NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		}
+		return stored;
+	}
+
+	private static long weight(Automaton M) {
+		return M.TRUE_FALSE_AUTOMATON ? 1 : Math.max(1, M.Q);
+	}
+
+	private String address(int n) {
+		return directory + prefix + n + ".txt";
+	}
+}
@@ -0,0 +1,156 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the expensive steps of an evaluation: products, determinizations, minimizations and
+ * quantifications of automata, every operator of a predicate, and every predicate. A recording
+ * (e.g., java -XX:StartFlightRecording=filename=walnut.jfr ..., or jcmd <pid> JFR.start on a running Walnut)
+ * then shows which subformula of which command took the time and memory: the events of a thread nest in time.<br>
+ * The usual pattern is<br>
+ * FlightEvents.Minimization event = new FlightEvents.Minimization();<br>
+ * int depth = FlightEvents.enter(event);<br>
+ * ... the operation ...<br>
+ * FlightEvents.exit(depth);<br>
+ * if(event.shouldCommit()) { set the fields; event.commit(); }<br>
+ * When nothing records these events, the JIT removes the event objects and enter, exit and shouldCommit do next
+ * to nothing.
+ */
+public class FlightEvents {
+	/**
+	 * Depth of the operation of each thread that is being recorded: 0 for an operation that no other
+	 * recorded operation called.
+	 */
+	private static final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+	/**
+	 * Begins event.
+	 * @return the nesting depth of the operation, or -1 if event is not enabled. Pass it to exit.
+	 */
+	public static int enter(Event event) {
+		event.begin();
+		if(!event.isEnabled())return -1;
+		int[] d = depth.get();
+		return d[0]++;
+	}
+
+	/**
+	 * Ends the operation that entered at the given depth. Operations it called that did not exit, because of an
+	 * exception, are closed too.
+	 */
+	public static void exit(int depth) {
+		if(depth >= 0)FlightEvents.depth.get()[0] = depth;
+	}
+
+	/**
+	 * Forgets the operations of the current thread that did not exit. Called before every predicate.
+	 */
+	public static void reset() {
+		depth.get()[0] = 0;
+	}
+
+	@Name("walnut.Product")
+	@Label("Cross Product")
+	@Category({"Walnut", "Automata"})
+	@Description("The cross product of two automata, the first step of and, or, xor, => and <=>")
+	public static class Product extends Event {
+		@Label("Operator")
+		public String operator;
+		@Label("Left States")
+		public int leftStates;
+		@Label("Right States")
+		public int rightStates;
+		@Label("Output States")
+		public int outputStates;
+		@Label("Depth")
+		public int depth;
+	}
+
+	@Name("walnut.Determinization")
+	@Label("Determinization")
+	@Category({"Walnut", "Automata"})
+	@Description("The subset construction")
+	public static class Determinization extends Event {
+		@Label("Input States")
+		public int inputStates;
+		@Label("Output States")
+		public int outputStates;
+		@Label("Depth")
+		public int depth;
+	}
+
+	@Name("walnut.Minimization")
+	@Label("Minimization")
+	@Category({"Walnut", "Automata"})
+	public static class Minimization extends Event {
+		@Label("Input States")
+		public int inputStates;
+		@Label("Output States")
+		public int outputStates;
+		@Label("Depth")
+		public int depth;
+	}
+
+	@Name("walnut.Quantification")
+	@Label("Quantification")
+	@Category({"Walnut", "Automata"})
+	@Description("The elimination of variables, including the determinization, the minimization and the fix of leading or trailing zeros")
+	public static class Quantification extends Event {
+		@Label("Variables")
+		public String variables;
+		@Label("Input States")
+		public int inputStates;
+		@Label("Output States")
+		public int outputStates;
+		@Label("Depth")
+		public int depth;
+	}
+
+	@Name("walnut.Subformula")
+	@Label("Subformula")
+	@Category({"Walnut", "Predicates"})
+	@Description("One operator of a predicate, applied to the automata of its operands")
+	public static class Subformula extends Event {
+		@Label("Subformula")
+		public String subformula;
+		@Label("Position")
+		@Description("The position of the operator in the predicate")
+		public int position;
+		@Label("Output States")
+		@Description("-1 if the result is not an automaton")
+		public int outputStates;
+	}
+
+	@Name("walnut.Predicate")
+	@Label("Predicate")
+	@Category({"Walnut", "Predicates"})
+	@Description("The evaluation of the predicate of an eval or def command")
+	public static class Predicate extends Event {
+		@Label("Predicate")
+		public String predicate;
+		@Label("Output States")
+		public int outputStates;
+	}
+}
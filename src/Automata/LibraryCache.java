@@ -0,0 +1,196 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import Main.OutputPolicy;
+
+/**
+ * A session wide cache of the automata in Word Automata Library and Automata Library, indexed by file.<br>
+ * An entry remembers the length and the modification time of its file, and is read again from disk when either
+ * has changed, e.g., when the file was edited by hand. Commands that write to the library go through write,
+ * which updates the entry, so the next reference does not read the file again.<br>
+ * Like AutomatonCache, the cache is bounded by the total number of states it holds. Callers get a clone, which they may alter.
+ */
+public class LibraryCache {
+	static class Entry {
+		Automaton M;
+		long length;
+		long lastModified;
+		/**
+		 * True while the file is waiting to be written by OutputPolicy. Until then the entry is valid whatever the file says.
+		 */
+		boolean pending;
+		Entry(Automaton M,File file) {
+			this.M = M;
+			setFile(file);
+		}
+		void setFile(File file) {
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+		}
+		boolean isValid(File file) {
+			return pending || file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+
+	static LinkedHashMap<String,Entry> table = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+	static long weight = 0;
+
+	/**
+	 * @param address
+	 * @return the automaton in the file address, as new Automaton(address) would return it.
+	 * @throws Exception
+	 */
+	public static Automaton load(String address) throws Exception {
+		File file = new File(address);
+		String key = file.getAbsolutePath();
+		Entry entry;
+		synchronized(LibraryCache.class) {
+			entry = table.get(key);
+			if(entry != null && !entry.isValid(file))entry = null;
+		}
+		// reading and cloning are done outside the lock, so that threads loading different automata don't wait
+		// for each other. The automaton of an entry is never altered, so it can be cloned by several threads at once.
+		if(entry != null)return entry.M.clone();
+		Automaton M = new Automaton(address);
+		Entry read = new Entry(M.clone(), file);
+		synchronized(LibraryCache.class) {
+			// unless a write got in first
+			Entry current = table.get(key);
+			if(current == null || !current.isValid(file))put(key, read);
+		}
+		return M;
+	}
+
+	/**
+	 * Writes M to the file address, and caches it. The file is written through OutputPolicy, so it may be written
+	 * later, by another thread. In the meantime load returns M.
+	 * @param M
+	 * @param address
+	 */
+	public static void write(Automaton M,String address) {
+		M.canonize();
+		File file = new File(address);
+		String key = file.getAbsolutePath();
+		// keep what a fresh read of the file gives: the canonized automaton without labels, and with
+		// alphabetSize and encoder computed from A. Some automata, e.g., those built from morphisms, don't set them.
+		Automaton N = M.clone();
+		N.label = new ArrayList<String>();
+		N.encoder = null;
+		N.canonized = false;
+		N.labelSorted = false;
+		if(!N.TRUE_FALSE_AUTOMATON) {
+			N.alphabetSize = 1;
+			for(List<Integer> l:N.A) {
+				N.alphabetSize *= l.size();
+			}
+		}
+		Entry entry = new Entry(N, file);
+		entry.pending = true;
+		synchronized(LibraryCache.class) {
+			put(key, entry);
+		}
+		Automaton W = M.clone();
+		// not under the lock: submit waits when the queue of OutputPolicy is full.
+		OutputPolicy.submit(() -> {
+			// Automaton.write is not atomic, and another session may read the library while we write: we write
+			// a temporary file next to the file and rename it.
+			File temporary = new File(address + ".tmp");
+			boolean written = false;
+			try {
+				W.write(temporary.getPath());
+				replace(temporary, file);
+				written = true;
+			} finally {
+				temporary.delete();
+				// if the file could not be written, the entry must not stand in for it: the next load reads the file.
+				synchronized(LibraryCache.class) {
+					entry.pending = false;
+					if(written) {
+						entry.setFile(file);
+					} else if(table.get(key) == entry) {
+						table.remove(key);
+						weight -= weight(entry.M);
+					}
+				}
+			}
+			String binaryAddress = Automaton.binaryAddress(address);
+			if(Automaton.WRITE_BINARY && binaryAddress != null) {
+				// a binary file that does not match the text file is ignored, see Automaton.readBinary
+				temporary = new File(binaryAddress + ".tmp");
+				try {
+					W.writeBinary(temporary.getPath(), file);
+					replace(temporary, new File(binaryAddress));
+				} finally {
+					temporary.delete();
+				}
+			}
+		});
+	}
+
+	public static synchronized void invalidate(String address) {
+		Entry entry = table.remove(new File(address).getAbsolutePath());
+		if(entry != null)weight -= weight(entry.M);
+	}
+
+	public static synchronized void clear() {
+		table.clear();
+		weight = 0;
+	}
+
+	private static void replace(File temporary,File file) throws IOException {
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Adds entry, and evicts the least recently used entries while the cache is too large. Pending entries are never
+	 * evicted: eval and def don't flush OutputPolicy, so until the file is written the entry is the only copy.
+	 */
+	private static void put(String key,Entry entry) {
+		Entry old = table.put(key, entry);
+		if(old != null)weight -= weight(old.M);
+		weight += weight(entry.M);
+		Iterator<Map.Entry<String,Entry>> it = table.entrySet().iterator();
+		while(weight > AutomatonCache.MAX_STATES && table.size() > 1 && it.hasNext()) {
+			Map.Entry<String,Entry> eldest = it.next();
+			if(eldest.getKey().equals(key) || eldest.getValue().pending)continue;
+			weight -= weight(eldest.getValue().M);
+			it.remove();
+		}
+	}
+
+	private static long weight(Automaton M) {
+		return M.TRUE_FALSE_AUTOMATON ? 1 : Math.max(1, M.Q);
+	}
+}
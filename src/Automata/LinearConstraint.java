@@ -0,0 +1,81 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.util.TreeMap;
+
+/**
+ * A single constraint of the form a_1*x_1 + ... + a_n*x_n + constant R 0 where R is one of
+ * =, !=, <= or "is congruent to, modulo modulus". NumberSystem.linear turns each of these into an automaton.
+ * Congruences come from eliminating quotients, see LinearForm.eliminate.<br>
+ * Coefficients equal to zero are kept on purpose: the variable still becomes an input of the automaton,
+ * exactly as it would if the constraint was built with addition automata.
+ */
+public class LinearConstraint {
+	public static final int EQUAL = 0;
+	public static final int NOT_EQUAL = 1;
+	public static final int LESS_EQUAL = 2;
+	public static final int CONGRUENT = 3;
+
+	TreeMap<String,Integer> coefficients;
+	int constant;
+	int relation;
+	/**
+	 * Only used when relation is CONGRUENT.
+	 */
+	int modulus;
+
+	public LinearConstraint(TreeMap<String,Integer> coefficients,int constant,int relation) {
+		this(coefficients,constant,relation,0);
+	}
+
+	public LinearConstraint(TreeMap<String,Integer> coefficients,int constant,int relation,int modulus) {
+		this.coefficients = new TreeMap<String,Integer>(coefficients);
+		this.constant = constant;
+		this.relation = relation;
+		this.modulus = modulus;
+	}
+
+	/**
+	 * @param value the value of the left hand side without the constant.
+	 * @return true if value + constant satisfies this constraint.
+	 */
+	boolean holds(long value) {
+		switch(relation) {
+			case EQUAL: return value + constant == 0;
+			case NOT_EQUAL: return value + constant != 0;
+			case LESS_EQUAL: return value + constant <= 0;
+			default: return Math.floorMod(value + constant, (long)modulus) == 0;
+		}
+	}
+
+	public String toString() {
+		String s = "";
+		for(String x:coefficients.keySet()) {
+			s += (s.isEmpty() ? "" : "+") + coefficients.get(x) + "*" + x;
+		}
+		s += (s.isEmpty() ? "" : "+") + constant;
+		switch(relation) {
+			case EQUAL: return s + "=0";
+			case NOT_EQUAL: return s + "!=0";
+			case LESS_EQUAL: return s + "<=0";
+			default: return s + "=0(mod " + modulus + ")";
+		}
+	}
+}
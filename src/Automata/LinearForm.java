@@ -0,0 +1,404 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A symbolic arithmetic expression a_1*x_1 + ... + a_n*x_n + constant over a number system that supports
+ * NumberSystem.linear, e.g., 3*x+5*y-2*z+7.<br>
+ * Instead of building one addition automaton per operator and quantifying a fresh variable after each of them,
+ * the arithmetic operators combine linear forms, and the relational operators compile the
+ * comparison into carry automata, one per constraint (see NumberSystem.linear). Operators whose linear form does not
+ * fit the bounds of NumberSystem.linear fall back to addition automata.<br>
+ * The semantics of the operator by operator construction are preserved:<br>
+ * - every intermediate subtraction a-b has to be a natural number, so we remember the condition a-b >= 0.<br>
+ * - a/n is the quotient q of a by n, so we introduce q together with the conditions 0 <= a-n*q <= n-1.<br>
+ * - an operand that we cannot compile (for example a word, or an expression of another number system) is kept as
+ *   an automaton bound to its identifier. It is intersected with the result, and its identifier is eliminated at the end.<br>
+ * A quotient that an equation determines is eliminated before the automata are built (see eliminate), e.g.,
+ * x = 3*(x/3) + 1 becomes the congruence x-1 = 0 (mod 3) together with 1-x <= 0.<br>
+ * Coefficients and constants are ints. A form whose arithmetic overflows does not fit, so the operators use
+ * addition automata for it.
+ */
+public class LinearForm {
+	NumberSystem ns;
+	TreeMap<String,Integer> coefficients;
+	int constant;
+	/**
+	 * Side conditions, collected from subtractions and divisions.
+	 */
+	List<LinearConstraint> conditions;
+	/**
+	 * Automata of the operands we could not compile, bound to their identifiers.
+	 */
+	List<Automaton> operands;
+	/**
+	 * Identifiers of quotients and of operands that must be existentially quantified.
+	 */
+	Set<String> quantify;
+	/**
+	 * Set when a coefficient or the constant of this form, or of one of its side conditions, does not fit in an int.
+	 */
+	boolean overflow;
+
+	private LinearForm(NumberSystem ns) {
+		this.ns = ns;
+		coefficients = new TreeMap<String,Integer>();
+		conditions = new ArrayList<LinearConstraint>();
+		operands = new ArrayList<Automaton>();
+		quantify = new HashSet<String>();
+	}
+
+	public static LinearForm variable(NumberSystem ns,String name) {
+		LinearForm f = new LinearForm(ns);
+		f.coefficients.put(name, 1);
+		return f;
+	}
+
+	public static LinearForm constant(NumberSystem ns,int n) {
+		LinearForm f = new LinearForm(ns);
+		f.constant = n;
+		return f;
+	}
+
+	/**
+	 * @param identifier
+	 * @param M an automaton with an input labeled identifier.
+	 * @return the linear form identifier, where identifier is constrained by M.
+	 */
+	public static LinearForm operand(NumberSystem ns,String identifier,Automaton M) {
+		LinearForm f = variable(ns,identifier);
+		f.operands.add(M);
+		f.quantify.add(identifier);
+		return f;
+	}
+
+	public NumberSystem getNumberSystem() {
+		return ns;
+	}
+
+	public LinearForm plus(LinearForm g) {
+		LinearForm f = copy();
+		f.add(g, 1);
+		return f;
+	}
+
+	public LinearForm minus(LinearForm g) {
+		LinearForm f = copy();
+		f.add(g, -1);
+		// this - g must be a natural number: g - this <= 0
+		f.condition(f.negate(), LinearConstraint.LESS_EQUAL);
+		return f;
+	}
+
+	public LinearForm times(int n) {
+		LinearForm f = copy();
+		for(String x:f.coefficients.keySet()) {
+			f.coefficients.put(x, f.product(f.coefficients.get(x), n));
+		}
+		f.constant = f.product(f.constant, n);
+		return f;
+	}
+
+	/**
+	 * @param n a positive integer
+	 * @param q a fresh identifier for the quotient
+	 * @return the linear form q, where q = floor(this/n).
+	 */
+	public LinearForm dividedBy(int n,String q) throws Exception {
+		if(n <= 0)throw new Exception("division by zero");
+		LinearForm f = copy();
+		LinearForm Q = variable(ns,q).times(n);
+		// n*q - this <= 0
+		f.condition(Q.difference(this), LinearConstraint.LESS_EQUAL);
+		// this - n*q - (n-1) <= 0
+		LinearForm upper = difference(Q);
+		upper.constant = upper.sum(upper.constant, -(n-1));
+		f.condition(upper, LinearConstraint.LESS_EQUAL);
+		f.coefficients = new TreeMap<String,Integer>();
+		f.coefficients.put(q, 1);
+		f.constant = 0;
+		f.quantify.add(q);
+		return f;
+	}
+
+	/**
+	 * @param c
+	 * @return an automaton with input c (and the variables of this linear form) that accepts iff c = this.
+	 * @throws Exception
+	 */
+	public Automaton equalTo(String c,boolean print,String prefix,Log log) throws Exception {
+		return compare("=", variable(ns,c), print, prefix, log);
+	}
+
+	/**
+	 * @param comparisonOperator can be any of "<",">","<=",">=","=","!="
+	 * @param g
+	 * @return an automaton that accepts iff this comparisonOperator g.
+	 * @throws Exception
+	 */
+	public Automaton compare(String comparisonOperator,LinearForm g,boolean print,String prefix,Log log) throws Exception {
+		LinearForm f = copy();
+		f.add(g, -1);
+		List<LinearConstraint> constraints = f.constraints(comparisonOperator);
+		/**
+		 * We build one automaton per constraint and intersect them, followed by the operands. A quotient or an operand
+		 * is quantified as soon as the constraints and operands that are left do not mention it, so that it does
+		 * not stay an input of the automata we intersect afterwards.
+		 */
+		List<Set<String>> remaining = new ArrayList<Set<String>>();
+		for(LinearConstraint c:constraints) {
+			remaining.add(c.coefficients.keySet());
+		}
+		for(Automaton N:f.operands) {
+			remaining.add(new HashSet<String>(N.label));
+		}
+		Automaton M = null;
+		for(int i = 0; i < remaining.size(); i++) {
+			Automaton N = i < constraints.size() ? ns.linear(constraints.get(i)) : f.operands.get(i - constraints.size());
+			M = M == null ? N : M.and(N, print, prefix, log);
+			Set<String> done = new HashSet<String>();
+			for(String x:f.quantify) {
+				if(M.label == null || !M.label.contains(x))continue;
+				boolean used = false;
+				for(int j = i+1; j < remaining.size() && !used; j++) {
+					used = remaining.get(j).contains(x);
+				}
+				if(!used)done.add(x);
+			}
+			if(!done.isEmpty()) {
+				M.quantify(done, print, prefix, log);
+			}
+		}
+		return M;
+	}
+
+	/**
+	 * @return true if compare(comparisonOperator,g) only builds automata within the bounds of NumberSystem.linear.
+	 * Otherwise the operators use addition automata.
+	 */
+	public boolean fits(String comparisonOperator,LinearForm g) throws Exception {
+		LinearForm f = copy();
+		f.add(g, -1);
+		List<LinearConstraint> constraints = f.constraints(comparisonOperator);
+		if(f.overflow)return false;
+		Set<String> variables = new HashSet<String>(f.coefficients.keySet());
+		for(LinearConstraint c:constraints) {
+			if(!ns.linearFits(c))return false;
+			variables.addAll(c.coefficients.keySet());
+		}
+		for(Automaton N:f.operands) {
+			if(N.label != null)variables.addAll(N.label);
+		}
+		return ns.linearFits(variables.size());
+	}
+
+	/**
+	 * @return the side conditions and the constraint this comparisonOperator 0, where the quotients that an
+	 * equation determines are eliminated.
+	 */
+	private List<LinearConstraint> constraints(String comparisonOperator) throws Exception {
+		List<LinearConstraint> constraints = new ArrayList<LinearConstraint>(conditions);
+		constraints.add(relation(comparisonOperator));
+		for(String q:quantify) {
+			boolean operand = false;
+			for(Automaton N:operands) {
+				operand |= N.label != null && N.label.contains(q);
+			}
+			if(!operand)eliminate(q, constraints);
+		}
+		return constraints;
+	}
+
+	/**
+	 * If one of the constraints is an equation c*q + S = 0 with c != 0, we replace q by -S/c, since
+	 * Eq c*q + S = 0 & R(q) iff S = 0 (mod |c|) & sign(c)*S <= 0 & R(-S/c).
+	 * Every other constraint a*q + T R 0 is multiplied by |c| and becomes -sign(c)*a*S + |c|*T R 0 (a congruence
+	 * modulo m becomes one modulo |c|*m).
+	 * Nothing changes if a coefficient would not fit in an int.
+	 */
+	private static void eliminate(String q,List<LinearConstraint> constraints) {
+		LinearConstraint equation = null;
+		for(LinearConstraint d:constraints) {
+			Integer c = d.coefficients.get(q);
+			if(d.relation == LinearConstraint.EQUAL && c != null && c != 0) {
+				equation = d;
+				break;
+			}
+		}
+		if(equation == null)return;
+		int c = equation.coefficients.get(q), sign = c > 0 ? 1 : -1;
+		TreeMap<String,Integer> S = new TreeMap<String,Integer>(equation.coefficients);
+		S.remove(q);
+		List<LinearConstraint> result = new ArrayList<LinearConstraint>();
+		try {
+			int n = Math.multiplyExact(sign, c);
+			if(n > 1) {
+				result.add(new LinearConstraint(S, equation.constant, LinearConstraint.CONGRUENT, n));
+			}
+			TreeMap<String,Integer> signS = new TreeMap<String,Integer>();
+			for(String x:S.keySet()) {
+				signS.put(x, Math.multiplyExact(sign, S.get(x)));
+			}
+			result.add(new LinearConstraint(signS, Math.multiplyExact(sign, equation.constant), LinearConstraint.LESS_EQUAL));
+			for(LinearConstraint d:constraints) {
+				if(d == equation)continue;
+				if(!d.coefficients.containsKey(q)) {
+					result.add(d);
+					continue;
+				}
+				int a = Math.multiplyExact(-sign, d.coefficients.get(q));
+				TreeMap<String,Integer> coefficients = new TreeMap<String,Integer>();
+				for(String x:S.keySet()) {
+					coefficients.put(x, Math.multiplyExact(a, S.get(x)));
+				}
+				for(String x:d.coefficients.keySet()) {
+					if(x.equals(q))continue;
+					int b = coefficients.containsKey(x) ? coefficients.get(x) : 0;
+					coefficients.put(x, Math.addExact(b, Math.multiplyExact(n, d.coefficients.get(x))));
+				}
+				int constant = Math.addExact(Math.multiplyExact(a, equation.constant), Math.multiplyExact(n, d.constant));
+				int modulus = d.relation == LinearConstraint.CONGRUENT ? Math.multiplyExact(n, d.modulus) : 0;
+				result.add(new LinearConstraint(coefficients, constant, d.relation, modulus));
+			}
+		} catch(ArithmeticException e) {
+			return;
+		}
+		constraints.clear();
+		constraints.addAll(result);
+	}
+
+	/**
+	 * @return the constraint this comparisonOperator 0.
+	 */
+	private LinearConstraint relation(String comparisonOperator) throws Exception {
+		LinearConstraint c;
+		switch(comparisonOperator) {
+			case "=":
+				c = constraint(LinearConstraint.EQUAL);
+				break;
+			case "!=":
+				c = constraint(LinearConstraint.NOT_EQUAL);
+				break;
+			case "<=":
+				c = constraint(LinearConstraint.LESS_EQUAL);
+				break;
+			case "<":
+				c = constraint(LinearConstraint.LESS_EQUAL);
+				c.constant = sum(c.constant, 1);
+				break;
+			case ">=":
+				c = negate().constraint(LinearConstraint.LESS_EQUAL);
+				break;
+			case ">":
+				c = negate().constraint(LinearConstraint.LESS_EQUAL);
+				c.constant = sum(c.constant, 1);
+				break;
+			default:
+				throw new Exception("undefined comparison operator");
+		}
+		return c;
+	}
+
+	private LinearConstraint constraint(int relation) {
+		return new LinearConstraint(coefficients, constant, relation);
+	}
+
+	/**
+	 * Adds the side condition h relation 0.
+	 */
+	private void condition(LinearForm h,int relation) {
+		conditions.add(h.constraint(relation));
+		overflow |= h.overflow;
+	}
+
+	/**
+	 * @return this - g, ignoring side conditions and operands.
+	 */
+	private LinearForm difference(LinearForm g) {
+		LinearForm f = new LinearForm(ns);
+		f.coefficients.putAll(coefficients);
+		f.constant = constant;
+		f.overflow = overflow;
+		f.add(g, -1);
+		f.conditions.clear();
+		f.operands.clear();
+		f.quantify.clear();
+		return f;
+	}
+
+	private LinearForm negate() {
+		LinearForm f = new LinearForm(ns);
+		f.overflow = overflow;
+		for(String x:coefficients.keySet()) {
+			f.coefficients.put(x, f.product(-1, coefficients.get(x)));
+		}
+		f.constant = f.product(-1, constant);
+		return f;
+	}
+
+	/**
+	 * this = this + sign*g. Zero coefficients are kept.
+	 */
+	private void add(LinearForm g,int sign) {
+		for(String x:g.coefficients.keySet()) {
+			int a = coefficients.containsKey(x) ? coefficients.get(x) : 0;
+			coefficients.put(x, sum(a, product(sign, g.coefficients.get(x))));
+		}
+		constant = sum(constant, product(sign, g.constant));
+		overflow |= g.overflow;
+		conditions.addAll(g.conditions);
+		operands.addAll(g.operands);
+		quantify.addAll(g.quantify);
+	}
+
+	private LinearForm copy() {
+		LinearForm f = new LinearForm(ns);
+		f.coefficients.putAll(coefficients);
+		f.constant = constant;
+		f.overflow = overflow;
+		f.conditions.addAll(conditions);
+		f.operands.addAll(operands);
+		f.quantify.addAll(quantify);
+		return f;
+	}
+
+	private int sum(int a,int b) {
+		try {
+			return Math.addExact(a, b);
+		} catch(ArithmeticException e) {
+			overflow = true;
+			return 0;
+		}
+	}
+
+	private int product(int a,int b) {
+		try {
+			return Math.multiplyExact(a, b);
+		} catch(ArithmeticException e) {
+			overflow = true;
+			return 0;
+		}
+	}
+}
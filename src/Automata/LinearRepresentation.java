@@ -0,0 +1,541 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+import Main.UtilityMethods;
+
+/**
+ * The linear representation of an automaton with respect to some of its inputs (the free variables):
+ * the indicator vector v of the initial state, the indicator vector w of the final states, and for every
+ * combination x of values of the free variables, the matrix M_x whose entry [p][q] is the number of
+ * transitions from p to q whose free variables have the values x.
+ * Then v.M_x1.M_x2...M_xn.w is the number of accepted words whose free variables read x1 x2 ... xn.<br>
+ * The matrices are stored in compressed sparse row form with long entries, and written to disk as they are read,
+ * so that automata with many states don't need a dense Q by Q matrix, nor a string holding all of them.
+ */
+public class LinearRepresentation {
+	/**
+	 * The number of states.
+	 */
+	public int Q;
+	public int q0;
+	public boolean[] accepting;
+	public List<String> variables;
+	/**
+	 * The combinations of values of the variables, in the order of the matrices: the first variable changes the slowest.
+	 */
+	public List<List<Integer>> combinations;
+	/**
+	 * The nonzero entries of row p of matrix m are column[m][k] = value[m][k] for row_start[m][p] <= k < row_start[m][p+1].
+	 * Columns are increasing in every row.
+	 */
+	int[][] row_start;
+	int[][] column;
+	long[][] value;
+
+	/**
+	 * @param M a canonized automaton with labels.
+	 * @param variables labels of M
+	 * @throws Exception
+	 */
+	public LinearRepresentation(Automaton M,List<String> variables) throws Exception {
+		if(M.TRUE_FALSE_AUTOMATON) {
+			throw new Exception("incidence matrices cannot be calculated, because the automaton does not have a free variable.");
+		}
+		for(String variable:variables) {
+			if(!M.label.contains(variable)) {
+				throw new Exception("incidence matrices for the variable " + variable + " cannot be calculated, because " + variable +" is not a free variable.");
+			}
+		}
+		this.variables = new ArrayList<String>(variables);
+		Q = M.Q;
+		q0 = M.q0;
+		accepting = new boolean[Q];
+		for(int q = 0; q < Q; q++) {
+			accepting[q] = M.O.get(q) != 0;
+		}
+		int n = variables.size();
+		int[] index = new int[n];
+		// the weight of an input in the encoding of transitions (as in decode), and of a variable in the number of a combination.
+		int[] input_weight = new int[M.A.size()];
+		int[] combination_weight = new int[n];
+		for(int i = 0; i < M.A.size(); i++) {
+			input_weight[i] = i == 0 ? 1 : input_weight[i-1] * M.A.get(i-1).size();
+		}
+		List<List<Integer>> values = new ArrayList<List<Integer>>();
+		for(int k = 0; k < n; k++) {
+			index[k] = M.label.indexOf(variables.get(k));
+			values.add(M.A.get(index[k]));
+		}
+		int number_of_combinations = 1;
+		for(int k = n - 1; k >= 0; k--) {
+			combination_weight[k] = number_of_combinations;
+			number_of_combinations *= values.get(k).size();
+		}
+		combinations = cartesianProduct(values);
+
+		row_start = new int[number_of_combinations][Q+1];
+		column = new int[number_of_combinations][];
+		value = new long[number_of_combinations][];
+		int[] size = new int[number_of_combinations];
+		for(int m = 0; m < number_of_combinations; m++) {
+			column[m] = new int[16];
+			value[m] = new long[16];
+		}
+		List<TreeMap<Integer,Long>> row = new ArrayList<TreeMap<Integer,Long>>();
+		for(int m = 0; m < number_of_combinations; m++)row.add(new TreeMap<Integer,Long>());
+		for(int p = 0; p < Q; p++) {
+			for(int x:M.d.get(p).keySet()) {
+				int m = 0;
+				for(int k = 0; k < n; k++) {
+					int i = index[k];
+					m += combination_weight[k] * ((x / input_weight[i]) % M.A.get(i).size());
+				}
+				for(int q:M.d.get(p).get(x)) {
+					row.get(m).merge(q, 1L, Long::sum);
+				}
+			}
+			for(int m = 0; m < number_of_combinations; m++) {
+				TreeMap<Integer,Long> r = row.get(m);
+				if(size[m] + r.size() > column[m].length) {
+					int capacity = Math.max(2 * column[m].length, size[m] + r.size());
+					column[m] = Arrays.copyOf(column[m], capacity);
+					value[m] = Arrays.copyOf(value[m], capacity);
+				}
+				for(int q:r.keySet()) {
+					column[m][size[m]] = q;
+					value[m][size[m]] = r.get(q);
+					size[m]++;
+				}
+				row_start[m][p+1] = size[m];
+				r.clear();
+			}
+		}
+	}
+
+	public int numberOfMatrices() {
+		return combinations.size();
+	}
+
+	/**
+	 * @param m
+	 * @return the number of nonzero entries of matrix m.
+	 */
+	public int nonzeros(int m) {
+		return row_start[m][Q];
+	}
+
+	/**
+	 * @param values values of the variables
+	 * @return the index of the matrix M_values, or -1 if some value is not in the alphabet of its variable.
+	 */
+	public int matrix(List<Integer> values) {
+		return combinations.indexOf(values);
+	}
+
+	/**
+	 * @return the row vector v.
+	 */
+	public BigInteger[] initial() {
+		BigInteger[] v = new BigInteger[Q];
+		Arrays.fill(v, BigInteger.ZERO);
+		v[q0] = BigInteger.ONE;
+		return v;
+	}
+
+	/**
+	 * @return u.w, modulo modulus if it is not null.
+	 */
+	public BigInteger accept(BigInteger[] u,BigInteger modulus) {
+		BigInteger result = BigInteger.ZERO;
+		for(int q = 0; q < Q; q++) {
+			if(accepting[q])result = result.add(u[q]);
+		}
+		return modulus == null ? result : result.mod(modulus);
+	}
+
+	/**
+	 * @return the row vector u.M_m, with entries modulo modulus if it is not null.
+	 */
+	public BigInteger[] multiply(BigInteger[] u,int m,BigInteger modulus) {
+		BigInteger[] result = new BigInteger[Q];
+		Arrays.fill(result, BigInteger.ZERO);
+		for(int p = 0; p < Q; p++) {
+			if(u[p].signum() == 0)continue;
+			for(int k = row_start[m][p]; k < row_start[m][p+1]; k++) {
+				result[column[m][k]] = result[column[m][k]].add(u[p].multiply(BigInteger.valueOf(value[m][k])));
+			}
+		}
+		if(modulus != null) {
+			for(int q = 0; q < Q; q++)result[q] = result[q].mod(modulus);
+		}
+		return result;
+	}
+
+	/**
+	 * power keeps at most this many nonzero entries in a power of a matrix.
+	 */
+	static final long MAX_POWER_ENTRIES = 1 << 22;
+	/**
+	 * power multiplies u by the matrix e times only if that takes at most this many multiplications of entries.
+	 */
+	static final double MAX_STEPS = 1e9;
+
+	/**
+	 * @return the row vector u.M_m^e, with entries modulo modulus if it is not null.<br>
+	 * We multiply e times by the sparse matrix, which takes e*nonzeros(m) operations, when e is small. Otherwise we use
+	 * exponentiation by squaring on the sparse matrix, see Power. If its powers have too many nonzero entries, we go
+	 * back to multiplying e times, unless that takes too long too.
+	 * @throws Exception if neither is possible.
+	 */
+	public BigInteger[] power(BigInteger[] u,int m,BigInteger e,BigInteger modulus) throws Exception {
+		double steps = e.doubleValue() * Math.max(1, nonzeros(m));
+		// the powers of a matrix soon have most of their entries, and then a squaring takes Q^3 multiplications
+		if(steps > Math.min(MAX_STEPS, (double)e.bitLength() * Q * Q * Q)) {
+			Power P = new Power(m, modulus);
+			BigInteger[] v = u;
+			for(int bit = 0; bit < e.bitLength() && v != null; bit++) {
+				if(e.testBit(bit))v = P.times(v);
+				if(bit < e.bitLength() - 1 && !P.square())v = null;
+			}
+			if(v != null)return v;
+			if(steps > MAX_STEPS) {
+				throw new Exception("cannot compute the power " + e + " of a matrix with " + Q + " rows: its powers have more than " +
+					MAX_POWER_ENTRIES + " nonzero entries, and " + e + " multiplications by it take too long");
+			}
+		}
+		for(BigInteger i = BigInteger.ZERO; i.compareTo(e) < 0; i = i.add(BigInteger.ONE)) {
+			ResourceGovernor.check(0);
+			u = multiply(u, m, modulus);
+		}
+		return u;
+	}
+
+	/**
+	 * A power of one of the matrices, in sparse rows: row p has the entry value[p][k] (or big[p][k]) in the
+	 * column columns[p][k]. Entries are longs when they are taken modulo a modulus of at most 31 bits, so that products fit
+	 * in a long, and BigIntegers otherwise.
+	 */
+	private class Power {
+		int[][] columns = new int[Q][];
+		long[][] value;
+		BigInteger[][] big;
+		BigInteger modulus;
+		long small;
+
+		Power(int m,BigInteger modulus) {
+			this.modulus = modulus;
+			small = modulus != null && modulus.bitLength() <= 31 ? modulus.longValue() : 0;
+			if(small != 0)value = new long[Q][];
+			else big = new BigInteger[Q][];
+			for(int p = 0; p < Q; p++) {
+				int from = row_start[m][p], to = row_start[m][p+1];
+				columns[p] = Arrays.copyOfRange(column[m], from, to);
+				if(small != 0) {
+					value[p] = new long[to - from];
+					for(int k = from; k < to; k++)value[p][k - from] = LinearRepresentation.this.value[m][k] % small;
+				} else {
+					big[p] = new BigInteger[to - from];
+					for(int k = from; k < to; k++)big[p][k - from] = reduce(BigInteger.valueOf(LinearRepresentation.this.value[m][k]));
+				}
+			}
+		}
+
+		BigInteger[] times(BigInteger[] u) {
+			BigInteger[] result = new BigInteger[Q];
+			Arrays.fill(result, BigInteger.ZERO);
+			for(int p = 0; p < Q; p++) {
+				if(u[p].signum() == 0)continue;
+				for(int k = 0; k < columns[p].length; k++) {
+					BigInteger x = small != 0 ? BigInteger.valueOf(value[p][k]) : big[p][k];
+					result[columns[p][k]] = result[columns[p][k]].add(u[p].multiply(x));
+				}
+			}
+			for(int q = 0; q < Q; q++)result[q] = reduce(result[q]);
+			return result;
+		}
+
+		/**
+		 * Replaces this matrix by its square, computed one row at a time: row p of the square is the sum of the rows r
+		 * of this matrix, weighted by the entries [p][r].
+		 * @return false if the square has more than MAX_POWER_ENTRIES nonzero entries. This matrix is unchanged then.
+		 */
+		boolean square() throws Exception {
+			int[][] squareColumns = new int[Q][];
+			long[][] squareValue = small != 0 ? new long[Q][] : null;
+			BigInteger[][] squareBig = small != 0 ? null : new BigInteger[Q][];
+			long[] sum = small != 0 ? new long[Q] : null;
+			BigInteger[] bigSum = small != 0 ? null : new BigInteger[Q];
+			int[] seen = new int[Q];
+			Arrays.fill(seen, -1);
+			int[] touched = new int[Q];
+			// sums are reduced only when one more product could overflow them
+			long threshold = small != 0 ? Long.MAX_VALUE - (small - 1) * (small - 1) : 0;
+			long entries = 0;
+			for(int p = 0; p < Q; p++) {
+				ResourceGovernor.check(0);
+				int n = 0;
+				for(int k = 0; k < columns[p].length; k++) {
+					int r = columns[p][k];
+					for(int j = 0; j < columns[r].length; j++) {
+						int c = columns[r][j];
+						if(seen[c] != p) {
+							seen[c] = p;
+							touched[n++] = c;
+							if(small != 0)sum[c] = 0;
+							else bigSum[c] = BigInteger.ZERO;
+						}
+						if(small != 0) {
+							sum[c] += value[p][k] * value[r][j];
+							if(sum[c] >= threshold)sum[c] %= small;
+						}
+						else bigSum[c] = bigSum[c].add(big[p][k].multiply(big[r][j]));
+					}
+				}
+				Arrays.sort(touched, 0, n);
+				int nonzeros = 0;
+				for(int i = 0; i < n; i++) {
+					int c = touched[i];
+					if(small != 0 ? (sum[c] %= small) != 0 : (bigSum[c] = reduce(bigSum[c])).signum() != 0)touched[nonzeros++] = c;
+				}
+				entries += nonzeros;
+				if(entries > MAX_POWER_ENTRIES)return false;
+				squareColumns[p] = Arrays.copyOf(touched, nonzeros);
+				if(small != 0) {
+					squareValue[p] = new long[nonzeros];
+					for(int i = 0; i < nonzeros; i++)squareValue[p][i] = sum[touched[i]];
+				} else {
+					squareBig[p] = new BigInteger[nonzeros];
+					for(int i = 0; i < nonzeros; i++)squareBig[p][i] = bigSum[touched[i]];
+				}
+			}
+			columns = squareColumns;
+			value = squareValue;
+			big = squareBig;
+			return true;
+		}
+
+		private BigInteger reduce(BigInteger x) {
+			return modulus == null ? x : x.mod(modulus);
+		}
+	}
+
+	/**
+	 * @param m
+	 * @return the name of matrix m in the exported files, e.g., M_i_j_0_1
+	 */
+	public String name(int m) {
+		List<String> parts = new ArrayList<String>(variables);
+		for(int x:combinations.get(m))parts.add(Integer.toString(x));
+		return "M_" + String.join("_", parts);
+	}
+
+	/**
+	 * Writes the linear representation as a Maple file to address.
+	 * @param sparse if false, matrices and vectors are written as dense Maple matrices, exactly as earlier versions of Walnut did.
+	 * Otherwise they are written with only their nonzero entries, using storage=sparse.
+	 */
+	public void writeMaple(String address,boolean sparse) throws IOException {
+		String newLine = UtilityMethods.newLine();
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(address), "UTF-8"), 1 << 16)) {
+			out.write("with(ArrayTools):" + newLine);
+			out.write("# The row vector v denotes the indicator vector of the (singleton)" + newLine);
+			out.write("# set of initial states." + newLine);
+			if(sparse) {
+				out.write("v := Vector[row](" + Q + ", {(" + (q0+1) + ")=1}, storage=sparse);" + newLine);
+			}
+			else {
+				out.write("v := Vector[row]([");
+				for(int q = 0; q < Q; q++) {
+					out.write(q == q0 ? "1" : "0");
+					if(q < Q - 1)out.write(",");
+				}
+				out.write("]);" + newLine);
+			}
+			out.write(newLine + "# In what follows, the M_i_x, for a free variable i and a value x, denotes" + newLine);
+			out.write("# an incidence matrix of the underlying graph of (the automaton of)" + newLine);
+			out.write("# the predicate in the query." + newLine);
+			out.write("# For every pair of states p and q, the entry M_i_x[p][q] denotes the number of" + newLine);
+			out.write("# transitions with i=x from p to q." + newLine);
+			for(int m = 0; m < numberOfMatrices(); m++) {
+				out.write(newLine + name(m));
+				if(sparse) {
+					out.write(" := Matrix(" + Q + ", " + Q + ", {");
+					boolean first = true;
+					for(int p = 0; p < Q; p++) {
+						for(int k = row_start[m][p]; k < row_start[m][p+1]; k++) {
+							if(!first)out.write(", ");
+							first = false;
+							out.write("(" + (p+1) + "," + (column[m][k]+1) + ")=" + value[m][k]);
+						}
+					}
+					out.write("}, storage=sparse);" + newLine);
+					continue;
+				}
+				out.write(" := Matrix([");
+				StringBuilder b = new StringBuilder();
+				for(int p = 0; p < Q; p++) {
+					b.setLength(0);
+					b.append('[');
+					int k = row_start[m][p];
+					for(int q = 0; q < Q; q++) {
+						if(k < row_start[m][p+1] && column[m][k] == q) {
+							b.append(value[m][k++]);
+						}
+						else {
+							b.append('0');
+						}
+						if(q < Q - 1)b.append(',');
+					}
+					b.append(']');
+					if(p < Q - 1)b.append("," + newLine);
+					out.write(b.toString());
+				}
+				out.write("]);" + newLine);
+			}
+			out.write(newLine + "# The column vector w denotes the indicator vector of the" + newLine);
+			out.write("# set of final states." + newLine);
+			if(sparse) {
+				out.write("w := Vector[column](" + Q + ", {");
+				boolean first = true;
+				for(int q = 0; q < Q; q++) {
+					if(!accepting[q])continue;
+					if(!first)out.write(", ");
+					first = false;
+					out.write("(" + (q+1) + ")=1");
+				}
+				out.write("}, storage=sparse);" + newLine);
+			}
+			else {
+				out.write("w := Vector[column]([");
+				for(int q = 0; q < Q; q++) {
+					out.write(accepting[q] ? "1" : "0");
+					if(q < Q - 1)out.write(",");
+				}
+				out.write("]);" + newLine);
+			}
+			out.write(newLine + "for i from 1 to Size(v)[2] do v := v.M_");
+			out.write(String.join("_", variables) + "_");
+			out.write(String.join("_", Collections.nCopies(variables.size(), "0")));
+			out.write("; od; #fix up v by multiplying");
+		}
+	}
+
+	/**
+	 * Writes every matrix, and the vectors v and w, in the Matrix Market coordinate format,
+	 * to the files prefix + "_" + name + ".mtx", e.g., prefix_M_i_0.mtx, prefix_v.mtx and prefix_w.mtx.
+	 */
+	public void writeMatrixMarket(String prefix) throws IOException {
+		String newLine = UtilityMethods.newLine();
+		for(int m = 0; m < numberOfMatrices(); m++) {
+			try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(prefix + "_" + name(m) + ".mtx"), "UTF-8"), 1 << 16)) {
+				out.write("%%MatrixMarket matrix coordinate integer general" + newLine);
+				out.write("% " + name(m) + ": the number of transitions from a state (row) to a state (column) with " +
+					String.join(",", variables) + " = " + UtilityMethods.toTuple(combinations.get(m)) + newLine);
+				out.write(Q + " " + Q + " " + nonzeros(m) + newLine);
+				for(int p = 0; p < Q; p++) {
+					for(int k = row_start[m][p]; k < row_start[m][p+1]; k++) {
+						out.write((p+1) + " " + (column[m][k]+1) + " " + value[m][k] + newLine);
+					}
+				}
+			}
+		}
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(prefix + "_v.mtx"), "UTF-8"))) {
+			out.write("%%MatrixMarket matrix coordinate integer general" + newLine);
+			out.write("% v: the indicator row vector of the initial state" + newLine);
+			out.write("1 " + Q + " 1" + newLine);
+			out.write("1 " + (q0+1) + " 1" + newLine);
+		}
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(prefix + "_w.mtx"), "UTF-8"), 1 << 16)) {
+			int count = 0;
+			for(int q = 0; q < Q; q++)if(accepting[q])count++;
+			out.write("%%MatrixMarket matrix coordinate integer general" + newLine);
+			out.write("% w: the indicator column vector of the final states" + newLine);
+			out.write(Q + " 1 " + count + newLine);
+			for(int q = 0; q < Q; q++) {
+				if(accepting[q])out.write((q+1) + " 1 1" + newLine);
+			}
+		}
+	}
+
+	/**
+	 * Writes the linear representation in a binary form to address. In big endian order:
+	 * int magic, int version, int Q, int q0, Q bytes (1 for final states), int number of variables, and for every
+	 * variable its name (int length and UTF-8 bytes). Then int number of matrices, and for every matrix: the values
+	 * of the variables (one int per variable), int number of nonzero entries, Q+1 ints row_start, the int columns and the long values.
+	 */
+	public void writeBinary(String address) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(address), 1 << 16))) {
+			out.writeInt(BINARY_MAGIC);
+			out.writeInt(BINARY_VERSION);
+			out.writeInt(Q);
+			out.writeInt(q0);
+			for(int q = 0; q < Q; q++)out.writeByte(accepting[q] ? 1 : 0);
+			out.writeInt(variables.size());
+			for(String variable:variables) {
+				byte[] bytes = variable.getBytes("UTF-8");
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.writeInt(numberOfMatrices());
+			for(int m = 0; m < numberOfMatrices(); m++) {
+				for(int x:combinations.get(m))out.writeInt(x);
+				out.writeInt(nonzeros(m));
+				for(int p = 0; p <= Q; p++)out.writeInt(row_start[m][p]);
+				for(int k = 0; k < nonzeros(m); k++)out.writeInt(column[m][k]);
+				for(int k = 0; k < nonzeros(m); k++)out.writeLong(value[m][k]);
+			}
+		}
+	}
+
+	static final int BINARY_MAGIC = 0x574c5250;
+	static final int BINARY_VERSION = 1;
+
+	private static <T> List<List<T>> cartesianProduct(List<List<T>> lists) {
+		List<List<T>> result = new ArrayList<List<T>>();
+		result.add(new ArrayList<T>());
+		for(int k = lists.size() - 1; k >= 0; k--) {
+			List<List<T>> next = new ArrayList<List<T>>();
+			for(T x:lists.get(k)) {
+				for(List<T> rest:result) {
+					List<T> l = new ArrayList<T>();
+					l.add(x);
+					l.addAll(rest);
+					next.add(l);
+				}
+			}
+			result = next;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,113 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * The log of an evaluation, which operations on automata append their steps to.<br>
+ * A log that is not enabled drops everything, and the messages of a disabled log are not even built. A log can stream to a file as it goes, so that the log of a long evaluation is on disk
+ * even before the evaluation ends. Only the first MAX_CHARS characters are kept in memory: toString returns those,
+ * the file has everything. -Dwalnut.log.memory=... sets MAX_CHARS.
+ */
+public class Log {
+	public static long MAX_CHARS = Long.getLong("walnut.log.memory", 1 << 20);
+
+	boolean enabled;
+	Writer out;
+	StringBuilder kept = new StringBuilder();
+	long dropped;
+
+	/**
+	 * An enabled log, kept in memory only.
+	 */
+	public Log() {
+		this(true);
+	}
+
+	public Log(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param address the file this log streams to, or null for a log kept in memory only.
+	 * @param enabled if false, nothing is logged and no file is written.
+	 * @throws IOException
+	 */
+	public Log(String address,boolean enabled) throws IOException {
+		this(enabled);
+		if(enabled && address != null) {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(address), "UTF-8"), 1 << 16);
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public synchronized Log append(String s) {
+		if(!enabled)return this;
+		if(out != null) {
+			try {
+				out.write(s);
+			} catch(IOException e) {
+				// the log is not worth failing the evaluation for: keep it in memory only from now on
+				close();
+			}
+		}
+		if(kept.length() + s.length() <= MAX_CHARS) {
+			kept.append(s);
+		} else {
+			dropped += s.length();
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the rest of the log to its file, and closes the file.
+	 */
+	public synchronized void close() {
+		if(out == null)return;
+		try {
+			out.close();
+		} catch(IOException e) {
+			// nothing we can do about it
+		}
+		out = null;
+	}
+
+	/**
+	 * @return true if this log has a file to stream to.
+	 */
+	public synchronized boolean isStreaming() {
+		return out != null;
+	}
+
+	/**
+	 * @return what is kept in memory.
+	 */
+	public synchronized String toString() {
+		if(dropped == 0)return kept.toString();
+		return kept + "... (" + dropped + " more characters)";
+	}
+}
@@ -0,0 +1,315 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Measurements of the operations on automata (and, or, product, quantify, determinize, minimize, reverse, totalize,
+ * load, write), delivered as Events to Sinks.<br>
+ * An operation calls start before it changes anything and stop on its result. Nothing is measured when there is no
+ * sink, so the operations cost the same as before unless someone listens. Sinks are either global (addSink) or only
+ * see the operations of the current thread (addThreadSink), which is what the summary of one eval needs when commands
+ * run in parallel. Results are usually written by the thread of Main.OutputPolicy, so that summary has no writes.
+ * The time of an operation includes the operations it calls: the time of and includes its cross
+ * product and its minimization, which are reported too.<br>
+ * -Dwalnut.metrics.file=... appends every event as a line of JSON to the given file, and
+ * -Dwalnut.metrics.summary=true prints a table of the operations after every eval and def.
+ */
+public class Metrics {
+	public static boolean SUMMARY = Boolean.getBoolean("walnut.metrics.summary");
+
+	/**
+	 * The measurements of one operation. Counts are -1 when they are not known, like the time spent on the CPU on
+	 * a JVM that does not measure it. A true/false automaton has 0 states.
+	 */
+	public static class Event {
+		public String operation;
+		public String thread;
+		public int inputStates;
+		public long inputTransitions;
+		public int outputStates;
+		public long outputTransitions;
+		public int alphabetSize;
+		/**
+		 * System.nanoTime() when the operation started. Events whose intervals nest are operations that called each other.
+		 */
+		public long startNanos;
+		public long wallNanos;
+		public long cpuNanos;
+		public long allocatedBytes;
+
+		public String toJson() {
+			return "{\"operation\": \"" + operation + "\", \"thread\": \"" + thread.replace("\\", "\\\\").replace("\"", "\\\"") +
+				"\", \"input_states\": " + inputStates + ", \"input_transitions\": " + inputTransitions +
+				", \"output_states\": " + outputStates + ", \"output_transitions\": " + outputTransitions +
+				", \"alphabet_size\": " + alphabetSize + ", \"wall_ns\": " + wallNanos + ", \"cpu_ns\": " + cpuNanos +
+				", \"allocated_bytes\": " + allocatedBytes + "}";
+		}
+	}
+
+	public interface Sink {
+		/**
+		 * Called on the thread that performed the operation, so it has to be thread safe if it is added with addSink.
+		 */
+		void accept(Event event);
+	}
+
+	/**
+	 * An operation in progress. Returned by start, and finished by stop.
+	 */
+	public static class Probe {
+		/**
+		 * The probe of operations when nobody listens: it measures nothing.
+		 */
+		static final Probe NONE = new Probe(null);
+
+		String operation;
+		int inputStates;
+		long inputTransitions;
+		int alphabetSize;
+		long wall;
+		long cpu;
+		long allocated;
+
+		Probe(String operation) {
+			this.operation = operation;
+		}
+
+		/**
+		 * Reports the operation, whose result is output.
+		 */
+		public void stop(Automaton output) {
+			if(this == NONE)return;
+			Event e = new Event();
+			e.startNanos = wall;
+			e.wallNanos = System.nanoTime() - wall;
+			e.cpuNanos = cpu < 0 ? -1 : cpuTime() - cpu;
+			e.allocatedBytes = allocated < 0 ? -1 : allocatedBytes() - allocated;
+			e.operation = operation;
+			e.thread = Thread.currentThread().getName();
+			e.inputStates = inputStates;
+			e.inputTransitions = inputTransitions;
+			e.outputStates = states(output);
+			e.outputTransitions = transitions(output);
+			e.alphabetSize = alphabetSize >= 0 ? alphabetSize : output.TRUE_FALSE_AUTOMATON ? 0 : output.alphabetSize;
+			for(Sink sink:sinks) {
+				sink.accept(e);
+			}
+			for(Sink sink:threadSinks.get()) {
+				sink.accept(e);
+			}
+		}
+	}
+
+	/**
+	 * Sums up the events of every operation. Its summary is the table printed after an eval.
+	 */
+	public static class Aggregator implements Sink {
+		static class Total {
+			long count, wallNanos, cpuNanos, allocatedBytes;
+			int maxInputStates, maxOutputStates;
+		}
+
+		TreeMap<String,Total> totals = new TreeMap<String,Total>();
+
+		public synchronized void accept(Event e) {
+			Total t = totals.computeIfAbsent(e.operation, k -> new Total());
+			t.count++;
+			t.wallNanos += e.wallNanos;
+			t.cpuNanos += Math.max(0, e.cpuNanos);
+			t.allocatedBytes += Math.max(0, e.allocatedBytes);
+			t.maxInputStates = Math.max(t.maxInputStates, e.inputStates);
+			t.maxOutputStates = Math.max(t.maxOutputStates, e.outputStates);
+		}
+
+		public synchronized boolean isEmpty() {
+			return totals.isEmpty();
+		}
+
+		/**
+		 * @return a table with one row per operation: how many times it ran, its total wall and CPU time, the bytes
+		 * it allocated and the largest automata it read and produced.
+		 */
+		public synchronized String summary() {
+			StringBuilder s = new StringBuilder();
+			s.append(String.format(Locale.ROOT, "%-12s %7s %11s %11s %12s %10s %10s%n",
+				"operation", "count", "wall ms", "cpu ms", "alloc MB", "max in", "max out"));
+			for(String operation:totals.keySet()) {
+				Total t = totals.get(operation);
+				s.append(String.format(Locale.ROOT, "%-12s %7d %11.1f %11.1f %12.1f %10d %10d%n",
+					operation, t.count, t.wallNanos / 1e6, t.cpuNanos / 1e6, t.allocatedBytes / 1048576.0,
+					t.maxInputStates, t.maxOutputStates));
+			}
+			return s.toString();
+		}
+	}
+
+	/**
+	 * Appends every event as one line of JSON to a file.
+	 */
+	public static class JsonLines implements Sink {
+		PrintWriter out;
+
+		public JsonLines(String address) throws IOException {
+			out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(address, true), "UTF-8")));
+		}
+
+		public synchronized void accept(Event e) {
+			out.println(e.toJson());
+			out.flush();
+		}
+
+		public synchronized void close() {
+			out.close();
+		}
+	}
+
+	private static final List<Sink> sinks = new CopyOnWriteArrayList<Sink>();
+	private static final ThreadLocal<List<Sink>> threadSinks = ThreadLocal.withInitial(() -> new ArrayList<Sink>());
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	static {
+		String address = System.getProperty("walnut.metrics.file");
+		if(address != null) {
+			try {
+				addSink(new JsonLines(address));
+			} catch(IOException e) {
+				System.err.println("Could not open " + address + " for metrics: " + e.getMessage());
+			}
+		}
+	}
+
+	public static void addSink(Sink sink) {
+		sinks.add(sink);
+	}
+
+	public static void removeSink(Sink sink) {
+		sinks.remove(sink);
+	}
+
+	/**
+	 * sink receives the events of the operations performed by the current thread, until removeThreadSink.
+	 */
+	public static void addThreadSink(Sink sink) {
+		threadSinks.get().add(sink);
+	}
+
+	public static void removeThreadSink(Sink sink) {
+		threadSinks.get().remove(sink);
+	}
+
+	/**
+	 * @return the thread sinks of the current thread.
+	 */
+	public static List<Sink> threadSinks() {
+		return threadSinks.get();
+	}
+
+	/**
+	 * Makes the current thread deliver its events to sinks, e.g., a thread that computes part of an eval on behalf
+	 * of the thread whose threadSinks are sinks. The sinks then have to accept events from several threads at once.
+	 * @return the thread sinks it replaces, to be passed to adoptThreadSinks when done.
+	 */
+	public static List<Sink> adoptThreadSinks(List<Sink> sinks) {
+		List<Sink> previous = threadSinks.get();
+		threadSinks.set(sinks);
+		return previous;
+	}
+
+	/**
+	 * @return an Aggregator of the operations of the current thread if SUMMARY is on, and null otherwise.
+	 * Pass it to endSummary when done.
+	 */
+	public static Aggregator startSummary() {
+		if(!SUMMARY)return null;
+		Aggregator summary = new Aggregator();
+		addThreadSink(summary);
+		return summary;
+	}
+
+	public static void endSummary(Aggregator summary) {
+		if(summary != null)removeThreadSink(summary);
+	}
+
+	/**
+	 * Starts measuring an operation.
+	 * @param operation
+	 * @param inputs the automata the operation reads. For an operation that changes an automaton in place, that
+	 * automaton as it is before the operation.
+	 * @return the probe to call stop on with the result of the operation.
+	 */
+	public static Probe start(String operation,Automaton... inputs) {
+		if(sinks.isEmpty() && threadSinks.get().isEmpty())return Probe.NONE;
+		Probe p = new Probe(operation);
+		p.alphabetSize = inputs.length == 0 ? -1 : 0;
+		for(Automaton M:inputs) {
+			p.inputStates += states(M);
+			p.inputTransitions += transitions(M);
+			if(!M.TRUE_FALSE_AUTOMATON)p.alphabetSize = Math.max(p.alphabetSize, M.alphabetSize);
+		}
+		p.allocated = allocatedBytes();
+		p.cpu = cpuTime();
+		p.wall = System.nanoTime();
+		return p;
+	}
+
+	private static int states(Automaton M) {
+		return M.TRUE_FALSE_AUTOMATON ? 0 : M.Q;
+	}
+
+	private static long transitions(Automaton M) {
+		if(M.TRUE_FALSE_AUTOMATON)return 0;
+		long transitions = 0;
+		for(int q = 0; q < M.Q && q < M.d.size(); q++) {
+			for(List<Integer> destinations:M.d.get(q).values()) {
+				transitions += destinations.size();
+			}
+		}
+		return transitions;
+	}
+
+	private static long cpuTime() {
+		try {
+			return threads.getCurrentThreadCpuTime();
+		} catch(UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+
+	private static long allocatedBytes() {
+		if(!(threads instanceof com.sun.management.ThreadMXBean))return -1;
+		try {
+			return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		} catch(UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+}
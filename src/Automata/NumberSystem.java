@@ -19,7 +19,12 @@
 package Automata;
 
 import java.io.File;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -96,22 +101,35 @@ public class NumberSystem {
 
 	/**
 	 * Used to compute constant(n),multiplication(n),division(n) with dynamic programming.
-	 * Because these three methods are time consuming, we would like to cache their results in three HashMaps.
+	 * Because these three methods are time consuming, we would like to cache their results in three tables.
 	 * For example:<br>
 	 * constantsDynamicTable.get(4) is the automaton that has a single input, and accepts if that input equals 4.<br>
 	 * multiplicationsDynamicTable(3) is the automaton that gets two inputs, and accepts if the second is 3 times the first. So the input is ordered!<br>
 	 * divisionsDynamicTable(5) is the automaton that gets two inputs, and accepts if the second is one-third of the first. So the input is ordered!<br>
+	 * The tables are bounded, and they are stored in a directory named after this number system and the content of its
+	 * files in Custom Bases, so that other sessions can reuse them (see AutomatonCache).
 	 */
-	HashMap<Integer,Automaton> constantsDynamicTable;
-	HashMap<Integer,Automaton> multiplicationsDynamicTable;
-	HashMap<Integer,Automaton> divisionsDynamicTable;
+	AutomatonCache constantsDynamicTable;
+	AutomatonCache multiplicationsDynamicTable;
+	AutomatonCache divisionsDynamicTable;
 
 	boolean flag_should_we_use_allRepresentations = true;
 
+	/**
+	 * The base n when this is the built-in msd_n or lsd_n number system, i.e., when addition, less than and the set of
+	 * all representations come from base_n_addition and lexicographicLessThan. It is 0 otherwise.
+	 * Only number systems with linear_base > 1 support the method linear.
+	 */
+	int linear_base = 0;
+
 	public boolean isMsd() {
 		return is_msd;
 	}
 
+	public boolean isLinear() {
+		return linear_base > 1;
+	}
+
 	public boolean should_we_use_allRepresentations() {
 		return flag_should_we_use_allRepresentations;
 	}
@@ -158,6 +176,7 @@ public class NumberSystem {
 		} else {
 			if(UtilityMethods.isNumber(base) && Integer.parseInt(base) > 1) {
 				base_n_addition(Integer.parseInt(base));
+				linear_base = Integer.parseInt(base);
 			} else if(UtilityMethods.parseNegNumber(base) > 1) {
 				base_neg_n_addition(UtilityMethods.parseNegNumber(base));
 			} else {
@@ -241,6 +260,11 @@ public class NumberSystem {
 			flag_should_we_use_allRepresentations = false;
 		}
 
+		if(flag_should_we_use_allRepresentations ||
+				new File(addressForLessThan).isFile() || new File(complement_addressForLessThan).isFile()) {
+			linear_base = 0;
+		}
+
 		if(flag_should_we_use_allRepresentations) {
 			for(int i = 0 ; i < allRepresentations.NS.size(); i++) {
 				allRepresentations.NS.set(i, this);
@@ -249,9 +273,40 @@ public class NumberSystem {
 			applyAllRepresentations();
 		}
 
-		constantsDynamicTable = new HashMap<Integer, Automaton>();
-		multiplicationsDynamicTable = new HashMap<>();
-		divisionsDynamicTable = new HashMap<>();
+		String cache = null;
+		if(AutomatonCache.USE_DISK) {
+			cache = UtilityMethods.get_address_for_number_system_cache() + name + "_" + fingerprint(
+				addressForTheSetOfAllRepresentations, complement_addressForTheSetOfAllRepresentations,
+				addressForAddition, complement_addressForAddition,
+				addressForLessThan, complement_addressForLessThan) + "/";
+		}
+		constantsDynamicTable = new AutomatonCache(AutomatonCache.MAX_STATES, cache, "constant_");
+		multiplicationsDynamicTable = new AutomatonCache(AutomatonCache.MAX_STATES, cache, "multiplication_");
+		divisionsDynamicTable = new AutomatonCache(AutomatonCache.MAX_STATES, cache, "division_");
+	}
+
+	/**
+	 * @param addresses
+	 * @return a hash of the names and contents of the files among addresses that exist. Number systems whose
+	 * Custom Bases files differ get different hashes, so they never share cached automata.
+	 * @throws Exception
+	 */
+	private static String fingerprint(String... addresses) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		// bump the version when the automata stored in the cache change meaning
+		digest.update("1".getBytes(StandardCharsets.UTF_8));
+		for(String address:addresses) {
+			File file = new File(address);
+			if(!file.isFile())continue;
+			digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+			digest.update(Files.readAllBytes(file.toPath()));
+		}
+		StringBuilder s = new StringBuilder();
+		byte[] hash = digest.digest();
+		for(int i = 0; i < 8; i++) {
+			s.append(String.format("%02x", hash[i]));
+		}
+		return s.toString();
 	}
 
 	/**
@@ -645,6 +700,80 @@ public class NumberSystem {
 		return multiplication(n).clone();
 	}
 
+	/**
+	 * @param n a non-negative integer
+	 * @return the shortest representation of n in this number system, in the order it is read, i.e.,
+	 * the most significant digit first if this number system is msd. The representation of 0 is empty.
+	 * @throws Exception
+	 */
+	public List<Integer> representation(BigInteger n) throws Exception {
+		if(n.signum() < 0) {
+			throw new Exception("negative numbers are not supported: " + n);
+		}
+		List<Integer> digits = new ArrayList<Integer>();
+		if(isLinear()) {
+			BigInteger base = BigInteger.valueOf(linear_base);
+			while(n.signum() > 0) {
+				BigInteger[] qr = n.divideAndRemainder(base);
+				digits.add(qr[1].intValue());
+				n = qr[0];
+			}
+			if(is_msd)Collections.reverse(digits);
+			return digits;
+		}
+		if(n.bitLength() > 31) {
+			throw new Exception("numbers larger than " + Integer.MAX_VALUE + " are only supported in base n: " + n);
+		}
+		// the shortest accepted word of the automaton for the constant n, found by breadth first search.
+		Automaton M = constant(n.intValue());
+		int[] previous = new int[M.Q];
+		int[] letter = new int[M.Q];
+		Arrays.fill(previous, -2);
+		previous[M.q0] = -1;
+		List<Integer> queue = new ArrayList<Integer>();
+		queue.add(M.q0);
+		int q = -1;
+		for(int i = 0; i < queue.size(); i++) {
+			int p = queue.get(i);
+			if(M.O.get(p) != 0) {
+				q = p;
+				break;
+			}
+			for(int x:M.d.get(p).keySet()) {
+				for(int r:M.d.get(p).get(x)) {
+					if(previous[r] != -2)continue;
+					previous[r] = p;
+					letter[r] = M.A.get(0).get(x);
+					queue.add(r);
+				}
+			}
+		}
+		if(q == -1) {
+			throw new Exception(n + " has no representation in " + name);
+		}
+		for(; previous[q] != -1; q = previous[q]) {
+			digits.add(letter[q]);
+		}
+		// digits are now in the reverse order of reading.
+		Collections.reverse(digits);
+		return digits;
+	}
+
+	/**
+	 * @param digits a representation in this number system, in the order it is read.
+	 * @return the number it represents, or null when this number system is not base n, since then we have no
+	 * direct way to read a representation.
+	 */
+	public BigInteger value(List<Integer> digits) {
+		if(!isLinear())return null;
+		BigInteger n = BigInteger.ZERO, base = BigInteger.valueOf(linear_base);
+		for(int i = 0; i < digits.size(); i++) {
+			int digit = digits.get(is_msd ? i : digits.size() - 1 - i);
+			n = n.multiply(base).add(BigInteger.valueOf(digit));
+		}
+		return n;
+	}
+
 	public String toString(){
 		return name;
 	}
@@ -919,6 +1048,158 @@ public class NumberSystem {
 		return M;
 	}
 
+	/**
+	 * Bounds on the automata built by linear: the size of the alphabet (k^n for n variables in base k), and the
+	 * number of transitions, i.e., the number of values of the left hand side that the automaton has to remember
+	 * times the size of the alphabet. The arithmetic and relational operators use linear only within these bounds,
+	 * and addition automata otherwise.
+	 * They can be set with -Dwalnut.linear.alphabet=... and -Dwalnut.linear.transitions=...
+	 */
+	public static long MAX_LINEAR_ALPHABET = Long.getLong("walnut.linear.alphabet", 1024);
+	public static long MAX_LINEAR_TRANSITIONS = Long.getLong("walnut.linear.transitions", 1000000);
+
+	/**
+	 * @param variables
+	 * @return true if an automaton of linear with that many inputs is within MAX_LINEAR_ALPHABET.
+	 */
+	public boolean linearFits(int variables) {
+		if(!isLinear())return false;
+		long size = 1, k = getAlphabet().size();
+		for(int i = 0; i < variables; i++) {
+			size *= k;
+			if(size > MAX_LINEAR_ALPHABET)return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param c
+	 * @return true if linear(c) is within MAX_LINEAR_ALPHABET and MAX_LINEAR_TRANSITIONS.
+	 */
+	public boolean linearFits(LinearConstraint c) {
+		if(!linearFits(c.coefficients.size()))return false;
+		List<Integer> alphabet = getAlphabet();
+		long k = alphabet.size(), low = Collections.min(alphabet), high = Collections.max(alphabet);
+		long letters = 1;
+		for(int i = 0; i < c.coefficients.size(); i++)letters *= k;
+		if(c.relation == LinearConstraint.CONGRUENT)return c.modulus <= MAX_LINEAR_TRANSITIONS / letters;
+		long min = 0, max = 0;
+		for(int a:c.coefficients.values()) {
+			min += Math.min(a*low, a*high);
+			max += Math.max(a*low, a*high);
+		}
+		// the values of S that are not decided yet, see linear
+		long target = -(long)c.constant;
+		long from = Math.min(Math.floorDiv(-max, k-1), target), to = Math.max(-Math.floorDiv(min, k-1), target);
+		return to - from + 2 <= MAX_LINEAR_TRANSITIONS / letters;
+	}
+
+	/**
+	 * Builds the automaton of a linear constraint, without going through addition automata.
+	 * The automaton reads the inputs most significant digit first and remembers the value S of the left hand side
+	 * (without the constant) on the digits read so far. Reading the digits d_1,...,d_n
+	 * changes S to base*S + a_1*d_1 + ... + a_n*d_n. Once S is large enough in absolute value it can only move
+	 * away from -constant, so the constraint is then decided and S does not need to be remembered anymore.
+	 * For congruences we remember S modulo the modulus. Missing transitions lead to rejection.<br>
+	 * For lsd number systems we build the msd automaton and reverse it.<br>
+	 * A conjunction of constraints is built one constraint at a time (see LinearForm.compare): the product of all of
+	 * them over the union of their variables is much larger than the automata of the individual constraints.
+	 * @param c
+	 * @return an Automaton whose inputs are labeled with the variables of c, in sorted order. It accepts iff c holds.
+	 * @throws Exception
+	 */
+	public Automaton linear(LinearConstraint c) throws Exception {
+		if(!isLinear())throw new Exception("number system " + name + " does not support linear arithmetic");
+		if(c.coefficients.isEmpty()) {
+			return new Automaton(c.holds(0));
+		}
+		List<String> labels = new ArrayList<String>(c.coefficients.keySet());
+		List<Integer> alphabet = getAlphabet();
+		int n = labels.size(), k = alphabet.size();
+		Automaton M = new Automaton();
+		M.alphabetSize = 1;
+		for(int i = 0; i < n; i++) {
+			M.A.add(new ArrayList<Integer>(alphabet));
+			M.NS.add(this);
+			M.alphabetSize *= k;
+		}
+
+		/**
+		 * sums[x] is the value of the left hand side of c on the input x (encoded as in Automaton.encode),
+		 * min/max are the smallest/largest of these values.
+		 */
+		long[] sums = new long[M.alphabetSize];
+		long min = 0, max = 0;
+		for(int x = 0; x < M.alphabetSize; x++) {
+			long sum = 0;
+			int y = x;
+			for(int i = 0; i < n; i++) {
+				sum += (long)c.coefficients.get(labels.get(i)) * alphabet.get(y % k);
+				y /= k;
+			}
+			sums[x] = sum;
+			min = Math.min(min, sum);
+			max = Math.max(max, sum);
+		}
+
+		// UNSATISFIED never appears in a state: the transition is omitted instead.
+		final long SATISFIED = Long.MAX_VALUE, UNSATISFIED = Long.MIN_VALUE;
+		final long target = -(long)c.constant;
+		HashMap<Long,Integer> stateIndex = new HashMap<Long,Integer>();
+		List<Long> states = new ArrayList<Long>();
+		stateIndex.put(0L, 0);
+		states.add(0L);
+		M.q0 = 0;
+		for(int q = 0; q < states.size(); q++) {
+			ResourceGovernor.check(states.size());
+			long state = states.get(q);
+			M.O.add(state == SATISFIED || c.holds(state) ? 1 : 0);
+			M.d.add(new TreeMap<Integer,List<Integer>>());
+			for(int x = 0; x < M.alphabetSize; x++) {
+				long next;
+				if(state == SATISFIED) {
+					next = SATISFIED;
+				} else if(c.relation == LinearConstraint.CONGRUENT) {
+					next = Math.floorMod(k*state + sums[x], (long)c.modulus);
+				} else {
+					long S = k*state + sums[x];
+					// once (k-1)*S > -min, S only increases. once (k-1)*S < -max, S only decreases.
+					boolean above = S > target && (k-1)*S > -min;
+					boolean below = S < target && (k-1)*S < -max;
+					next = S;
+					switch(c.relation) {
+						case LinearConstraint.EQUAL:
+							if(above || below)next = UNSATISFIED;
+							break;
+						case LinearConstraint.NOT_EQUAL:
+							if(above || below)next = SATISFIED;
+							break;
+						default:
+							if(above)next = UNSATISFIED;
+							else if(below)next = SATISFIED;
+					}
+				}
+				if(next == UNSATISFIED)continue;
+				if(!stateIndex.containsKey(next)) {
+					stateIndex.put(next, states.size());
+					states.add(next);
+				}
+				List<Integer> dest = new ArrayList<Integer>();
+				dest.add(stateIndex.get(next));
+				M.d.get(q).put(x, dest);
+			}
+		}
+		M.Q = states.size();
+
+		if(is_msd) {
+			M.minimize(false,null,null);
+		} else {
+			M.reverse(false,null,null);
+		}
+		M.bind(labels);
+		return M;
+	}
+
 	/**
 	 *
 	 * @param n
@@ -929,9 +1210,11 @@ public class NumberSystem {
 		if (!is_neg && n < 0) {
 			throw new Exception("Constant cannot be negative.");
 		}
-		if (constantsDynamicTable.containsKey(n)) {
-			return constantsDynamicTable.get(n);
+		Automaton cached = constantsDynamicTable.get(n, this);
+		if (cached != null) {
+			return cached;
 		}
+		long timeBefore = System.currentTimeMillis();
 
 		Automaton P;
 		if (n == 0) {
@@ -961,7 +1244,7 @@ public class NumberSystem {
 			P = P.and(N, false, null, null);
 			P.quantify(a, b, is_msd, false, null, null);
 		}
-		constantsDynamicTable.put(n, P);
+		constantsDynamicTable.put(n, P, System.currentTimeMillis() - timeBefore);
 		return P;
 	}
 
@@ -974,7 +1257,9 @@ public class NumberSystem {
 	private Automaton multiplication(int n)throws Exception {
 		if(!is_neg && n < 0)throw new Exception("constant cannot be negative");
 		if(n == 0)throw new Exception("multiplication(0)");
-		if(multiplicationsDynamicTable.containsKey(n))return multiplicationsDynamicTable.get(n);
+		Automaton cached = multiplicationsDynamicTable.get(n, this);
+		if(cached != null)return cached;
+		long timeBefore = System.currentTimeMillis();
 		//note that the case of n==0 is handled in Computer class
 		Automaton P;
 		if(n == 1){
@@ -1004,7 +1289,7 @@ public class NumberSystem {
 			P.quantify(b,c,is_msd,false,null,null);
 			P.sortLabel();
 		}
-		multiplicationsDynamicTable.put(n, P);
+		multiplicationsDynamicTable.put(n, P, System.currentTimeMillis() - timeBefore);
 		return P;
 	}
 
@@ -1018,7 +1303,9 @@ public class NumberSystem {
 	private Automaton division(int n)throws Exception {
 		if(!is_neg && n < 0)throw new Exception("constant cannot be negative");
 		if(n == 0)throw new Exception("division by zero");
-		if(divisionsDynamicTable.containsKey(n))return divisionsDynamicTable.get(n);
+		Automaton cached = divisionsDynamicTable.get(n, this);
+		if(cached != null)return cached;
+		long timeBefore = System.currentTimeMillis();
 		String a = "a",b = "b",r = "r",q = "q";
 		// We want to construct the following expressions
 		// a / n = b <=> Er,q a = q + r & q = n*b & n < r <= 0 if n < 0
@@ -1040,7 +1327,7 @@ public class NumberSystem {
 		R = R.and(P,false,null,null);
 		R.quantify(q,r, is_msd,false,null,null);
 		R.sortLabel();
-		divisionsDynamicTable.put(n, R);
+		divisionsDynamicTable.put(n, R, System.currentTimeMillis() - timeBefore);
 		return R;
 	}
 
@@ -1048,7 +1335,8 @@ public class NumberSystem {
 		List<Integer> alph = new ArrayList<Integer>();
 		alph.add(0);
 		alph.add(1);
-		Automaton M = new Automaton("0*",alph,this);
+		Automaton M = new Automaton("0*",alph,false);
+		M.NS.set(0,this);
 		M.A = new ArrayList<List<Integer>>();
 		M.A.add(new ArrayList<Integer>(addition.A.get(0)));
 		M.alphabetSize = M.A.get(0).size();
@@ -1063,11 +1351,8 @@ public class NumberSystem {
 		List<Integer> alph = new ArrayList<Integer>();
 		alph.add(0);
 		alph.add(1);
-		Automaton M = new Automaton("0*",alph,this);
-		if(is_msd)
-			M = new Automaton("0*1",alph,this);
-		else
-			M = new Automaton("10*",alph,this);
+		Automaton M = new Automaton(is_msd ? "0*1" : "10*",alph,false);
+		M.NS.set(0,this);
 		M.A = new ArrayList<List<Integer>>();
 		M.A.add(new ArrayList<Integer>(addition.A.get(0)));
 		M.alphabetSize = M.A.get(0).size();
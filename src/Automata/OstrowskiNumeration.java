@@ -19,13 +19,11 @@
 package Automata;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
 import java.util.TreeMap;
 import Main.UtilityMethods;
 
@@ -77,13 +75,22 @@ public class OstrowskiNumeration {
     // the continued fraction expansion of alpha.
     int transition[][][];
 
-    // Maps to keep track of states and transitions.
-    TreeMap<NodeState, Integer> index_of_node;
-    TreeMap<Integer, NodeState> node_of_index;
-    TreeMap<Integer, TreeMap<Integer, List<Integer>>> state_transitions;
-
+    // Nodes of the BFS are triples (state, start index, seen index), packed into an int by key().
+    // index_of_key[key] is the index of the node, or -1 if it does not exist yet, and key_of_index[i] is the key
+    // of the node with index i. Nodes are indexed in the order they are created, which is also the BFS order.
+    int[] index_of_key;
+    int[] key_of_index;
     int total_nodes;
 
+    // Node i goes to node transition_destination[i][j] on the label transition_label[i][j], for j < transition_count[i].
+    int[][] transition_label;
+    int[][] transition_destination;
+    int[] transition_count;
+
+    // Automata generated so far, by the continued fraction expansion of alpha: {repr, adder}.
+    // They only depend on alpha, so an ost command for an alpha we have seen before does not regenerate them.
+    static HashMap<String, Automaton[]> generated = new HashMap<>();
+
     Automaton adder;
     Automaton repr;
 
@@ -135,129 +142,129 @@ public class OstrowskiNumeration {
         }
 
         initTransitions();
-        this.index_of_node = new TreeMap<>();
-        this.node_of_index = new TreeMap<>();
-        this.total_nodes = 0;
+        resetAutomaton();
     }
 
     public void createRepresentationAutomaton() throws Exception {
-        resetAutomaton();
-        repr = new Automaton();
-
-        // Declare the alphabet.
-        repr.alphabetSize = d_max + 1;
-        List<Integer> list = new ArrayList<Integer>();
-        for (int i = 0; i <= d_max; i++) {
-            list.add(i);
+        String repr_file_name =
+            UtilityMethods.get_address_for_custom_bases() + "msd_" + this.name + ".txt";
+        File f = new File(repr_file_name);
+        if(f.exists() && !f.isDirectory()) {
+            throw new Exception("Error: number system " + this.name + " already exisis.");
         }
 
-        // Only 1 input to the repr automaton.
-        repr.A.add(list);
-        repr.NS.add(null);
-        repr.d = new ArrayList<TreeMap<Integer, List<Integer>>>();
-        repr.alphabetSize = d_max + 1;
-        repr.Q = 0;
-
-        performReprBfs();
-        repr.Q = this.total_nodes;
-        for(int q = 0; q < this.total_nodes; ++q) {
-            if (node_of_index.containsKey(q)) {
-                NodeState node = node_of_index.get(q);
-                if (node.getState() == 0 && node.getSeenIndex() == 1) {
-                    repr.O.add(1);
-                } else {
-                    repr.O.add(0);
+        repr = getGenerated(0);
+        if (repr == null) {
+            resetAutomaton();
+            performReprBfs();
+
+            repr = new Automaton();
+            // Declare the alphabet. Only 1 input to the repr automaton.
+            repr.A.add(digits());
+            repr.NS.add(null);
+            repr.alphabetSize = d_max + 1;
+            repr.Q = this.total_nodes;
+            for (int q = 0; q < this.total_nodes; ++q) {
+                repr.O.add(stateOf(q) == 0 && seenIndexOf(q) == 1 ? 1 : 0);
+                TreeMap<Integer, List<Integer>> current_state_transitions = new TreeMap<>();
+                for (int j = 0; j < transition_count[q]; ++j) {
+                    current_state_transitions
+                        .computeIfAbsent(transition_label[q][j], k -> new ArrayList<Integer>())
+                        .add(transition_destination[q][j]);
                 }
-            } else {
-                repr.O.add(0);
+                repr.d.add(current_state_transitions);
             }
 
-            this.state_transitions.putIfAbsent(q, new TreeMap<>());
-            repr.d.add(this.state_transitions.get(q));
-        }
-
-        repr.minimize(false, "", null);
-        repr.canonize();
-
-        boolean zeroStateNeeded =
-            repr.d.stream().anyMatch(
-                tm -> tm.entrySet().stream().anyMatch(
-                    es -> es.getValue().get(0) == 0));
-        if (!zeroStateNeeded) {
-            repr.d.remove(0);
-            repr.O.remove(0);
-            --repr.Q;
-            repr.d.forEach(tm -> {
-                tm.forEach((k, v) -> {
-                    int dest = v.get(0) - 1;
-                    v.set(0, dest);
-                });
-            });
+            repr.minimize(false, "", null);
+            repr.canonize();
+            removeUselessInitialState(repr);
+            setGenerated(0, repr);
         }
 
-        String repr_file_name =
-            UtilityMethods.get_address_for_custom_bases() + "msd_" + this.name + ".txt";
-        File f = new File(repr_file_name);
-        if(f.exists() && !f.isDirectory()) {
-            throw new Exception("Error: number system " + this.name + " already exisis.");
-        }
         repr.write(repr_file_name);
         System.out.println("Ostrowski representation automaton created and written to file " + repr_file_name);
     }
 
     public void createAdderAutomaton() throws Exception {
-        resetAutomaton();
-        adder = new Automaton();
-
-        // Declare the alphabet.
-        adder.alphabetSize = 1;
-        List<Integer> list = new ArrayList<Integer>();
-        for (int i = 0; i <= d_max; i++) {
-            list.add(i);
-        }
-
-        // 3 inputs to the adder, all have the same alphabet and the null NumberSystem.
-        adder.A.add(list);
-        adder.A.add(list);
-        adder.A.add(list);
-        adder.NS.add(null);
-        adder.NS.add(null);
-        adder.NS.add(null);
-        adder.d = new ArrayList<TreeMap<Integer, List<Integer>>>();
-        adder.alphabetSize = (d_max + 1) * (d_max + 1) * (d_max + 1);
-        adder.Q = 0;
-
-        performAdderBfs();
-        adder.Q = this.total_nodes;
-        for(int q = 0; q < this.total_nodes; q++) {
-            adder.O.add(isFinal(q)?1:0);
-            this.state_transitions.putIfAbsent(q, new TreeMap<>());
-            adder.d.add(this.state_transitions.get(q));
-        }
-
-        adder.minimize(false, "", null);
+        adder = getGenerated(1);
+        if (adder == null) {
+            resetAutomaton();
+            performAdderBfs();
+
+            // A transition of the BFS on the label diff is taken on every input (x, y, z) with z - x - y = diff.
+            // So we determinize and minimize the automaton over diffs, an alphabet of size 3*d_max + 1 instead
+            // of (d_max + 1)^3, and only expand diffs into inputs once it is minimal.
+            int number_of_diffs = 3 * d_max + 1;
+            Automaton D = new Automaton();
+            List<Integer> diffs = new ArrayList<Integer>();
+            for (int i = 0; i < number_of_diffs; ++i) {
+                diffs.add(i);
+            }
+            D.A.add(diffs);
+            D.NS.add(null);
+            D.alphabetSize = number_of_diffs;
+            D.Q = this.total_nodes;
+            for (int q = 0; q < this.total_nodes; ++q) {
+                D.O.add(isFinal(q) ? 1 : 0);
+                TreeMap<Integer, List<Integer>> current_state_transitions = new TreeMap<>();
+                for (int j = 0; j < transition_count[q]; ++j) {
+                    // diff + 2*d_max is the index of diff. Diffs out of range are taken on no input at all.
+                    int diff = transition_label[q][j] + 2 * d_max;
+                    if (diff < 0 || diff >= number_of_diffs) {
+                        continue;
+                    }
+                    current_state_transitions
+                        .computeIfAbsent(diff, k -> new ArrayList<Integer>())
+                        .add(transition_destination[q][j]);
+                }
+                D.d.add(current_state_transitions);
+            }
+            D.minimize(false, "", null);
 
-        // We need to canonize and remove the first state.
-        // The automaton will work with this state as well, but it is useless. This happens
-        // because the Automaton class does not support an epsilon transition for NFAs.
-        adder.canonize();
+            int[][] inputs_of_diff = new int[number_of_diffs][];
+            int[] count = new int[number_of_diffs];
+            for (int i = 0; i < number_of_diffs; ++i) {
+                inputs_of_diff[i] = new int[(d_max + 1) * (d_max + 1)];
+            }
+            for (int z = 0; z <= d_max; ++z) {
+                for (int y = 0; y <= d_max; ++y) {
+                    for (int x = 0; x <= d_max; ++x) {
+                        int diff = z - x - y + 2 * d_max;
+                        inputs_of_diff[diff][count[diff]++] = inputEncode(x, y, z);
+                    }
+                }
+            }
 
-        boolean zeroStateNeeded =
-            adder.d.stream().anyMatch(
-                tm -> tm.entrySet().stream().anyMatch(
-                    es -> es.getValue().get(0) == 0));
+            adder = new Automaton();
+            // 3 inputs to the adder, all have the same alphabet and the null NumberSystem.
+            List<Integer> list = digits();
+            adder.A.add(list);
+            adder.A.add(list);
+            adder.A.add(list);
+            adder.NS.add(null);
+            adder.NS.add(null);
+            adder.NS.add(null);
+            adder.alphabetSize = (d_max + 1) * (d_max + 1) * (d_max + 1);
+            adder.Q = D.Q;
+            adder.q0 = D.q0;
+            for (int q = 0; q < D.Q; ++q) {
+                adder.O.add(D.O.get(q));
+                TreeMap<Integer, List<Integer>> current_state_transitions = new TreeMap<>();
+                for (int diff : D.d.get(q).keySet()) {
+                    List<Integer> dest = D.d.get(q).get(diff);
+                    for (int i = 0; i < count[diff]; ++i) {
+                        current_state_transitions.put(inputs_of_diff[diff][i], new ArrayList<Integer>(dest));
+                    }
+                }
+                adder.d.add(current_state_transitions);
+            }
 
-        if (!zeroStateNeeded) {
-            adder.d.remove(0);
-            adder.O.remove(0);
-            --adder.Q;
-            adder.d.forEach(tm -> {
-                tm.forEach((k, v) -> {
-                    int dest = v.get(0) - 1;
-                    // System.out.println(k + " -> " + v);
-                    v.set(0, dest);
-                });
-            });
+            // We need to canonize and remove the first state.
+            // The automaton will work with this state as well, but it is useless. This happens
+            // because the Automaton class does not support an epsilon transition for NFAs.
+            adder.canonize();
+            removeUselessInitialState(adder);
+            setGenerated(1, adder);
         }
 
         // Write the Automaton to file.
@@ -353,38 +360,20 @@ public class OstrowskiNumeration {
     }
 
     private void performAdderBfs() {
-        // In a node, the indices mean the following.
-        // 0: The state in the 4-input automaton.
-        // 1: The C.F. index at which the input started.
-        // 2: The C.F. index that is currently active in the input.
-
         // This is the start state.
-        NodeState start_node = new NodeState(0, 0, 0);
-        this.index_of_node.put(start_node, 0);
-        this.node_of_index.put(0, start_node);
-        ++this.total_nodes;
-
-        Queue<Integer> queue = new LinkedList<Integer>();
-        this.state_transitions = new TreeMap<>();
+        getOrCreateNode(0, 0, 0);
 
         // These are the "0" states.
-        this.state_transitions.put(0, new TreeMap<>());
         for (int i = 1; i < this.sz_alpha; i++) {
-            NodeState node = new NodeState(0, i, i);
-            index_of_node.put(node, this.total_nodes);
-            node_of_index.put(this.total_nodes, node);
-            addTransitions(this.state_transitions.get(0), 0, this.total_nodes);
-            queue.add(this.total_nodes);
-            ++this.total_nodes;
+            addTransition(0, 0, getOrCreateNode(0, i, i));
         }
 
+        // Nodes are created in BFS order, so the queue is simply the list of nodes after the start state.
         int r, s, a;
-        while (queue.size() > 0) {
-            int cur_node_idx = queue.remove();
-            NodeState cur_node = node_of_index.get(cur_node_idx);
-            int state = cur_node.getState();
-            int start_index = cur_node.getStartIndex();
-            int seen_index = cur_node.getSeenIndex();
+        for (int cur_node_idx = 1; cur_node_idx < this.total_nodes; ++cur_node_idx) {
+            int state = stateOf(cur_node_idx);
+            int start_index = startIndexOf(cur_node_idx);
+            int seen_index = seenIndexOf(cur_node_idx);
 
             if (seen_index == 1 && this.sz_alpha > 2 && this.period_index > 1) {
                 // The input ends here.
@@ -400,104 +389,39 @@ public class OstrowskiNumeration {
                 }
 
                 if (seen_index > 1) {
-                    NodeState node = new NodeState(st, start_index, seen_index - 1);
-                    this.state_transitions.putIfAbsent(cur_node_idx, new TreeMap<>());
                     a = alphaI(seen_index - 1);
-                    if (index_of_node.containsKey(node)) {
-                        // This node already exists, don't create a new NodeState.
-                        addTransitions(
-                            this.state_transitions.get(cur_node_idx),
-                            a*r + s,
-                            index_of_node.get(node));
-                    } else {
-                        // Need to create a new NodeState.
-                        index_of_node.put(node, this.total_nodes);
-                        node_of_index.put(this.total_nodes, node);
-                        queue.add(this.total_nodes);
-                        addTransitions(
-                            this.state_transitions.get(cur_node_idx),
-                            a*r + s,
-                            this.total_nodes);
-                        ++this.total_nodes;
-                    }
+                    addTransition(cur_node_idx, a*r + s, getOrCreateNode(st, start_index, seen_index - 1));
                 }
 
                 if (seen_index == this.period_index) {
                     // There is another possibility.
                     // Next index could also be sz_alpha - 1.
-                    NodeState node = new NodeState(st, start_index, sz_alpha - 1);
-
-                    // Create the map if does not exist.
-                    this.state_transitions.putIfAbsent(cur_node_idx, new TreeMap<>());
-
                     a = alphaI(sz_alpha - 1);
-                    if (index_of_node.containsKey(node)) {
-                        addTransitions(
-                            this.state_transitions.get(cur_node_idx),
-                            a*r + s,
-                            index_of_node.get(node));
-                    } else {
-                        index_of_node.put(node, this.total_nodes);
-                        node_of_index.put(this.total_nodes, node);
-                        queue.add(this.total_nodes);
-                        addTransitions(
-                            this.state_transitions.get(cur_node_idx),
-                            a*r + s,
-                            this.total_nodes);
-                        ++this.total_nodes;
-                    }
+                    addTransition(cur_node_idx, a*r + s, getOrCreateNode(st, start_index, sz_alpha - 1));
                 }
             }
         }
     }
 
     private void performReprBfs() {
-        // In a node, the indices mean the following.
-        // 0: The state in the 2-input automaton.
-        // 1: The C.F. index at which the input started.
-        // 2: The C.F. index that is currently active in the input.
-
         // This is the start state.
-        NodeState start_node = new NodeState(0, 0, 0);
-        this.index_of_node.put(start_node, 0);
-        this.node_of_index.put(0, start_node);
-        ++this.total_nodes;
-
-        Queue<Integer> queue = new LinkedList<Integer>();
-        this.state_transitions = new TreeMap<>();
+        getOrCreateNode(0, 0, 0);
         int a;
 
         // These are the "0" states.
-        this.state_transitions.put(0, new TreeMap<>());
         for (int i = 1; i < this.sz_alpha; ++i) {
-            NodeState node = new NodeState(0, i, i);
             a = alphaI(i);
-            index_of_node.put(node, this.total_nodes);
-            node_of_index.put(this.total_nodes, node);
+            int node = getOrCreateNode(0, i, i);
             for (int inp = 0; inp < a; ++inp) {
-                this.state_transitions.get(0).putIfAbsent(inp, new ArrayList<Integer>());
-                this.state_transitions.get(0).get(inp).add(this.total_nodes);
+                addTransition(0, inp, node);
             }
-
-            queue.add(this.total_nodes);
-            ++this.total_nodes;
-
-            node = new NodeState(1, i, i);
-            index_of_node.put(node, this.total_nodes);
-            node_of_index.put(this.total_nodes, node);
-            this.state_transitions.get(0).putIfAbsent(a, new ArrayList<Integer>());
-            this.state_transitions.get(0).get(a).add(this.total_nodes);
-            queue.add(this.total_nodes);
-            ++this.total_nodes;
+            addTransition(0, a, getOrCreateNode(1, i, i));
         }
 
-        while (queue.size() > 0) {
-            int cur_node_idx = queue.remove();
-
-            NodeState cur_node = node_of_index.get(cur_node_idx);
-            int state = cur_node.getState();
-            int start_index = cur_node.getStartIndex();
-            int seen_index = cur_node.getSeenIndex();
+        for (int cur_node_idx = 1; cur_node_idx < this.total_nodes; ++cur_node_idx) {
+            int state = stateOf(cur_node_idx);
+            int start_index = startIndexOf(cur_node_idx);
+            int seen_index = seenIndexOf(cur_node_idx);
 
             if (seen_index == 1 && this.sz_alpha > 2 && this.period_index > 1) {
                 // The input ends here.
@@ -511,58 +435,15 @@ public class OstrowskiNumeration {
                     a = 1;
                 }
 
-                this.state_transitions.putIfAbsent(cur_node_idx, new TreeMap<>());
-
                 // Will go to state 0 for all transitions < a.
-                NodeState node = new NodeState(0, start_index, seen_index - 1);
+                int node = getOrCreateNode(0, start_index, seen_index - 1);
                 for (int inp = 0; inp < a; ++inp) {
-                    if (index_of_node.containsKey(node)) {
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(inp, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(inp)
-                            .add(index_of_node.get(node));
-                    } else {
-                        index_of_node.put(node, this.total_nodes);
-                        node_of_index.put(this.total_nodes, node);
-                        queue.add(this.total_nodes);
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(inp, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(inp)
-                            .add(this.total_nodes);
-                        ++this.total_nodes;
-                    }
+                    addTransition(cur_node_idx, inp, node);
                 }
 
                 // Go to state 1 from this state 0 for transition = a (only if seen_index > 2).
                 if (state == 0 && seen_index > 2) {
-                    node = new NodeState(1, start_index, seen_index - 1);
-                    if (index_of_node.containsKey(node)) {
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(a, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(a)
-                            .add(index_of_node.get(node));
-                    } else {
-                        index_of_node.put(node, this.total_nodes);
-                        node_of_index.put(this.total_nodes, node);
-                        queue.add(this.total_nodes);
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(a, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(a)
-                            .add(this.total_nodes);
-                        ++this.total_nodes;
-                    }
+                    addTransition(cur_node_idx, a, getOrCreateNode(1, start_index, seen_index - 1));
                 }
             }
 
@@ -575,77 +456,66 @@ public class OstrowskiNumeration {
                     a = 1;
                 }
 
-                // Create the map if does not exist.
-                this.state_transitions.putIfAbsent(cur_node_idx, new TreeMap<>());
-                NodeState node = new NodeState(0, start_index, sz_alpha - 1);
+                int node = getOrCreateNode(0, start_index, sz_alpha - 1);
                 for (int inp = 0; inp < a; ++inp) {
-                    if (index_of_node.containsKey(node)) {
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(inp, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(inp)
-                            .add(index_of_node.get(node));
-                    } else {
-                        index_of_node.put(node, this.total_nodes);
-                        node_of_index.put(this.total_nodes, node);
-                        queue.add(this.total_nodes);
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(inp, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(inp)
-                            .add(this.total_nodes);
-                        ++this.total_nodes;
-                    }
+                    addTransition(cur_node_idx, inp, node);
                 }
 
                 // Go to state 1 from this state 0 for transition = a.
                 if (state == 0) {
-                    node = new NodeState(1, start_index, sz_alpha - 1);
-                    if (index_of_node.containsKey(node)) {
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(a, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(a)
-                            .add(index_of_node.get(node));
-                    } else {
-                        index_of_node.put(node, this.total_nodes);
-                        node_of_index.put(this.total_nodes, node);
-                        queue.add(this.total_nodes);
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .putIfAbsent(a, new ArrayList<Integer>());
-                        this.state_transitions
-                            .get(cur_node_idx)
-                            .get(a)
-                            .add(this.total_nodes);
-                        ++this.total_nodes;
-                    }
+                    addTransition(cur_node_idx, a, getOrCreateNode(1, start_index, sz_alpha - 1));
                 }
             }
         }
     }
 
-    private void addTransitions(
-        TreeMap<Integer, List<Integer>> current_state_transitions,
-        int diff,
-        int encodedDestination) {
-        for (int x = 0; x <= d_max; ++x) {
-            for (int y = 0; y <= d_max; ++y) {
-                for (int z = 0; z <= d_max; ++z) {
-                    if (z - x - y == diff) {
-                        int input = inputEncode(x, y, z);
-                        current_state_transitions.putIfAbsent(input, new ArrayList<Integer>());
-                        current_state_transitions.get(input).add(encodedDestination);
-                    }
-                }
+    private int key(int state, int start_index, int seen_index) {
+        return (state * sz_alpha + start_index) * sz_alpha + seen_index;
+    }
+
+    private int stateOf(int node_index) {
+        return key_of_index[node_index] / (sz_alpha * sz_alpha);
+    }
+
+    private int startIndexOf(int node_index) {
+        return key_of_index[node_index] / sz_alpha % sz_alpha;
+    }
+
+    private int seenIndexOf(int node_index) {
+        return key_of_index[node_index] % sz_alpha;
+    }
+
+    /**
+     * @return the index of the node (state, start_index, seen_index). The node is created if it does not exist yet.
+     */
+    private int getOrCreateNode(int state, int start_index, int seen_index) {
+        int key = key(state, start_index, seen_index);
+        if (index_of_key[key] < 0) {
+            if (total_nodes == key_of_index.length) {
+                int capacity = 2 * total_nodes;
+                key_of_index = Arrays.copyOf(key_of_index, capacity);
+                transition_label = Arrays.copyOf(transition_label, capacity);
+                transition_destination = Arrays.copyOf(transition_destination, capacity);
+                transition_count = Arrays.copyOf(transition_count, capacity);
             }
+            index_of_key[key] = total_nodes;
+            key_of_index[total_nodes] = key;
+            transition_label[total_nodes] = new int[4];
+            transition_destination[total_nodes] = new int[4];
+            ++total_nodes;
+        }
+        return index_of_key[key];
+    }
+
+    private void addTransition(int from, int label, int to) {
+        int j = transition_count[from];
+        if (j == transition_label[from].length) {
+            transition_label[from] = Arrays.copyOf(transition_label[from], 2 * j);
+            transition_destination[from] = Arrays.copyOf(transition_destination[from], 2 * j);
         }
+        transition_label[from][j] = label;
+        transition_destination[from][j] = to;
+        transition_count[from] = j + 1;
     }
 
     private int inputEncode(int x, int y, int z) {
@@ -653,17 +523,60 @@ public class OstrowskiNumeration {
     }
 
     private boolean isFinal(int node_index) {
-        NodeState node = node_of_index.get(node_index);
-        return (
-            // (node.getState() + node.getStartIndex() + node.getSeenIndex() == 0) ||
-            ((node.getState() == 0 || node.getState() == 2 || node.getState() == 6) &&
-                node.getSeenIndex() == 1));
+        int state = stateOf(node_index);
+        return (state == 0 || state == 2 || state == 6) && seenIndexOf(node_index) == 1;
+    }
+
+    private List<Integer> digits() {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i <= d_max; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    /**
+     * M is canonized, so its initial state is 0. If no transition goes back to 0, then we remove it:
+     * the automaton works with this state as well, but it is useless.
+     */
+    private static void removeUselessInitialState(Automaton M) {
+        boolean zeroStateNeeded =
+            M.d.stream().anyMatch(
+                tm -> tm.entrySet().stream().anyMatch(
+                    es -> es.getValue().get(0) == 0));
+        if (!zeroStateNeeded) {
+            M.d.remove(0);
+            M.O.remove(0);
+            --M.Q;
+            M.d.forEach(tm -> {
+                tm.forEach((k, v) -> {
+                    int dest = v.get(0) - 1;
+                    v.set(0, dest);
+                });
+            });
+        }
+    }
+
+    private Automaton getGenerated(int i) {
+        synchronized (generated) {
+            Automaton[] automata = generated.get(alpha + " " + period_index);
+            return automata == null || automata[i] == null ? null : automata[i].clone();
+        }
+    }
+
+    private void setGenerated(int i, Automaton M) {
+        synchronized (generated) {
+            generated.computeIfAbsent(alpha + " " + period_index, k -> new Automaton[2])[i] = M.clone();
+        }
     }
 
     private void resetAutomaton() {
-        this.index_of_node = new TreeMap<>();
-        this.node_of_index = new TreeMap<>();
-        this.state_transitions = new TreeMap<>();
+        this.index_of_key = new int[NUM_STATES * sz_alpha * sz_alpha];
+        Arrays.fill(this.index_of_key, -1);
+        this.key_of_index = new int[16];
+        this.transition_label = new int[16][];
+        this.transition_destination = new int[16][];
+        this.transition_count = new int[16];
         this.total_nodes = 0;
     }
 }
@@ -31,10 +31,6 @@ import Main.UtilityMethods;
 public class ParseMethods {
 	static int ALPHABET_SET = 12;
 	static int ALPHABET_NUMBER_SYSTEM = 2;
-	static int STATE_DECLARATION_STATE_NAME = 1;
-	static int STATE_DECLARATION_OUTPUT = 2;
-	static int TRANSITION_INPUT = 1;
-	static int TRANSITION_DESTINATION = 6;
 
 	static String REGEXP_FOR_TRUE_FALSE = "^\\s*(true|false)\\s*$";
 	static Pattern PATTERN_FOR_TRUE_FALSE = Pattern.compile(REGEXP_FOR_TRUE_FALSE);
@@ -47,12 +43,6 @@ public class ParseMethods {
 	static String ELEMENT = "\\G\\s*,?\\s*(((\\+|\\-)?\\s*\\d+)|\\*)";
 	static Pattern PATTERN_ELEMENT = Pattern.compile(ELEMENT);
 
-	static String REGEXP_FOR_STATE_DECLARATION = "^\\s*(\\d+)\\s+((\\+|\\-)?\\s*\\d+)\\s*$";
-	static Pattern PATTERN_FOR_STATE_DECLARATION = Pattern.compile(REGEXP_FOR_STATE_DECLARATION);
-
-	static String REGEXP_FOR_TRANSITION = "^\\s*((((\\+|\\-)?\\s*\\d+\\s*)|(\\s*\\*\\s*))+)\\s*\\->\\s*((\\d+\\s*)+)\\s*$";
-	static Pattern PATTERN_FOR_TRANSITION = Pattern.compile(REGEXP_FOR_TRANSITION);
-
 	static String REGEXP_FOR_MAPPING_IN_morphism_COMMAND = "(\\d+)\\s*\\-\\>\\s*((\\[(\\+|\\-)?\\s*\\d+\\]|\\d)*)";
 	static Pattern PATTERN_FOR_MAPPING_IN_morphism_COMMAND = Pattern.compile(REGEXP_FOR_MAPPING_IN_morphism_COMMAND);
 	static String REGEXP_FOR_MAPPING_IMAGE_IN_morphism_COMMAND = "\\[(\\+|\\-)?\\s*\\d+\\]|\\d";
@@ -100,20 +90,17 @@ public class ParseMethods {
 					ns = "msd_" + m.group(10);
 				}
 
-				HashMap<String,NumberSystem> H = Predicate.get_number_system_Hash();
-				if(!H.containsKey(ns)) {
-					try {
-						H.put(ns, new NumberSystem(ns));
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						throw new Exception(
-							e.getMessage() + UtilityMethods.newLine() +
-							"\tNumber system " + ns + " does not exist.");
-					}
+				NumberSystem base;
+				try {
+					base = Predicate.get_number_system(ns);
+				} catch (Exception e) {
+					throw new Exception(
+						e.getMessage() + UtilityMethods.newLine() +
+						"\tNumber system " + ns + " does not exist.");
 				}
 
-				A.add(H.get(ns).getAlphabet());
-				bases.add(H.get(ns));
+				A.add(base.getAlphabet());
+				bases.add(base);
 			}
 
 			index = m.end();
@@ -124,28 +111,121 @@ public class ParseMethods {
 		}
 		return true;
 	}
+	/**
+	 * Parses a line of the form "state output", e.g., "3 -1". Lines of automaton files are parsed by hand rather than
+	 * with regular expressions, since a result file can have millions of them.
+	 * @param s
+	 * @param pair receives the state and its output.
+	 * @return false if s is not a state declaration.
+	 */
 	public static boolean parseStateDeclaration(String s, int[] pair) {
-		Matcher m = PATTERN_FOR_STATE_DECLARATION.matcher(s);
-		if(m.find()){
-			pair[0] = UtilityMethods.parseInt(m.group(STATE_DECLARATION_STATE_NAME));
-			pair[1] = UtilityMethods.parseInt(m.group(STATE_DECLARATION_OUTPUT));
-			return true;
-		}
-
-		return false;
+		int n = s.length();
+		int i = skipWhitespace(s, 0);
+		int start = i;
+		i = skipDigits(s, i);
+		if(i == start || i == n || !isWhitespace(s.charAt(i)))return false;
+		int state = Integer.parseInt(s.substring(start, i));
+		int[] end = new int[1];
+		Integer output = parseSignedInteger(s, skipWhitespace(s, i), end);
+		if(output == null || skipWhitespace(s, end[0]) != n)return false;
+		pair[0] = state;
+		pair[1] = output;
+		return true;
 	}
 
+	/**
+	 * Parses a line of the form "inputs -> destinations", e.g., "0 * -1 -> 2 5", where * is a wildcard.
+	 * @param s
+	 * @param input receives the inputs, with null for a wildcard.
+	 * @param dest receives the destinations.
+	 * @return false if s is not a transition. In that case input and dest are left as they were.
+	 */
 	public static boolean parseTransition(
 		String s,
 		List<Integer> input,
 		List<Integer> dest) {
-		Matcher m = PATTERN_FOR_TRANSITION.matcher(s);
-		if(m.find()){
-			parseList(m.group(TRANSITION_INPUT), input);
-			parseList(m.group(TRANSITION_DESTINATION), dest);
-			return true;
+		int n = s.length();
+		int inputSize = input.size();
+		int destSize = dest.size();
+		int[] end = new int[1];
+		int i = skipWhitespace(s, 0);
+		while(i < n && s.charAt(i) != '-' || i + 1 < n && s.charAt(i) == '-' && s.charAt(i+1) != '>') {
+			if(s.charAt(i) == '*') {
+				input.add(null);
+				i = skipWhitespace(s, i + 1);
+				continue;
+			}
+			Integer x = parseSignedInteger(s, i, end);
+			if(x == null)break;
+			input.add(x);
+			i = skipWhitespace(s, end[0]);
 		}
-		return false;
+		boolean valid = input.size() > inputSize && i + 1 < n && s.charAt(i) == '-' && s.charAt(i+1) == '>';
+		if(valid) {
+			i = skipWhitespace(s, i + 2);
+			while(i < n) {
+				int start = i;
+				i = skipDigits(s, i);
+				if(i == start) {
+					valid = false;
+					break;
+				}
+				dest.add(Integer.parseInt(s.substring(start, i)));
+				i = skipWhitespace(s, i);
+			}
+			valid = valid && dest.size() > destSize;
+		}
+		if(!valid) {
+			input.subList(inputSize, input.size()).clear();
+			dest.subList(destSize, dest.size()).clear();
+		}
+		return valid;
+	}
+
+	/**
+	 * @param s
+	 * @return true if s consists of whitespace only.
+	 */
+	public static boolean isBlank(String s) {
+		return skipWhitespace(s, 0) == s.length();
+	}
+
+	/**
+	 * Parses an optionally signed integer starting at index i of s. There can be whitespace between the sign and the digits.
+	 * @param s
+	 * @param i
+	 * @param end receives the index right after the integer.
+	 * @return the integer, or null if there is no integer at index i.
+	 */
+	private static Integer parseSignedInteger(String s, int i, int[] end) {
+		int n = s.length();
+		boolean negative = false;
+		if(i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+			negative = s.charAt(i) == '-';
+			i = skipWhitespace(s, i + 1);
+		}
+		int start = i;
+		i = skipDigits(s, i);
+		if(i == start)return null;
+		end[0] = i;
+		return Integer.parseInt((negative ? "-" : "") + s.substring(start, i));
+	}
+
+	private static int skipWhitespace(String s, int i) {
+		while(i < s.length() && isWhitespace(s.charAt(i)))i++;
+		return i;
+	}
+
+	private static int skipDigits(String s, int i) {
+		while(i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9')i++;
+		return i;
+	}
+
+	/**
+	 * The characters matched by \s in a regular expression.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
 	}
 
 	public static void parseList(String s, List<Integer> list) {
@@ -3,9 +3,20 @@ package Automata;
 import java.util.ArrayList;
 
 public class Partition {
-	static int[] M,W;
-	static int w = 0;
-	
+	/**
+	 * The marks and the list of touched sets, shared by the partitions of one minimization.
+	 * They belong to the minimization rather than to the class, so that minimizations in different threads can run at once.
+	 */
+	static class Marks {
+		int[] M,W;
+		int w = 0;
+		Marks(int n) {
+			M = new int[n];
+			W = new int[n];
+		}
+	}
+
+	Marks marks;
 	int z;
 	Integer[] E;
 	int []L,S,F,P;
@@ -23,6 +34,7 @@ public class Partition {
 	}
 
 	void mark( int e ){
+		int[] M = marks.M, W = marks.W;
 		int s = S[e];
 		int i = L[e];
 		int j = F[s]+M[s];
@@ -36,12 +48,13 @@ public class Partition {
 	    E[i] = E[j]; 
 	    L[E[i]] = i;
 	    E[j] = e; L[e] = j;
-	    if( M[s]++ == 0 ){ W[w++] = s; }
+	    if( M[s]++ == 0 ){ W[marks.w++] = s; }
 	}
 
 	void split(){
-		while( w > 0 ){
-			int s = W[--w], j = F[s]+M[s];
+		int[] M = marks.M, W = marks.W;
+		while( marks.w > 0 ){
+			int s = W[--marks.w], j = F[s]+M[s];
 		    if( j == P[s] ){M[s] = 0; continue;}
 		    if( M[s] <= (P[s]-j) ){
 		    	F[z] = F[s]; P[z] = F[s] = j; 
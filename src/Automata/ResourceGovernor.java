@@ -0,0 +1,225 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits on the resources of a command: the number of states of intermediate automata, the fraction of the heap in
+ * use, and the wall clock time. Prover.dispatch starts a budget for every command (begin) and ends it (end).
+ * The loops of crossProduct, subsetConstruction and minimize_valmari call check, which throws Abort when a limit
+ * is exceeded or the command was cancelled, e.g., by Ctrl-C. The abort unwinds the command like any other error,
+ * so the session, its libraries and its caches stay usable.<br>
+ * The limits are off (0) unless set with -Dwalnut.limit.states=..., -Dwalnut.limit.heap=... (a fraction of the maximum
+ * heap, e.g. 0.9) and -Dwalnut.limit.time=... (seconds).
+ */
+public class ResourceGovernor {
+	public static long MAX_STATES = Long.getLong("walnut.limit.states", 0);
+	public static double MAX_HEAP = Double.parseDouble(System.getProperty("walnut.limit.heap", "0"));
+	public static long MAX_SECONDS = Long.getLong("walnut.limit.time", 0);
+	/**
+	 * The heap is looked at once every this many calls of check.
+	 */
+	static int HEAP_CHECK_INTERVAL = 64;
+
+	/**
+	 * Thrown by check. It tells what was exceeded.
+	 */
+	public static class Abort extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public Abort(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * The budget of one command.
+	 */
+	public static class Budget {
+		long deadline;
+		volatile String cancelled;
+		int calls;
+		Thread thread;
+		boolean detached;
+	}
+
+	private static final ThreadLocal<Budget> budget = new ThreadLocal<Budget>();
+	private static final Set<Budget> running = ConcurrentHashMap.newKeySet();
+	private static volatile boolean interrupted;
+	/**
+	 * Threads whose commands interrupt does not cancel, and the threads cancel was called on, with the reason.
+	 */
+	private static final Set<Thread> detachedThreads = ConcurrentHashMap.newKeySet();
+	private static final Map<Thread,String> cancelledThreads = new ConcurrentHashMap<Thread,String>();
+	private static final List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+
+	static {
+		for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP)heap.add(pool);
+		}
+	}
+
+	/**
+	 * Starts the budget of a command on the current thread.
+	 * @return the budget it replaces, to be passed to end.
+	 * @throws Abort if the session was interrupted and the interruption was not cleared yet, or if the current
+	 * thread was cancelled.
+	 */
+	public static Budget begin() throws Abort {
+		Thread t = Thread.currentThread();
+		boolean detached = detachedThreads.contains(t);
+		if(interrupted && !detached)throw new Abort("interrupted");
+		Budget previous = budget.get();
+		Budget b = new Budget();
+		b.deadline = MAX_SECONDS > 0 ? System.nanoTime() + MAX_SECONDS * 1000000000L : 0;
+		b.thread = t;
+		b.detached = detached;
+		budget.set(b);
+		running.add(b);
+		// after running.add, so that a concurrent cancel either is seen here or sees b
+		String reason = cancelledThreads.get(t);
+		if(reason != null) {
+			end(previous);
+			throw new Abort(reason);
+		}
+		return previous;
+	}
+
+	public static void end(Budget previous) {
+		Budget b = budget.get();
+		if(b != null)running.remove(b);
+		budget.set(previous);
+		if(previous != null)running.add(previous);
+	}
+
+	/**
+	 * @return the budget of the current thread, or null.
+	 */
+	public static Budget current() {
+		return budget.get();
+	}
+
+	/**
+	 * Makes b the budget of the current thread too, e.g., of a thread that computes part of a command on behalf
+	 * of the thread that began b. Unlike begin, it starts no new budget.
+	 * @return the budget it replaces, to be passed to adopt when done.
+	 */
+	public static Budget adopt(Budget b) {
+		Budget previous = budget.get();
+		budget.set(b);
+		return previous;
+	}
+
+	/**
+	 * Throws Abort if the current command has to stop.
+	 * @param states the number of states of the automaton being built.
+	 * @throws Abort
+	 */
+	public static void check(int states) throws Abort {
+		Budget b = budget.get();
+		if(b == null)return;
+		if(b.cancelled != null)throw new Abort(b.cancelled);
+		if(MAX_STATES > 0 && states > MAX_STATES) {
+			throw new Abort("aborted: an intermediate automaton has more than " + MAX_STATES +
+				" states (walnut.limit.states)");
+		}
+		if(b.deadline != 0 && System.nanoTime() - b.deadline > 0) {
+			throw new Abort("aborted: the command took more than " + MAX_SECONDS + "s (walnut.limit.time)");
+		}
+		if(MAX_HEAP > 0 && ++b.calls % HEAP_CHECK_INTERVAL == 0 && heapExceeded()) {
+			throw new Abort("aborted: more than " + Math.round(MAX_HEAP * 100) + "% of the heap is in use (walnut.limit.heap)");
+		}
+	}
+
+	/**
+	 * The used heap counts garbage too, so when it is above the limit we look at what was left by the last
+	 * garbage collection of each pool.
+	 */
+	private static boolean heapExceeded() {
+		Runtime runtime = Runtime.getRuntime();
+		double limit = MAX_HEAP * runtime.maxMemory();
+		if(runtime.totalMemory() - runtime.freeMemory() <= limit)return false;
+		long live = 0;
+		for(MemoryPoolMXBean pool:heap) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			live += usage != null ? usage.getUsed() : pool.getUsage().getUsed();
+		}
+		return live > limit;
+	}
+
+	/**
+	 * Cancels every running command of a thread that is not detached, e.g., on Ctrl-C. Commands that have not
+	 * started yet are refused until clearInterrupted.
+	 * @return false if no such command was running.
+	 */
+	public static boolean interrupt() {
+		boolean any = false;
+		interrupted = true;
+		for(Budget b:running) {
+			if(b.detached)continue;
+			b.cancelled = "interrupted";
+			any = true;
+		}
+		return any;
+	}
+
+	/**
+	 * From now on interrupt does not cancel the commands of the current thread, e.g., of a background job of the
+	 * console: only cancel does.
+	 */
+	public static void detach() {
+		detachedThreads.add(Thread.currentThread());
+	}
+
+	/**
+	 * Cancels the running commands of thread t, and refuses the commands it begins later, until t calls release.
+	 * @param reason the message of the Abort.
+	 */
+	public static void cancel(Thread t,String reason) {
+		cancelledThreads.put(t, reason);
+		for(Budget b:running) {
+			if(b.thread == t)b.cancelled = reason;
+		}
+	}
+
+	/**
+	 * Forgets what detach and cancel said about the current thread.
+	 */
+	public static void release() {
+		detachedThreads.remove(Thread.currentThread());
+		cancelledThreads.remove(Thread.currentThread());
+	}
+
+	public static boolean interrupted() {
+		return interrupted;
+	}
+
+	public static void clearInterrupted() {
+		interrupted = false;
+	}
+}
@@ -0,0 +1,115 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.util.Arrays;
+
+/**
+ * The strongly connected components of a directed graph on the vertices 0,...,n-1, computed with Tarjan's algorithm.
+ * The recursion is replaced by an explicit stack, so that graphs with millions of vertices don't overflow the call stack.
+ * Components are numbered in the order Tarjan's algorithm finds them, which is a reverse topological order:
+ * an edge from component a to component b, with a != b, implies a > b.
+ */
+public class StronglyConnectedComponents {
+	public interface Graph {
+		/**
+		 * @param v
+		 * @return the successors of v. Repeated successors are allowed.
+		 */
+		int[] successors(int v);
+	}
+
+	/**
+	 * component[v] is the component of v, or -1 if v is not reachable from the vertices we started from.
+	 */
+	public int[] component;
+	public int count;
+
+	/**
+	 * Computes the components of the whole graph.
+	 */
+	public StronglyConnectedComponents(int n,Graph g) {
+		this(n, g, null);
+	}
+
+	/**
+	 * Computes the components of the vertices reachable from roots, or of the whole graph if roots is null.
+	 */
+	public StronglyConnectedComponents(int n,Graph g,int[] roots) {
+		component = new int[n];
+		int[] index = new int[n];
+		int[] low = new int[n];
+		Arrays.fill(component, -1);
+		Arrays.fill(index, -1);
+		int[] stack = new int[n];
+		int stack_size = 0;
+		boolean[] on_stack = new boolean[n];
+		// the call stack: a vertex, its successors and the position of the next successor to visit.
+		int[] call_vertex = new int[n];
+		int[][] call_successors = new int[n][];
+		int[] call_position = new int[n];
+		int next_index = 0;
+		int number_of_roots = roots == null ? n : roots.length;
+		for(int r = 0; r < number_of_roots; r++) {
+			int root = roots == null ? r : roots[r];
+			if(index[root] != -1)continue;
+			int depth = 0;
+			call_vertex[0] = root;
+			call_successors[0] = g.successors(root);
+			call_position[0] = 0;
+			index[root] = low[root] = next_index++;
+			stack[stack_size++] = root;
+			on_stack[root] = true;
+			while(depth >= 0) {
+				int v = call_vertex[depth];
+				int[] successors = call_successors[depth];
+				if(call_position[depth] < successors.length) {
+					int w = successors[call_position[depth]++];
+					if(index[w] == -1) {
+						index[w] = low[w] = next_index++;
+						stack[stack_size++] = w;
+						on_stack[w] = true;
+						depth++;
+						call_vertex[depth] = w;
+						call_successors[depth] = g.successors(w);
+						call_position[depth] = 0;
+					}
+					else if(on_stack[w] && index[w] < low[v]) {
+						low[v] = index[w];
+					}
+					continue;
+				}
+				if(low[v] == index[v]) {
+					int w;
+					do {
+						w = stack[--stack_size];
+						on_stack[w] = false;
+						component[w] = count;
+					} while(w != v);
+					count++;
+				}
+				call_successors[depth] = null;
+				depth--;
+				if(depth >= 0 && low[v] < low[call_vertex[depth]]) {
+					low[call_vertex[depth]] = low[v];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Automata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Lists the words accepted by an automaton in length-lexicographic order, as the test command prints them:
+ * shorter words first, and words of the same length in the order of the encoded inputs of their letters.<br>
+ * For every length l, we keep the number of words of length l that are accepted from each state (saturated at
+ * Long.MAX_VALUE). The layers are computed as they are needed, one from the previous. A depth first search that only
+ * follows transitions to states with accepted suffixes of the remaining length never backtracks from a dead end,
+ * so listing k words of length l takes O(k*l) steps after the layers are known.
+ */
+public class WordEnumerator {
+	Automaton M;
+	/**
+	 * inputs[q][i] is the encoded input of the i-th transition of q, in increasing order, and destination[q][i] is where it goes.
+	 */
+	int[][] inputs;
+	int[][] destination;
+	/**
+	 * layers.get(l)[q] is the number of words of length l accepted from q.
+	 */
+	List<long[]> layers;
+	HashMap<Integer,String> letters;
+
+	/**
+	 * @param M an automaton. If it is not deterministic, we list the words of a deterministic copy of it,
+	 * so every accepted word is listed once.
+	 * @throws Exception
+	 */
+	public WordEnumerator(Automaton M) throws Exception {
+		if(!deterministic(M)) {
+			M = M.clone();
+			M.minimize(false, null, null);
+		}
+		this.M = M;
+		inputs = new int[M.Q][];
+		destination = new int[M.Q][];
+		for(int q = 0; q < M.Q; q++) {
+			inputs[q] = new int[M.d.get(q).size()];
+			destination[q] = new int[M.d.get(q).size()];
+			int i = 0;
+			for(int x:M.d.get(q).keySet()) {
+				inputs[q][i] = x;
+				destination[q][i] = M.d.get(q).get(x).get(0);
+				i++;
+			}
+		}
+		layers = new ArrayList<long[]>();
+		long[] layer = new long[M.Q];
+		for(int q = 0; q < M.Q; q++) {
+			layer[q] = M.O.get(q) != 0 ? 1 : 0;
+		}
+		layers.add(layer);
+		letters = new HashMap<Integer,String>();
+	}
+
+	/**
+	 * @param length
+	 * @return the number of accepted words of the given length, saturated at Long.MAX_VALUE.
+	 */
+	public long count(int length) throws Exception {
+		return layer(length)[M.q0];
+	}
+
+	/**
+	 * Passes the accepted words of the given length to sink, in lexicographic order, until limit of them are passed.
+	 * @param length
+	 * @param limit
+	 * @param sink
+	 * @return the number of words passed to sink.
+	 */
+	public long enumerate(int length,long limit,Consumer<String> sink) throws Exception {
+		if(limit <= 0 || count(length) == 0)return 0;
+		long found = 0;
+		// the path is a stack: state[k] is the state after k letters, and next[k] the index of the next transition of state[k] to try.
+		int[] state = new int[length+1];
+		int[] next = new int[length+1];
+		int[] end = new int[length+1];
+		StringBuilder word = new StringBuilder();
+		state[0] = M.q0;
+		int k = 0;
+		while(k >= 0) {
+			ResourceGovernor.check(0);
+			if(k == length) {
+				sink.accept(word.toString());
+				if(++found >= limit)return found;
+				k--;
+				if(k >= 0)word.setLength(end[k]);
+				continue;
+			}
+			int p = state[k];
+			long[] remaining = layer(length - k - 1);
+			int i = next[k];
+			while(i < inputs[p].length && remaining[destination[p][i]] == 0)i++;
+			if(i == inputs[p].length) {
+				next[k] = 0;
+				k--;
+				if(k >= 0)word.setLength(end[k]);
+				continue;
+			}
+			next[k] = i + 1;
+			end[k] = word.length();
+			word.append(letter(inputs[p][i]));
+			state[k+1] = destination[p][i];
+			next[k+1] = 0;
+			k++;
+		}
+		return found;
+	}
+
+	private static boolean deterministic(Automaton M) {
+		for(int q = 0; q < M.Q; q++) {
+			for(List<Integer> dest:M.d.get(q).values()) {
+				if(dest.size() != 1)return false;
+			}
+		}
+		return true;
+	}
+
+	private long[] layer(int length) throws Exception {
+		while(layers.size() <= length) {
+			ResourceGovernor.check(0);
+			long[] previous = layers.get(layers.size() - 1);
+			long[] layer = new long[M.Q];
+			for(int q = 0; q < M.Q; q++) {
+				long n = 0;
+				for(int r:destination[q]) {
+					n += previous[r];
+					if(n < 0) {
+						n = Long.MAX_VALUE;
+						break;
+					}
+				}
+				layer[q] = n;
+			}
+			layers.add(layer);
+		}
+		return layers.get(length);
+	}
+
+	/**
+	 * @param x an encoded input
+	 * @return the letter x as the test command prints it: the tuple of its values, without the brackets when
+	 * the automaton has a single input and the value is a digit.
+	 */
+	private String letter(int x) {
+		String s = letters.get(x);
+		if(s == null) {
+			List<Integer> decoding = M.decode(x);
+			s = decoding.toString();
+			if(decoding.size() == 1 && decoding.get(0) >= 0 && decoding.get(0) <= 9) {
+				s = s.substring(1, s.length()-1);
+			}
+			letters.put(x, s);
+		}
+		return s;
+	}
+}
@@ -0,0 +1,294 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the commands of a command file on a pool of threads, for the batch command.<br>
+ * Commands only talk to each other through the libraries, by the name of what they write. So every word of a
+ * command (and of the macros it uses, transitively) counts as a name it reads, and the producers
+ * (eval, def, macro, reg, combine, morphism, promote, image, split, rsplit and join) write the name that follows them
+ * (image x h y; writes the automata y_a too, see family).
+ * A command waits for the last earlier command that writes a name it reads or writes, and a producer also waits for
+ * the earlier commands that read the name it writes. load, ost, cls, clear and batch are barriers:
+ * they wait for everything before them, and everything after them waits for them.<br>
+ * What a command prints is captured and printed when all the commands before it are printed, exactly as a
+ * sequential run (Prover.readBuffer) prints it. So both the output and the libraries end up the same.<br>
+ * The number of threads can be set with -Dwalnut.batch.threads=... (the number of processors by default).
+ */
+public class Batch {
+	public static int THREADS = Integer.getInteger("walnut.batch.threads", Runtime.getRuntime().availableProcessors());
+	/**
+	 * Stack size of the worker threads. The main thread of the JVM usually gets a larger stack than other threads,
+	 * and the recursive parts of Walnut need it.
+	 */
+	public static long STACK_SIZE = 64L << 20;
+
+	static Set<String> PRODUCERS = new HashSet<String>(Arrays.asList(
+		"eval","def","macro","reg","combine","morphism","promote","image","split","rsplit","join"));
+	static Set<String> READERS = new HashSet<String>(Arrays.asList("inf","test","count"));
+	static Pattern PATTERN_FOR_A_NAME = Pattern.compile("\\w+");
+	static Pattern PATTERN_FOR_A_MEMBER = Pattern.compile("(\\w+)_\\d+");
+
+	List<String> commands;
+	List<Set<Integer>> dependencies;
+	/**
+	 * Definitions of the macros, by name: those of earlier macro commands, or else the files in the Macro Library.
+	 */
+	Map<String,String> macros;
+
+	public Batch(List<String> commands) {
+		this.commands = commands;
+		this.macros = new HashMap<String,String>();
+		dependencies = new ArrayList<Set<Integer>>();
+		Map<String,Integer> lastWriter = new HashMap<String,Integer>();
+		Map<String,List<Integer>> readers = new HashMap<String,List<Integer>>();
+		int barrier = -1;
+		for(int i = 0; i < commands.size(); i++) {
+			Set<Integer> d = new HashSet<Integer>();
+			if(barrier != -1)d.add(barrier);
+			Access a = access(commands.get(i));
+			if(!a.barrier) {
+				for(String name:a.read) {
+					if(lastWriter.containsKey(name))d.add(lastWriter.get(name));
+					readers.computeIfAbsent(name, k -> new ArrayList<Integer>()).add(i);
+				}
+				for(String name:a.written) {
+					if(lastWriter.containsKey(name))d.add(lastWriter.get(name));
+					for(int j:readers.getOrDefault(name, new ArrayList<Integer>())) {
+						if(j != i)d.add(j);
+					}
+					readers.remove(name);
+					lastWriter.put(name, i);
+				}
+			} else {
+				for(int j = barrier + 1; j < i; j++) {
+					d.add(j);
+				}
+				barrier = i;
+				lastWriter.clear();
+				readers.clear();
+			}
+			dependencies.add(d);
+		}
+	}
+
+	/**
+	 * The names a command reads and writes, see the class comment.
+	 */
+	static class Access {
+		Set<String> read = new HashSet<String>();
+		Set<String> written = new HashSet<String>();
+		/**
+		 * True for the commands that wait for everything before them, and that everything after them waits for.
+		 */
+		boolean barrier;
+
+		/**
+		 * @return true if a command that accesses a has to wait for a command that accesses this, or the other way around.
+		 */
+		boolean conflicts(Access a) {
+			if(barrier || a.barrier)return true;
+			for(String name:written) {
+				if(a.read.contains(name) || a.written.contains(name))return true;
+			}
+			for(String name:a.written) {
+				if(read.contains(name))return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Also remembers the definition of a macro command, for the commands after it, and forgets the definitions
+	 * when command is a barrier.
+	 * @param command
+	 * @return the names command reads and writes.
+	 */
+	Access access(String command) {
+		Access a = new Access();
+		List<String> words = names(command);
+		String commandName = words.isEmpty() ? "" : words.get(0);
+		if(words.isEmpty() && command.matches(Prover.REGEXP_FOR_EMPTY_COMMAND)) {
+			// nothing to run
+		} else if(PRODUCERS.contains(commandName) || READERS.contains(commandName)) {
+			if(PRODUCERS.contains(commandName) && words.size() > 1)a.written.add(words.get(1));
+			if(commandName.equals("image") && words.size() > 3)a.written.add(words.get(3) + "_#");
+			a.read = reads(words.subList(1, words.size()), new HashSet<String>());
+			for(String name:new ArrayList<String>(a.read)) {
+				if(family(name) != null)a.read.add(family(name));
+			}
+			for(String name:new ArrayList<String>(a.written)) {
+				if(family(name) != null)a.written.add(family(name));
+			}
+			if(commandName.equals("macro") && words.size() > 1) {
+				macros.put(words.get(1), command);
+			}
+		} else {
+			a.barrier = true;
+			// a barrier (load in particular) can change the macros
+			macros.clear();
+		}
+		return a;
+	}
+
+	/**
+	 * Runs the commands, and prints what they print in order.
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		if(THREADS <= 1) {
+			for(String command:commands) {
+				execute(command);
+			}
+			return;
+		}
+		AtomicInteger count = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS, r -> {
+			Thread t = new Thread(null, r, "walnut-batch-" + count.incrementAndGet(), STACK_SIZE);
+			t.setDaemon(true);
+			return t;
+		});
+		EvaluationContext context = EvaluationContext.current();
+		OutputCapture.install();
+		try {
+			List<CompletableFuture<OutputCapture>> tasks = new ArrayList<CompletableFuture<OutputCapture>>();
+			for(int i = 0; i < commands.size(); i++) {
+				String command = commands.get(i);
+				CompletableFuture<?>[] before = new CompletableFuture<?>[dependencies.get(i).size()];
+				int k = 0;
+				for(int j:dependencies.get(i)) {
+					before[k++] = tasks.get(j);
+				}
+				tasks.add(CompletableFuture.allOf(before).thenApplyAsync(v -> {
+					OutputCapture c = new OutputCapture();
+					c.start();
+					EvaluationContext previous = EvaluationContext.enter(context);
+					try {
+						execute(command);
+					} finally {
+						EvaluationContext.exit(previous);
+						c.stop();
+					}
+					return c;
+				}, pool));
+			}
+			for(CompletableFuture<OutputCapture> task:tasks) {
+				OutputCapture c;
+				try {
+					c = task.join();
+				} catch(CompletionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof Error)throw (Error)cause;
+					throw new Exception(cause.getMessage());
+				}
+				// this thread may be capturing too, e.g., when the batch command came from a Daemon client.
+				c.replay(System.out, System.err);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs command, and prints what Prover.readBuffer prints for it.
+	 * @param command
+	 */
+	static void execute(String command) {
+		System.out.println(command);
+		try {
+			Prover.dispatch(command);
+		} catch(Exception e) {
+			System.out.flush();
+			System.err.println(e.getMessage() + UtilityMethods.newLine() + "\t: " + command);
+			System.err.flush();
+		}
+	}
+
+	/**
+	 * @param words
+	 * @param visited macros already expanded
+	 * @return words, together with the names read by the macros among them.
+	 */
+	private Set<String> reads(List<String> words,Set<String> visited) {
+		Set<String> read = new HashSet<String>(words);
+		for(String word:words) {
+			if(!visited.add(word))continue;
+			String definition = macro(word);
+			if(definition != null)read.addAll(reads(names(definition), visited));
+		}
+		return read;
+	}
+
+	private String macro(String name) {
+		if(!macros.containsKey(name)) {
+			String definition = null;
+			File file = new File(UtilityMethods.get_address_for_macro_library() + name + ".txt");
+			if(file.isFile()) {
+				try {
+					definition = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+				} catch(IOException e) {
+					// the command will complain about it itself
+				}
+			}
+			macros.put(name, definition);
+		}
+		return macros.get(name);
+	}
+
+	/**
+	 * image x h y; also defines y_a for every letter a of h. These automata are named after the family y_#,
+	 * which no command can name, and every name y_a (a a number) reads or writes the family as well.
+	 * @param name
+	 * @return the family y_# if name is of the form y_a, and null otherwise.
+	 */
+	private static String family(String name) {
+		if(name.endsWith("_#"))return null;
+		Matcher m = PATTERN_FOR_A_MEMBER.matcher(name);
+		if(m.matches())return m.group(1) + "_#";
+		return null;
+	}
+
+	private static List<String> names(String s) {
+		List<String> words = new ArrayList<String>();
+		Matcher m = PATTERN_FOR_A_NAME.matcher(s);
+		while(m.find()) {
+			words.add(m.group());
+		}
+		return words;
+	}
+}
@@ -0,0 +1,133 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A drop in replacement for Prover that sends the commands to a Daemon: java Main.Client [file] reads the
+ * commands in Command Files/file and then the console, like Prover does, and prints what the daemon answers.
+ * java Main.Client --stop stops the daemon.<br>
+ * The daemon is at walnut.daemon.host (localhost by default) and walnut.daemon.port.
+ * With -Dwalnut.client.times=true the time each command took is printed to System.err.
+ */
+public class Client {
+	static String HOST = System.getProperty("walnut.daemon.host", "localhost");
+	static boolean PRINT_TIMES = "true".equals(System.getProperty("walnut.client.times"));
+
+	BufferedReader fromDaemon;
+	Writer toDaemon;
+
+	public Client(Socket socket) throws IOException {
+		fromDaemon = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		toDaemon = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+	}
+
+	public static void main(String[] args) throws Exception {
+		UtilityMethods.setPaths();
+		Socket socket;
+		try {
+			socket = new Socket(HOST, Daemon.PORT);
+		} catch(IOException e) {
+			System.err.println("Could not connect to the Walnut daemon at " + HOST + ":" + Daemon.PORT + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		try (Socket s = socket) {
+			new Client(s).run(args);
+		} catch(IOException e) {
+			System.out.flush();
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public void run(String[] args) throws IOException {
+		if(args.length >= 1 && args[0].equals("--stop")) {
+			send("#stop");
+			return;
+		}
+		if(args.length >= 1) {
+			try (BufferedReader in = new BufferedReader(
+					new InputStreamReader(
+						new FileInputStream(
+							UtilityMethods.get_address_for_command_files() + args[0]),
+						"utf-8"))) {
+				if(!readBuffer(in, false))return;
+			} catch(IOException e) {
+				System.out.flush();
+				System.err.println(e.getMessage());
+			}
+		}
+		readBuffer(new BufferedReader(new InputStreamReader(System.in)), true);
+	}
+
+	/**
+	 * Prover.readBuffer, with the commands run by the daemon.
+	 * @return false if we hit exit.
+	 * @throws IOException if we lose the daemon.
+	 */
+	public boolean readBuffer(BufferedReader in,boolean console) throws IOException {
+		while(true) {
+			String s = Prover.nextCommand(in, console);
+			if(s == null) {
+				return true;
+			}
+			if(!console) {
+				System.out.println(s);
+			}
+			if(!send(s))return false;
+		}
+	}
+
+	/**
+	 * Sends command to the daemon and prints its output.
+	 * @return false if command is exit.
+	 * @throws IOException
+	 */
+	public boolean send(String command) throws IOException {
+		toDaemon.write(command + "\n");
+		toDaemon.flush();
+		String line;
+		while((line = fromDaemon.readLine()) != null) {
+			if(line.isEmpty())continue;
+			String text = line.substring(1);
+			switch(line.charAt(0)) {
+				case '1': System.out.println(text); break;
+				case '2': System.out.flush(); System.err.println(text); System.err.flush(); break;
+				case '3': System.out.print(text); System.out.flush(); break;
+				case '4': System.out.flush(); System.err.print(text); System.err.flush(); break;
+				case '0':
+					String[] status = text.split(" ");
+					if(PRINT_TIMES && status.length > 1)System.err.println("[" + status[1] + "ms]");
+					return !status[0].equals("exit");
+				default: break;
+			}
+		}
+		throw new IOException("The Walnut daemon closed the connection.");
+	}
+}
@@ -21,10 +21,27 @@ package Main;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import Automata.Automaton;
+import Automata.FlightEvents;
+import Automata.LinearRepresentation;
+import Automata.Log;
+import Automata.Metrics;
+import Automata.ResourceGovernor;
+import Automata.NumberSystem;
+import Token.LogicalOperator;
 import Token.Token;
 
 
@@ -33,53 +50,155 @@ public class Computer {
 	String predicate_string;
 	Expression result;
 	Automaton D;
-	StringBuffer log;
-	StringBuffer log_details;
-	String mpl;
+	Log log;
+	Log log_details;
 	boolean printSteps;
 	boolean printDetails;
+	Profile profile;
+	/**
+	 * The address, without extension, the logs were streamed to while computing, or null.
+	 */
+	String streamedTo;
 	public Computer(String predicate, boolean printSteps, boolean printDetails) throws Exception {
-		this.log = new StringBuffer();
-		this.log_details = new StringBuffer();
-		mpl = "";
+		this(predicate, printSteps, printDetails, null);
+	}
+
+	/**
+	 * @param profile if not null, records the profile of the evaluation.
+	 */
+	public Computer(String predicate, boolean printSteps, boolean printDetails, Profile profile) throws Exception {
+		this(predicate, printSteps, printDetails, profile, null);
+	}
+
+	/**
+	 * @param address if not null, the _log.txt and _detailed_log.txt files at this address (without extension)
+	 * are written while computing, instead of by writeResults.
+	 */
+	public Computer(String predicate, boolean printSteps, boolean printDetails, Profile profile, String address) throws Exception {
+		this.log = new Log(address != null && OutputPolicy.WRITE_LOG ? address + "_log.txt" : null, true);
+		this.log_details = new Log(address != null ? address + "_detailed_log.txt" : null, printDetails);
+		this.streamedTo = address;
 		this.predicate_string = predicate;
 		predicate_object = new Predicate(predicate);
 		this.printSteps = printSteps;
 		this.printDetails = printDetails;
-		compute();
+		this.profile = profile;
+		if(profile != null)Metrics.addThreadSink(profile);
+		try {
+			compute();
+		} finally {
+			if(profile != null)Metrics.removeThreadSink(profile);
+			log.close();
+			log_details.close();
+		}
 	}
 
+	/**
+	 * Whether the quantifiers E and A keep the automaton they quantify, so that witness() can tell why the
+	 * predicate holds or fails. It can be turned on with -Dwalnut.witness=true, and costs a copy of the automaton
+	 * quantified by the outermost quantifier.
+	 */
+	public static boolean KEEP_WITNESSES = Boolean.getBoolean("walnut.witness");
+	/**
+	 * The number of threads that evaluate independent subformulas at once, e.g., the two sides of an &.
+	 * It can be set with -Dwalnut.parallel.threads=... (the number of processors by default). 1 turns it off.
+	 */
+	public static int THREADS = Integer.getInteger("walnut.parallel.threads", Runtime.getRuntime().availableProcessors());
+	private static ThreadPoolExecutor pool;
+
 	public Automaton getTheFinalResult(){
 		return result.M;
 	}
 
+	/**
+	 * If the outermost operator of the predicate is E (or A), returns a shortest assignment of the inputs of the
+	 * quantified automaton, i.e., the quantified variables together with the free variables, that makes it true (or false),
+	 * e.g., "witness: i=3, n=5". Values in base n are decoded, other values are written as the representation read,
+	 * e.g., "counterexample: x=1010 in msd_fib".
+	 * @return the assignment, or null if it does not exist or the witness was not kept.
+	 */
+	public String witness() {
+		if(result.witness == null)return null;
+		List<Integer> word = result.witness.shortestAcceptedWord();
+		if(word == null)return null;
+		String s = result.counterexample ? "counterexample:" : "witness:";
+		if(result.witness.TRUE_FALSE_AUTOMATON)return s + " any values";
+		List<List<Integer>> inputs = result.witness.decodeWord(word);
+		for(int i = 0; i < inputs.size(); i++) {
+			NumberSystem ns = result.witness.NS.get(i);
+			BigInteger value = ns == null ? null : ns.value(inputs.get(i));
+			String label = result.witness.label != null && i < result.witness.label.size() ? result.witness.label.get(i) : Integer.toString(i);
+			s += (i == 0 ? " " : ", ") + label + "=";
+			if(value != null) {
+				s += value;
+			} else {
+				StringBuilder digits = new StringBuilder();
+				for(int digit:inputs.get(i))digits.append(digit >= 0 && digit <= 9 ? Integer.toString(digit) : "[" + digit + "]");
+				s += digits + (ns == null ? "" : " in " + ns);
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Writes the linear representation of the result with respect to free_variables in the formats
+	 * listed in OutputPolicy.MATRIX_FORMATS.
+	 * @param address the address of the files, without extension.
+	 */
 	public void writeMatrices(String address, List<String> free_variables) throws Exception{
 		try {
-			mpl = result.M.write_matrices(address, free_variables);
+			if(result.M.TRUE_FALSE_AUTOMATON) {
+				throw new Exception("incidence matrices cannot be calculated, because the automaton does not have a free variable.");
+			}
+			result.M.canonize();
+			LinearRepresentation L = new LinearRepresentation(result.M, free_variables);
+			if(OutputPolicy.MATRIX_FORMATS.contains("maple"))L.writeMaple(address + ".mpl", false);
+			if(OutputPolicy.MATRIX_FORMATS.contains("sparse"))L.writeMaple(address + "_sparse.mpl", true);
+			if(OutputPolicy.MATRIX_FORMATS.contains("mtx"))L.writeMatrixMarket(address);
+			if(OutputPolicy.MATRIX_FORMATS.contains("binary"))L.writeBinary(address + ".lrb");
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new Exception(e.getMessage());
 		}
 	}
 	public void writeLog(String address) throws Exception {
-		PrintWriter out;
-		try {
-			out = new PrintWriter(address, "UTF-8");
-			out.write(log.toString());
-			out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			throw new Exception(e.getMessage());
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-			throw new Exception(e.getMessage());
-		}
+		writeFile(address, log.toString());
 	}
 	public void writeDetailedLog(String address) throws Exception{
+		writeFile(address, log_details.toString());
+	}
+	/**
+	 * Writes the .txt, .gv, _log.txt and, if printDetails, _detailed_log.txt files of this computation
+	 * as OutputPolicy says. The result is canonized right away, as write would do, and the files are
+	 * written from a copy of it, so that the result can be used while they are being written.
+	 * @param address the address of the files, without extension.
+	 */
+	public void writeResults(String address) {
+		result.M.canonize();
+		Automaton M = result.M.clone();
+		boolean streamed = address.equals(streamedTo);
+		String log = streamed ? null : this.log.toString();
+		String log_details = printDetails && !streamed ? this.log_details.toString() : null;
+		OutputPolicy.submit(() -> {
+			if(OutputPolicy.WRITE_TXT) {
+				M.write(address + ".txt");
+			}
+			if(OutputPolicy.draw(M.Q)) {
+				M.draw(address + ".gv", predicate_string, false);
+			}
+			if(OutputPolicy.WRITE_LOG && log != null) {
+				writeFile(address + "_log.txt", log);
+			}
+			if(log_details != null) {
+				writeFile(address + "_detailed_log.txt", log_details);
+			}
+		});
+	}
+	private static void writeFile(String address, String content) throws Exception {
 		PrintWriter out;
 		try {
 			out = new PrintWriter(address, "UTF-8");
-			out.write(log_details.toString());
+			out.write(content);
 			out.close();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -103,12 +222,20 @@ public class Computer {
 		List<Token> postOrder = predicate_object.get_postOrder();
 		String prefix = "";
 		long timeBeginning = System.currentTimeMillis();
-		String step,preStep;
-		for(Token t:postOrder) {
-			try{
+		FlightEvents.reset();
+		FlightEvents.Predicate predicateEvent = new FlightEvents.Predicate();
+		predicateEvent.begin();
+		String step;
+		if(KEEP_WITNESSES && !postOrder.isEmpty() && postOrder.get(postOrder.size()-1) instanceof LogicalOperator) {
+			((LogicalOperator)postOrder.get(postOrder.size()-1)).keepWitness = true;
+		}
+		List<Node> nodes = THREADS > 1 && profile == null && !printSteps && !printDetails ? tree(postOrder) : null;
+		if(nodes != null) {
+			expression_Stack.push(computeInParallel(nodes));
+		} else {
+			for(Token t:postOrder) {
 				long timeBefore = System.currentTimeMillis();
-				String operands = "";
-				t.act(expression_Stack, printDetails, prefix, log_details);
+				act(t, expression_Stack, prefix);
 				long timeAfter = System.currentTimeMillis();
 				if(t.isOperator() && expression_Stack.peek().is(Type.automaton)) {
 					step = prefix + expression_Stack.peek() + ":" +
@@ -121,14 +248,8 @@ public class Computer {
 
 					prefix += " ";
 				}
-			} catch(Exception e) {
-				e.printStackTrace();
-				String message = e.getMessage();
-				message += UtilityMethods.newLine() + "\t: char at " + t.getPositionInPredicate();
-				throw new Exception(message);
 			}
 		}
-
 		long timeEnd = System.currentTimeMillis();
 		step = "Total computation time: " + (timeEnd - timeBeginning) + "ms.";
 		log.append(step);
@@ -160,6 +281,210 @@ public class Computer {
 			if(!result.is(Type.automaton)){
 				throw new Exception("The final result of the evaluation is not of type " + Type.automaton);
 			}
+			if(predicateEvent.shouldCommit()) {
+				predicateEvent.predicate = predicate_string;
+				predicateEvent.outputStates = result.M.TRUE_FALSE_AUTOMATON ? 0 : result.M.Q;
+				predicateEvent.commit();
+			}
+		}
+	}
+	/**
+	 * Applies t to the top of S, which is one step of the evaluation of the postfix order.
+	 * The errors of t are reported together with its position in the predicate.
+	 */
+	private void act(Token t, Stack<Expression> S, String prefix) throws Exception {
+		// kept for the report of an abort, since act pops them
+		List<Expression> operands = new ArrayList<Expression>(S.subList(Math.max(0, S.size() - t.getArity()), S.size()));
+		try{
+			FlightEvents.Subformula event = new FlightEvents.Subformula();
+			event.begin();
+			if(profile != null)profile.before(t);
+			t.act(S, printDetails, prefix, log_details);
+			if(profile != null)profile.after(t, S);
+			if(t.isOperator() && event.shouldCommit()) {
+				Expression e = S.peek();
+				event.subformula = e.toString();
+				event.position = t.getPositionInPredicate();
+				event.outputStates = e.is(Type.automaton) ? (e.M.TRUE_FALSE_AUTOMATON ? 0 : e.M.Q) : -1;
+				event.commit();
+			}
+		} catch(ResourceGovernor.Abort e) {
+			String message = e.getMessage() + UtilityMethods.newLine() + "\t: while computing " + t;
+			for(int i = 0; i < operands.size(); i++) {
+				message += (i == 0 ? " of " : ", ") + operands.get(i);
+			}
+			message += UtilityMethods.newLine() + "\t: char at " + t.getPositionInPredicate();
+			throw new ResourceGovernor.Abort(message);
+		} catch(Exception e) {
+			e.printStackTrace();
+			String message = e.getMessage();
+			message += UtilityMethods.newLine() + "\t: char at " + t.getPositionInPredicate();
+			throw new Exception(message);
+		}
+	}
+
+	/**
+	 * A token of the predicate together with its operands, i.e., the subformulas it applies to.
+	 */
+	static class Node {
+		Token t;
+		/**
+		 * The position of t in the postfix order.
+		 */
+		int index;
+		Node[] operands;
+		/**
+		 * What t evaluates to. It is dropped as soon as the node it is an operand of is evaluated.
+		 */
+		Expression value;
+		/**
+		 * The line of the log about this node, without its prefix, or null.
+		 */
+		String step;
+	}
+
+	/**
+	 * @return the nodes of the tree of postOrder, in the same order, if some operator of the tree has two operands
+	 * that are operators themselves, i.e., two subformulas that can be evaluated at once. Otherwise null, and also
+	 * when postOrder is not a single formula: then the sequential evaluation reports the error.
+	 */
+	static List<Node> tree(List<Token> postOrder) {
+		List<Node> nodes = new ArrayList<Node>();
+		Stack<Node> S = new Stack<Node>();
+		boolean independent = false;
+		for(Token t:postOrder) {
+			if(S.size() < t.getArity())return null;
+			Node node = new Node();
+			node.t = t;
+			node.index = nodes.size();
+			node.operands = new Node[t.getArity()];
+			int operators = 0;
+			for(int i = node.operands.length - 1; i >= 0; i--) {
+				node.operands[i] = S.pop();
+				if(node.operands[i].operands.length > 0)operators++;
+			}
+			if(operators > 1)independent = true;
+			nodes.add(node);
+			S.push(node);
+		}
+		return independent && S.size() == 1 ? nodes : null;
+	}
+
+	/**
+	 * Evaluates every node on the threads of pool as soon as its operands are evaluated, so that independent
+	 * subformulas are evaluated at once. The result, the log and the error, if any, are those of the sequential
+	 * evaluation: when a token fails, the tokens after it in the postfix order are not evaluated, the ones before it are,
+	 * and the error of the first one that failed is thrown.
+	 * @return the value of the last node.
+	 */
+	private Expression computeInParallel(List<Node> nodes) throws Exception {
+		Inherited inherited = new Inherited();
+		AtomicInteger failed = new AtomicInteger(nodes.size());
+		Exception[] errors = new Exception[nodes.size()];
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[nodes.size()];
+		for(Node node:nodes) {
+			CompletableFuture<?>[] before = new CompletableFuture<?>[node.operands.length];
+			for(int i = 0; i < before.length; i++) {
+				before[i] = futures[node.operands[i].index];
+			}
+			futures[node.index] = CompletableFuture.allOf(before).thenRunAsync(
+				inherited.wrap(() -> evaluate(node, failed, errors)), pool());
+		}
+		try {
+			CompletableFuture.allOf(futures).join();
+		} catch(CompletionException e) {
+			// allOf completes when all of them do, so no token before the first failure is still running
+			if(failed.get() < nodes.size())throw errors[failed.get()];
+			Throwable cause = e.getCause();
+			if(cause instanceof Error)throw (Error)cause;
+			throw new Exception(cause.getMessage());
+		}
+		String prefix = "";
+		for(Node node:nodes) {
+			if(node.step == null)continue;
+			log.append(prefix + node.step + UtilityMethods.newLine());
+			log_details.append(prefix + node.step + UtilityMethods.newLine());
+			prefix += " ";
+		}
+		return nodes.get(nodes.size() - 1).value;
+	}
+
+	private void evaluate(Node node, AtomicInteger failed, Exception[] errors) {
+		if(node.index > failed.get())throw new CancellationException();
+		Stack<Expression> S = new Stack<Expression>();
+		for(Node operand:node.operands) {
+			S.push(operand.value);
+			operand.value = null;
+		}
+		try {
+			long timeBefore = System.currentTimeMillis();
+			act(node.t, S, "");
+			long timeAfter = System.currentTimeMillis();
+			node.value = S.pop();
+			if(node.t.isOperator() && node.value.is(Type.automaton)) {
+				node.step = node.value + ":" + node.value.M.Q + " states - " + (timeAfter-timeBefore) + "ms";
+			}
+		} catch(Exception e) {
+			errors[node.index] = e;
+			failed.accumulateAndGet(node.index, Math::min);
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * What the threads of pool take over from the thread that started the evaluation: its EvaluationContext,
+	 * the budget of its command, its Metrics thread sinks, its peak states and its OutputCapture.
+	 */
+	private static class Inherited {
+		EvaluationContext context = EvaluationContext.current();
+		OutputCapture output = OutputCapture.current.get();
+		ResourceGovernor.Budget budget = ResourceGovernor.current();
+		List<Metrics.Sink> sinks = Metrics.threadSinks();
+		int[] peakStates = Automaton.peakStatesHolder();
+
+		Runnable wrap(Runnable r) {
+			return () -> {
+				EvaluationContext previousContext = EvaluationContext.enter(context);
+				ResourceGovernor.Budget previousBudget = ResourceGovernor.adopt(budget);
+				List<Metrics.Sink> previousSinks = Metrics.adoptThreadSinks(sinks);
+				int[] previousPeakStates = Automaton.adoptPeakStates(peakStates);
+				OutputCapture previousOutput = OutputCapture.current.get();
+				OutputCapture.current.set(output);
+				try {
+					r.run();
+				} finally {
+					OutputCapture.current.set(previousOutput);
+					Automaton.adoptPeakStates(previousPeakStates);
+					Metrics.adoptThreadSinks(previousSinks);
+					ResourceGovernor.adopt(previousBudget);
+					EvaluationContext.exit(previousContext);
+				}
+			};
+		}
+	}
+
+	/**
+	 * The threads that evaluate subformulas. THREADS is read every time, so that setting it takes effect
+	 * on the next evaluation: the pool grows or shrinks to it.
+	 */
+	private static synchronized ExecutorService pool() {
+		if(pool == null) {
+			AtomicInteger count = new AtomicInteger();
+			pool = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+				Thread t = new Thread(null, r, "walnut-eval-" + count.incrementAndGet(), Batch.STACK_SIZE);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		else if(pool.getMaximumPoolSize() < THREADS) {
+			pool.setMaximumPoolSize(THREADS);
+			pool.setCorePoolSize(THREADS);
+		}
+		else if(pool.getMaximumPoolSize() > THREADS) {
+			// idle threads above the core size stop at once, busy ones when their node is evaluated
+			pool.setCorePoolSize(THREADS);
+			pool.setMaximumPoolSize(THREADS);
 		}
+		return pool;
 	}
 }
@@ -0,0 +1,212 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps one Walnut running, so that number systems, automata read from the libraries and the JIT stay warm
+ * between runs. Start it with java Main.Daemon [port] in the Walnut directory, and use Client instead of Prover.<br>
+ * It listens on the loopback interface only, on port walnut.daemon.port (DEFAULT_PORT by default). The protocol is
+ * line based and UTF-8 encoded. The client sends one command per line, exactly as Prover.nextCommand returns it.
+ * For every command the daemon answers with the lines the command prints, each prefixed with one character:<br>
+ * 1 a line printed to System.out, 2 a line printed to System.err,<br>
+ * 3 and 4 the same, for text that does not end with a line break,<br>
+ * and then one line 0status millis, where status is ok, error (the command failed) or exit (the client sent exit,
+ * and the daemon closes the connection).
+ * The line #stop stops the daemon.<br>
+ * Commands of all clients run one at a time, in the order they arrive, so they see the libraries as a sequential run
+ * would. The files a command writes are on disk when its answer is sent. The batch command still runs in parallel.<br>
+ * The number systems listed in walnut.daemon.numbersystems (msd_2 by default) are built when the daemon starts.
+ */
+public class Daemon {
+	public static int DEFAULT_PORT = 4651;
+	public static int PORT = Integer.getInteger("walnut.daemon.port", DEFAULT_PORT);
+	static String NUMBER_SYSTEMS = System.getProperty("walnut.daemon.numbersystems", "msd_2");
+
+	ServerSocket server;
+	/**
+	 * Held while a command runs.
+	 */
+	Object lock = new Object();
+
+	public Daemon(int port) throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	public static void main(String[] args) throws Exception {
+		UtilityMethods.setPaths();
+		Daemon daemon = new Daemon(args.length >= 1 ? Integer.parseInt(args[0]) : PORT);
+		for(String name:NUMBER_SYSTEMS.split("\\s*,\\s*")) {
+			if(name.isEmpty())continue;
+			try {
+				Predicate.get_number_system(name);
+			} catch(Exception e) {
+				System.err.println(e.getMessage());
+			}
+		}
+		System.out.println("Walnut daemon listening on " + daemon.server.getInetAddress().getHostAddress() + ":" + daemon.server.getLocalPort());
+		daemon.serve();
+		OutputPolicy.flush();
+	}
+
+	/**
+	 * Accepts clients until #stop, each on its own thread.
+	 */
+	public void serve() {
+		int n = 0;
+		while(!server.isClosed()) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch(IOException e) {
+				if(!server.isClosed())System.err.println(e.getMessage());
+				continue;
+			}
+			Thread t = new Thread(null, () -> session(socket), "walnut-daemon-" + (++n), Batch.STACK_SIZE);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	void session(Socket socket) {
+		try (Socket s = socket;
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			String command;
+			while((command = in.readLine()) != null) {
+				if(command.trim().equals("#stop")) {
+					out.write("0exit 0\n");
+					out.flush();
+					server.close();
+					return;
+				}
+				if(!run(command, out))return;
+			}
+		} catch(IOException e) {
+			// the client went away
+		}
+	}
+
+	/**
+	 * Runs command and sends its output and status to out.
+	 * @return false if command is exit.
+	 * @throws IOException
+	 */
+	boolean run(String command,Writer out) throws IOException {
+		Session capture = new Session(out);
+		String status = "ok";
+		long timeBefore = System.currentTimeMillis();
+		synchronized(lock) {
+			capture.start();
+			try {
+				if(!Prover.dispatch(command))status = "exit";
+			} catch(Exception e) {
+				status = "error";
+				System.out.flush();
+				System.err.println(e.getMessage() + UtilityMethods.newLine() + "\t: " + command);
+			} catch(StackOverflowError | OutOfMemoryError e) {
+				// the daemon outlives the command
+				status = "error";
+				System.out.flush();
+				System.err.println(e + UtilityMethods.newLine() + "\t: " + command);
+			} finally {
+				OutputPolicy.flush();
+				capture.stop();
+			}
+		}
+		long timeAfter = System.currentTimeMillis();
+		capture.close();
+		out.write("0" + status + " " + (timeAfter - timeBefore) + "\n");
+		out.flush();
+		return !status.equals("exit");
+	}
+
+	/**
+	 * Sends what a command prints to its client, line by line, as it is printed.
+	 */
+	static class Session extends OutputCapture {
+		Writer client;
+		ByteArrayOutputStream[] line = {new ByteArrayOutputStream(), new ByteArrayOutputStream()};
+		IOException failure;
+
+		Session(Writer client) {
+			this.client = client;
+		}
+
+		@Override
+		protected synchronized void write(boolean toErr,byte[] b,int off,int len) throws IOException {
+			ByteArrayOutputStream l = line[toErr ? 1 : 0];
+			for(int i = off; i < off + len; i++) {
+				if(b[i] == '\n') {
+					send(toErr ? '2' : '1', l);
+				} else {
+					l.write(b[i]);
+				}
+			}
+		}
+
+		@Override
+		protected synchronized void flush() throws IOException {
+			send();
+		}
+
+		/**
+		 * Sends the text that is not followed by a line break yet.
+		 * @throws IOException
+		 */
+		synchronized void close() throws IOException {
+			if(line[0].size() > 0)send('3', line[0]);
+			if(line[1].size() > 0)send('4', line[1]);
+			send();
+			if(failure != null)throw failure;
+		}
+
+		private void send(char prefix,ByteArrayOutputStream l) {
+			String s = new String(l.toByteArray(), Charset.defaultCharset());
+			l.reset();
+			if(s.endsWith("\r"))s = s.substring(0, s.length() - 1);
+			try {
+				client.write(prefix + s + "\n");
+			} catch(IOException e) {
+				// the command goes on, so that the libraries are left as they would be
+				failure = e;
+			}
+		}
+
+		private void send() {
+			try {
+				client.flush();
+			} catch(IOException e) {
+				failure = e;
+			}
+		}
+	}
+}
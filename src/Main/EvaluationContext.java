@@ -0,0 +1,130 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Automata.NumberSystem;
+
+/**
+ * What an evaluation depends on besides its predicate: the directory of the libraries, the number systems
+ * created so far, and the counter of the unique names of Token.getUniqueString.<br>
+ * Every thread evaluates in its current context: the default context, which Prover sets up with UtilityMethods.setPaths,
+ * unless the thread entered another one. An application that embeds Walnut can evaluate predicates over several
+ * Walnut directories at once, with one context per directory, and any number of threads can share a context.
+ * Threads started on behalf of an evaluation, e.g., by Batch, enter the context of the thread that started them.<br>
+ * Caches of automata read from the libraries (LibraryCache) are indexed by file, so they are shared by all contexts.
+ */
+public class EvaluationContext {
+	private static final EvaluationContext DEFAULT = new EvaluationContext("");
+	private static final ThreadLocal<EvaluationContext> current = new ThreadLocal<EvaluationContext>();
+	/**
+	 * Unique names are written with the characters from FIRST_UNIQUE_CHAR on, in base UNIQUE_CHARS.
+	 * None of them is ascii, and none of them is a surrogate.
+	 */
+	static final int FIRST_UNIQUE_CHAR = 1000, UNIQUE_CHARS = 50000;
+
+	String directory;
+	Map<String,NumberSystem> numberSystems = new ConcurrentHashMap<String,NumberSystem>();
+	/**
+	 * A lock per name, so that a number system is created once, without holding up the creation of the others.
+	 */
+	Map<String,Object> creating = new ConcurrentHashMap<String,Object>();
+	AtomicLong uniqueNames = new AtomicLong();
+
+	/**
+	 * @param directory the Walnut directory, i.e., the one that has Automata Library, Custom Bases, Result, ...
+	 * It ends with a separator, or is empty for the working directory.
+	 */
+	public EvaluationContext(String directory) {
+		this.directory = directory;
+	}
+
+	public static EvaluationContext getDefault() {
+		return DEFAULT;
+	}
+
+	public static EvaluationContext current() {
+		EvaluationContext c = current.get();
+		return c == null ? DEFAULT : c;
+	}
+
+	/**
+	 * Makes c the current context of this thread.
+	 * @return the context it replaces, to be passed to exit.
+	 */
+	public static EvaluationContext enter(EvaluationContext c) {
+		EvaluationContext previous = current.get();
+		current.set(c);
+		return previous;
+	}
+
+	public static void exit(EvaluationContext previous) {
+		if(previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @param name
+	 * @return the number system called name. It is created the first time it is asked for.
+	 * @throws Exception if there is no number system called name.
+	 */
+	public NumberSystem getNumberSystem(String name) throws Exception {
+		NumberSystem ns = numberSystems.get(name);
+		if(ns != null)return ns;
+		synchronized(creating.computeIfAbsent(name, k -> new Object())) {
+			ns = numberSystems.get(name);
+			if(ns == null) {
+				ns = new NumberSystem(name);
+				numberSystems.put(name, ns);
+			}
+		}
+		return ns;
+	}
+
+	public void removeNumberSystem(String name) {
+		numberSystems.remove(name);
+	}
+
+	public Map<String,NumberSystem> getNumberSystems() {
+		return numberSystems;
+	}
+
+	/**
+	 * @return a string without ascii characters. No two calls on the same context return the same value.
+	 */
+	public String uniqueString() {
+		long n = uniqueNames.incrementAndGet();
+		StringBuilder s = new StringBuilder();
+		do {
+			s.append((char)(FIRST_UNIQUE_CHAR + n % UNIQUE_CHARS));
+			n /= UNIQUE_CHARS;
+		} while(n > 0);
+		return s.toString();
+	}
+}
@@ -21,6 +21,8 @@ package Main;
 import java.util.List;
 
 import Automata.Automaton;
+import Automata.LinearForm;
+import Automata.Log;
 import Automata.NumberSystem;
 /**
  * Examples of expression: a,a+b, a+b > 2,c=a+b, W[a]!=W[b], Ea W[a]!=W[a+1],...<br>
@@ -41,7 +43,9 @@ import Automata.NumberSystem;
  * = is not an arithmetic operator but a comparison operator. An arithmetic expression evaluates to
  * an automaton, stored in the field memeber M, and an identifier, stored in identifier. For example a+b-c*2, evaluates
  * to an automaton with 4 inputs a,b,c,x and it accepts iff x = a+b-c*2. This x is a unique identifier we generate for this expression.
- * As we mentioned earlier, we store the automaton in M and the x in identifier since we need to eliminate x in future.<br>
+ * As we mentioned earlier, we store the automaton in M and the x in identifier since we need to eliminate x in future.
+ * When the number system supports linear arithmetic, we store the linear form a+b-2*c in linear instead, and M is only
+ * computed (by materialize) if some operator really needs it. Relational operators use linear directly.<br>
  * -automaton: automaton is an expression with at least one of reverse, logical, or comparison operator: 
  * &(and),|(or),^(xor),~(not),`(reverse),E(existential quantifier),A(universal quantifier),=,!=,<,>,<=,>=<br>
  * For example a+b > c is an automaton expression, so it `$f(a,b+1). An automaton expression, evaluates to an automaton.
@@ -67,6 +71,14 @@ public class Expression {
 	public NumberSystem base;
 	public Automaton W;
 	public List<String> list_of_identifiers_to_quantify;
+	public LinearForm linear;
+	/**
+	 * Only kept when Computer.KEEP_WITNESSES is on, for expressions computed by the quantifiers E and A:
+	 * the automaton before quantification (for A, the complement of it), whose shortest accepted word gives
+	 * a witness (for A, a counterexample) for the quantified variables.
+	 */
+	public Automaton witness;
+	public boolean counterexample;
 	/**
 	 * Different types: automaton,word,arithmetic,alphabetLetter,variable,numberLiteral
 	 */
@@ -99,6 +111,12 @@ public class Expression {
 		this.identifier = identifier;
 		T = Type.arithmetic;
 	}
+	public Expression(String expressionInString,LinearForm linear,String identifier){
+		this.expressionInString = expressionInString;
+		this.linear = linear;
+		this.identifier = identifier;
+		T = Type.arithmetic;
+	}
 	public Expression(String expressionInString,Automaton W,Automaton M,List<String> quantify){
 		this.expressionInString = expressionInString;
 		this.W = W;
@@ -107,6 +125,14 @@ public class Expression {
 		T = Type.word;
 	}
 	
+	/**
+	 * Computes M for an arithmetic expression that is stored as a linear form: M accepts iff identifier = linear.
+	 */
+	public void materialize(boolean print,String prefix,Log log) throws Exception{
+		if(M == null && linear != null){
+			M = linear.equalTo(identifier, print, prefix, log);
+		}
+	}
 	public String toString(){
 		return expressionInString;
 	}
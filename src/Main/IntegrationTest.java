@@ -19,29 +19,44 @@
 package Main;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import Automata.Automaton;
+import Automata.LibraryCache;
+import Automata.ResourceGovernor;
 
 public class IntegrationTest {
 	String directoryAddress = UtilityMethods.get_address_for_integration_test_results();
 	String performanceTestFileName = "performance_test.txt";
 	List<TestCase> testCases;//list of test cases
 	List<String> L;//list of commands
+	Map<Integer,Long> stateLimits = new HashMap<Integer,Long>();//walnut.limit.states of the commands that need one, by index in L
+	Map<Integer,Integer> threads = new HashMap<Integer,Integer>();//walnut.parallel.threads of the commands that need one, by index in L
+	Set<Integer> witnesses = new HashSet<Integer>();//the commands that run with walnut.witness, by index in L
+	Set<Integer> batches = new HashSet<Integer>();//the batch commands that are compared with load, by index in L
+	Set<Integer> consoles = new HashSet<Integer>();//the commands of the console that run with Jobs, by index in L
 	private void initialize(){
 		PrintWriter out = null;
 		try {
@@ -62,6 +77,62 @@ public class IntegrationTest {
 			out = new PrintWriter(UtilityMethods.get_address_for_words_library() + "PD.txt", "utf-8");
 			out.write("msd_2\n0 1\n0 -> 0\n1 -> 1\n1 0\n0 -> 0\n1 -> 0\n");
 			out.close();
+			// T2B is T2, read back from the binary format
+			Automaton T2 = new Automaton(UtilityMethods.get_address_for_words_library() + "T2.txt");
+			T2.write(UtilityMethods.get_address_for_words_library() + "T2B.txt");
+			T2.writeBinary(Automaton.binaryAddress(UtilityMethods.get_address_for_words_library() + "T2B.txt"), new File(UtilityMethods.get_address_for_words_library() + "T2B.txt"));
+			// T2C and T2D are T2 with corrupt binary files: a negative length of the name of a number system, and a
+			// transition to a state that does not exist. They are read from their text files.
+			for(String name:new String[]{"T2C", "T2D"}) {
+				String address = UtilityMethods.get_address_for_words_library() + name + ".txt";
+				T2.write(address);
+				T2.writeBinary(Automaton.binaryAddress(address), new File(address));
+			}
+			RandomAccessFile binary = new RandomAccessFile(Automaton.binaryAddress(UtilityMethods.get_address_for_words_library() + "T2C.txt"), "rw");
+			binary.seek(30);
+			binary.writeInt(-5);
+			binary.close();
+			binary = new RandomAccessFile(Automaton.binaryAddress(UtilityMethods.get_address_for_words_library() + "T2D.txt"), "rw");
+			binary.seek(binary.length() - 4);
+			binary.writeInt(1000);
+			binary.close();
+			// NFA1 is nondeterministic: on 0, state 0 goes to both 0 and 1
+			out = new PrintWriter(UtilityMethods.get_address_for_automata_library() + "NFA1.txt", "utf-8");
+			out.write("msd_2\n\n0 0\n0 -> 0 1\n1 -> 1\n\n1 1\n0 -> 1\n1 -> 0\n");
+			out.close();
+			// inf1 to inf6 are for inf and I: mixed msd and lsd inputs, an input without a number system,
+			// accepted empty words, and self-loops as the only cycles
+			String[] infinite = {
+				"msd_2 lsd_2\n\n0 1\n0 0 -> 0\n1 1 -> 1\n\n1 1\n0 0 -> 1\n",
+				"{0, 1} msd_2\n\n0 1\n0 0 -> 0\n",
+				"msd_2\n\n0 1\n0 -> 0\n",
+				"msd_2\n\n0 0\n0 -> 0\n1 -> 1\n\n1 1\n",
+				"msd_2\n\n0 0\n1 -> 1\n\n1 0\n0 -> 2\n1 -> 1\n\n2 1\n",
+				"lsd_2\n\n0 1\n0 -> 0\n1 -> 1\n\n1 1\n0 -> 1\n"};
+			for(int i = 0; i < infinite.length; i++) {
+				out = new PrintWriter(UtilityMethods.get_address_for_automata_library() + "inf" + (i+1) + ".txt", "utf-8");
+				out.write(infinite[i]);
+				out.close();
+			}
+			// batch1.txt to batch3.txt are for batch: a macro that reads a name defined after it, a producer after
+			// readers of its name, the automata BT_a that image writes, and a load that clears the macros
+			out = new PrintWriter(UtilityMethods.get_address_for_words_library() + "BT.txt", "utf-8");
+			out.write("msd_2\n0 0\n0 -> 0\n1 -> 1\n1 1\n0 -> 1\n1 -> 0\n");
+			out.close();
+			out = new PrintWriter(UtilityMethods.get_address_for_command_files() + "batch1.txt", "utf-8");
+			out.write("def bt1 \"x = 2*y\";\nmacro btm \"$bt2(%0) & Ey $bt1(%0,y)\";\ndef bt2 \"x > 3\";\ndef bt3 \"#btm(x)\";\n"
+				+ "test bt3 3;\ntest bt2 2;\ndef bt2 \"x < 2\";\ntest bt2 2;\neval bt4 \"Ex $bt2(x) & $bt3(x)\";\n");
+			out.close();
+			out = new PrintWriter(UtilityMethods.get_address_for_command_files() + "batch2.txt", "utf-8");
+			out.write("morphism btmor \"0->01 1->10\";\nimage BTI btmor BT;\neval bt5 \"Ai BT[i] = @1 <=> $BT_1(i)\";\n"
+				+ "macro btn \"$bt1(%0,%1)\";\nload batch3.txt;\ndef bt6 \"#btn(x,y) & x < 10\";\ntest bt6 5;\n"
+				+ "macro btn \"$bt7(%0) & %1 = 1\";\ndef bt8 \"#btn(x,y)\";\ntest bt8 1;\n");
+			out.close();
+			out = new PrintWriter(UtilityMethods.get_address_for_command_files() + "batch3.txt", "utf-8");
+			out.write("def bt7 \"x = 5\";\n");
+			out.close();
+			// test560.txt is a directory that is not empty, so the file of def test560 cannot be written
+			new File(UtilityMethods.get_address_for_automata_library() + "test560.txt/blocked").mkdirs();
 
 			Prover.dispatch("reg endsIn2Zeros lsd_2 \"(0|1)*00\";");
 			Prover.dispatch("reg startsWith2Zeros msd_2 \"00(0|1)*\";");
@@ -694,6 +765,107 @@ public class IntegrationTest {
 		L.add("split test523 FASQ[-]");
 		L.add("rsplit test524[+] FASQ");
 		L.add("rsplit test525[-] FTM");
+
+		// linear arithmetic tests
+		L.add("eval test526 \"?msd_3 x-z>w-9+x & (w/3)+(w/1)-(y/4)+x=(w+3)/2+(z+2)/3+w-w*2\";");
+		L.add("eval test527 \"?msd_10 (a/3)+(b/5) = e\";");
+		L.add("eval test528 \"?lsd_2 3*x+2*y = z+7\";");
+		L.add("eval test529 \"?msd_2 2*x+3*y <= 5*z+1 & x-y != 2\";");
+		L.add("eval test530 \"?lsd_3 x+y+z > 2*w-4\";");
+		L.add("eval test531 \"?msd_10 x = 7*(x/7)+3 & y-x = 2*((y-x)/2)\";");
+		L.add("eval test532 \"?msd_3 (2*x+y)/5 < z-(x/2)\";");
+		L.add("eval test533 \"?msd_2 a+b+c+d+e+f+g+h+i+j = k+1\";");
+		L.add("eval test534 \"?lsd_10 Ex,y x+2*y = 3*z+1 & (x/3) = y\";");
+
+		// automata of the library used right after they are defined
+		L.add("def test535 \"?msd_3 x = 2*y+1\";");
+		L.add("eval test536 \"?msd_3 Ey $test535(x,y) & x < 20\";");
+		L.add("def test537 \"?msd_3 $test535(x,y) & $test535(y,z)\";");
+		L.add("eval test538 \"?msd_3 Ex,y $test537(x,y,z) & z = 40\";");
+
+		// binary format tests
+		L.add("eval test539 \"Ax,y T2B[x][y] = T2[x][y]\";");
+		L.add("eval test540 \"T2B[x][y] = @1 & x < 4 & y < 4\";");
+
+		// count tests
+		L.add("def test541 \"?msd_2 y < 2*x\";");
+		L.add("count test541 [5] [];");
+		L.add("count test541 [5] [] mod 7;");
+		L.add("count test541 len 4;");
+		L.add("def test542 \"?msd_2 y > x\";");
+		L.add("count test542 [5] [];");
+		L.add("count test542 [] [];");
+		L.add("def test543 \"?lsd_3 x < 3 & y < 2\";");
+		L.add("count test543 [] [];");
+		L.add("count test543 [] [1];");
+
+		// test command tests
+		L.add("def test544 \"?msd_2 x < 5 & y = 2*x\";");
+		L.add("test test544 3;");
+		L.add("test test544 10;");
+		L.add("def test545 \"Ey x = 3*y\";");
+		L.add("test test545 4;");
+		L.add("test NFA1 6;");
+
+		// resource limit tests: an aborted command leaves the session usable
+		addWithStateLimit("def test546 \"?msd_10 x = 123*y\";", 20);
+		L.add("def test546 \"?msd_10 x = 123*y\";");
+		addWithStateLimit("def test547 \"Ei,j i < j & T[i+n] = T[j+n] & T[i] != T[j]\";", 10);
+		L.add("def test547 \"Ei,j i < j & T[i+n] = T[j+n] & T[i] != T[j]\";");
+
+		// parallel evaluation tests: independent subformulas, and the error of the first one that fails
+		addInParallel("def test548 \"(Ei i < n & T[i] = T[i+1]) & (Ej j < n & T[j] != T[j+1])\";", 4);
+		addInParallel("def test549 \"?msd_fib (Ex x > n & F[x] = @1) | (Ey y+2 < n & F[y] = @0)\";", 4);
+		addInParallel("eval test550 \"(Ei T[i] = T[i+n]) & (Aj $thueeq(j,j+n)) & (Ek T[k] = @1)\";", 4);
+		addInParallel("eval test551 \"(Ei T[i] = T[i+1]) & (Ej TH[j] / (b + c) = 1)\";", 4);
+		addInParallel("eval test552 \"(Ex 3 / TH[x] = 1) & (Ey TH[y] / (b + c) = 1)\";", 4);
+
+		// congruence tests: quotients that an equation determines
+		L.add("def test553 \"x = 3*(x/3) + 1\";");
+		L.add("def test554 \"?lsd_2 x = 5*(x/5)\";");
+		L.add("def test555 \"x + y = 4*((x+y)/4) + 3\";");
+		L.add("def test556 \"x - 6*(x/6) = 2\";");
+		L.add("def test557 \"?msd_2 x = 1000*(x/1000) + 999\";");
+		L.add("def test558 \"x/3 + y/5 = z\";");
+		L.add("eval test559 \"E x,y x = 65536*(65536*y) & y = 1 & x = 0\";"); // error: cannot compute the cross product of automata with 65536 and 65536 states: too many pairs of states
+
+		// library write failure tests: once the write fails, the library is read from disk again
+		L.add("def test560 \"x = 1\";");
+		L.add("test test560 1;"); // error: File does not exist: Automata Library/test560.txt
+
+		// corrupt binary files are ignored
+		L.add("eval test561 \"Ax,y T2C[x][y] = T2[x][y]\";");
+		L.add("eval test562 \"Ax,y T2D[x][y] = T2[x][y]\";");
+
+		// powers of a matrix with more than 256 rows are computed by squaring
+		L.add("def test563 \"?msd_2 x = 293*(x/293)\";");
+		L.add("count test563 len 1000000000000 mod 1000007;");
+
+		// witness tests: the values that make an E true, or an A false, as read by eval
+		addWithWitness("eval test564 \"Ei,n n = 2 & (Aj j < n => T[i+j] = T[i])\";");
+		addWithWitness("eval test565 \"An n < 10 | T[n] = T[n+1]\";");
+		addWithWitness("eval test566 \"?msd_fib Ex,y x < y & y < 10 & F[x] = F[y] & F[x+1] != F[y+1] & x > 3\";");
+		addWithWitness("eval test567 \"Ex T[x] = @2\";");
+
+		// infinite tests: inf and I, whose regular expressions are checked by checkInfinite
+		L.add("inf inf1;");
+		L.add("inf inf2;");
+		L.add("inf inf3;");
+		L.add("inf inf4;");
+		L.add("inf inf5;");
+		L.add("inf inf6;");
+		L.add("eval test568 \"Ix,y $inf1(x,y)\";");
+		L.add("eval test569 \"Ix,y $inf2(x,y)\";");
+		L.add("eval test570 \"Ix $inf3(x)\";");
+		L.add("eval test571 \"Ix $inf4(x)\";");
+		L.add("eval test572 \"Ix $inf5(x)\";");
+		L.add("eval test573 \"Ix ?lsd_2 $inf6(x)\";");
+
+		// batch and jobs tests: they write the same libraries as the same commands run one after the other
+		addBatch("batch batch1.txt;");
+		addBatch("batch batch2.txt;");
+		addToConsole("def bj1 \"x = 3*y\" &; def bj2 \"Ey $bj1(x,y) & x < 20\" &; test bj2 4; bg def bj1 \"x = 5*y\"; "
+			+ "eval bj3 \"Ex,y $bj1(x,y) & x = 10\"; wait;");
 	}
 	public void runPerformanceTest(String name,int numberOfRuns) throws Exception{
 		PrintWriter out = new PrintWriter(new FileOutputStream(new File(directoryAddress+performanceTestFileName), true /* append = true */));
@@ -738,7 +910,7 @@ public class IntegrationTest {
 			System.out.println("\t\t"+command);
 			try{
 				before = System.currentTimeMillis();
-				TestCase actual = Prover.dispatchForIntegrationTest(command);
+				TestCase actual = dispatch(i);
 				after = System.currentTimeMillis();
 				total += (after-before);
 
@@ -758,7 +930,7 @@ public class IntegrationTest {
 
 				if((actual.result == null && expected.result != null) ||
 						(actual.result != null && expected.result == null) ||
-						!actual.result.equals(expected.result)){
+						(actual.result != null && !actual.result.equals(expected.result))){
 					failedTestsCount++;
 					automataFailedTestsCount++;
 					System.out.println("Test " + i + " failed! Actual and expected automata do not conform.\n");
@@ -899,7 +1071,7 @@ public class IntegrationTest {
 			System.out.println(command);
 			TestCase test_case = null;
 			try{
-				test_case = Prover.dispatchForIntegrationTest(command);
+				test_case = dispatch(i);
 			}
 			catch(Exception e){
 				test_case = new TestCase(command,null,e.getMessage(),"","");
@@ -908,6 +1080,177 @@ public class IntegrationTest {
 		}
 		writeTestCases();
 	}
+	/**
+	 * Runs the i-th command under a budget of ResourceGovernor, as Prover.dispatch does, with its limit on the
+	 * number of states, its number of threads and its witness if it has them.
+	 */
+	private TestCase dispatch(int i) throws Exception{
+		long states = ResourceGovernor.MAX_STATES;
+		int threadCount = Computer.THREADS;
+		boolean keepWitnesses = Computer.KEEP_WITNESSES;
+		if(stateLimits.containsKey(i))ResourceGovernor.MAX_STATES = stateLimits.get(i);
+		if(threads.containsKey(i))Computer.THREADS = threads.get(i);
+		if(witnesses.contains(i))Computer.KEEP_WITNESSES = true;
+		ResourceGovernor.Budget previous = ResourceGovernor.begin();
+		try{
+			TestCase test_case = batches.contains(i) || consoles.contains(i) ?
+				runConcurrently(L.get(i), batches.contains(i)) : Prover.dispatchForIntegrationTest(L.get(i));
+			if(L.get(i).startsWith("inf "))checkInfinite(L.get(i), test_case);
+			return test_case;
+		}
+		finally{
+			ResourceGovernor.end(previous);
+			ResourceGovernor.MAX_STATES = states;
+			Computer.THREADS = threadCount;
+			Computer.KEEP_WITNESSES = keepWitnesses;
+		}
+	}
+	/**
+	 * Checks that the automaton of an inf command accepts the words prefix cycle^k suffix, for k = 0,1,2,
+	 * of the regular expression prefix(cycle)*suffix that it printed.
+	 */
+	private void checkInfinite(String command,TestCase test_case) throws Exception{
+		if(test_case.details.equals("finite"))return;
+		String name = command.substring(4, command.indexOf(';')).trim();
+		Automaton M = new Automaton(UtilityMethods.get_address_for_automata_library() + name + ".txt");
+		String infReg = test_case.details;
+		int open = infReg.indexOf('('), close = infReg.lastIndexOf(")*");
+		List<Integer> prefix = letters(M, infReg.substring(0, open)), cycle = letters(M, infReg.substring(open+1, close)),
+			suffix = letters(M, infReg.substring(close+2));
+		for(int k = 0; k < 3; k++){
+			List<Integer> word = new ArrayList<Integer>(prefix);
+			for(int j = 0; j < k; j++)word.addAll(cycle);
+			word.addAll(suffix);
+			Set<Integer> states = new HashSet<Integer>();
+			states.add(M.q0);
+			for(int x:word){
+				Set<Integer> next = new HashSet<Integer>();
+				for(int q:states)if(M.d.get(q).containsKey(x))next.addAll(M.d.get(q).get(x));
+				states = next;
+			}
+			if(states.stream().noneMatch(q -> M.O.get(q) != 0)){
+				throw new Exception(name + " does not accept the words of " + infReg);
+			}
+		}
+	}
+	private List<Integer> letters(Automaton M,String tuples){
+		List<Integer> word = new ArrayList<Integer>();
+		Matcher m = Pattern.compile("\\[([^\\]]*)\\]").matcher(tuples);
+		while(m.find()){
+			List<Integer> letter = new ArrayList<Integer>();
+			for(String value:m.group(1).split(","))letter.add(Integer.parseInt(value.trim()));
+			word.add(M.encode(letter));
+		}
+		return word;
+	}
+	/**
+	 * Runs the commands of command one after the other, then restores the libraries and runs them again, with batch
+	 * (with the commands of a load) or with Jobs (command is a list of commands of the console, some in the background).
+	 * @return a test case whose details are what the second run prints, and whose error tells how the runs differ:
+	 * in the libraries they write, or for batch in what they print.
+	 */
+	private TestCase runConcurrently(String command,boolean batch) throws Exception{
+		List<String> commands = new ArrayList<String>(Arrays.asList(command.split("(?<=;)\\s*")));
+		Map<String,String> before = libraries();
+		OutputCapture capture = startCapture();
+		try{
+			for(String c:commands){
+				Matcher m = Jobs.PATTERN_FOR_bg_SUFFIX.matcher(c);
+				if(m.matches())c = m.group(1) + m.group(2);
+				if(c.matches(Jobs.REGEXP_FOR_wait_COMMAND))continue;
+				Prover.dispatch(batch ? c.replaceFirst("batch", "load") : c.replaceFirst("^bg\\s+", ""));
+			}
+		}
+		finally{
+			capture.stop();
+		}
+		String sequential = output(capture);
+		Map<String,String> after = libraries();
+		for(String address:after.keySet()){
+			if(after.get(address).equals(before.get(address)))continue;
+			new File(Automaton.binaryAddress(address)).delete();
+			if(before.containsKey(address))Files.write(Paths.get(address), before.get(address).getBytes("UTF-8"));
+			else new File(address).delete();
+		}
+		LibraryCache.clear();
+		int threadCount = Batch.THREADS;
+		capture = startCapture();
+		try{
+			Batch.THREADS = 4;
+			Jobs jobs = new Jobs();
+			for(String c:commands){
+				if(batch)Prover.dispatch(c);
+				else jobs.dispatch(c);
+			}
+			jobs.dispatch("wait;");
+		}
+		finally{
+			capture.stop();
+			Batch.THREADS = threadCount;
+		}
+		String concurrent = output(capture);
+		String error = "";
+		Map<String,String> written = libraries();
+		for(String address:after.keySet()){
+			if(!after.get(address).equals(written.get(address))){
+				error = (batch ? "batch" : "the jobs") + " wrote " + address + " differently";
+			}
+		}
+		if(batch && !concurrent.equals(sequential))error = "batch printed:\n" + concurrent + "load printed:\n" + sequential;
+		return new TestCase(command, null, error, "", concurrent);
+	}
+	private OutputCapture startCapture(){
+		OutputCapture capture = new OutputCapture();
+		capture.start();
+		return capture;
+	}
+	/**
+	 * @return what the capture holds, without the times, and without the messages of jobs that wait for jobs:
+	 * whether a job still runs when another starts or ends is up to the threads.
+	 */
+	private String output(OutputCapture capture) throws Exception{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream print = new PrintStream(bytes, true, "UTF-8");
+		capture.replay(print, print);
+		return bytes.toString("UTF-8").replaceAll("\\d+ms", "ms").replaceAll("\\d+\\.\\ds", "s").replaceAll("(?m)^waiting for job .*\\R", "")
+			.replaceAll(" \\(after [\\d, ]+\\)", "");
+	}
+	/**
+	 * @return the text files of the automata, word automata and macro libraries, by address.
+	 */
+	private Map<String,String> libraries() throws Exception{
+		OutputPolicy.flush();
+		Map<String,String> files = new TreeMap<String,String>();
+		for(String directory:new String[]{UtilityMethods.get_address_for_automata_library(),
+				UtilityMethods.get_address_for_words_library(), UtilityMethods.get_address_for_macro_library()}){
+			File[] list = new File(directory).listFiles();
+			if(list == null)continue;
+			for(File f:list){
+				if(f.isFile() && f.getName().endsWith(".txt"))files.put(f.getPath(), new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+			}
+		}
+		return files;
+	}
+	private void addBatch(String command){
+		batches.add(L.size());
+		L.add(command);
+	}
+	private void addToConsole(String commands){
+		consoles.add(L.size());
+		L.add(commands);
+	}
+	private void addWithStateLimit(String command,long states){
+		stateLimits.put(L.size(), states);
+		L.add(command);
+	}
+	private void addInParallel(String command,int threadCount){
+		threads.put(L.size(), threadCount);
+		L.add(command);
+	}
+	private void addWithWitness(String command){
+		witnesses.add(L.size());
+		L.add(command);
+	}
 	private void writeTestCases() throws Exception{
 		new File(directoryAddress).mkdirs();
 		for(int i = 0 ; i < testCases.size();i++){
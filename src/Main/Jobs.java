@@ -0,0 +1,241 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import Automata.ResourceGovernor;
+
+/**
+ * The background jobs of the console. A command that starts with bg, or that has & right before its ending
+ * (e.g., def big "..." &;), runs on a thread of its own while the console reads the next commands.
+ * What a job prints is kept (see OutputCapture), and printed before the next prompt after the job is done.<br>
+ * A command waits for the jobs it depends on, as the commands of a batch do (see Batch): for the jobs that write
+ * a name it reads or writes, and for the jobs that read a name it writes. This holds for the commands of the console
+ * and for the jobs themselves. Only the commands batch counts as producers or readers can run in the background.
+ * The others (load, batch, exit, ...) wait for every job.<br>
+ * jobs; lists the jobs, wait; waits for all of them, wait 1 3; for jobs 1 and 3, and cancel 1; cancels job 1.
+ * Ctrl-C cancels the command of the console, which includes waiting for jobs, but it does not cancel the jobs.
+ */
+public class Jobs {
+	static String REGEXP_FOR_jobs_COMMAND = "^\\s*jobs\\s*(;|::|:)\\s*$";
+	static String REGEXP_FOR_wait_COMMAND = "^\\s*wait((\\s+\\d+)*)\\s*(;|::|:)\\s*$";
+	static String REGEXP_FOR_cancel_COMMAND = "^\\s*cancel((\\s+\\d+)+)\\s*(;|::|:)\\s*$";
+	static Pattern PATTERN_FOR_wait_COMMAND = Pattern.compile(REGEXP_FOR_wait_COMMAND);
+	static Pattern PATTERN_FOR_cancel_COMMAND = Pattern.compile(REGEXP_FOR_cancel_COMMAND);
+	static Pattern PATTERN_FOR_bg_PREFIX = Pattern.compile("^\\s*bg\\s+(.*)$", Pattern.DOTALL);
+	static Pattern PATTERN_FOR_bg_SUFFIX = Pattern.compile("^(.*?)\\s*&\\s*(;|::|:)\\s*$", Pattern.DOTALL);
+	static Pattern PATTERN_FOR_A_NUMBER = Pattern.compile("\\d+");
+
+	static class Job {
+		int id;
+		String command;
+		Batch.Access access;
+		Thread thread;
+		OutputCapture output = new OutputCapture();
+		CompletableFuture<Void> done = new CompletableFuture<Void>();
+		/**
+		 * Completed by cancel, so that a job that waits for other jobs stops waiting.
+		 */
+		CompletableFuture<Void> cancelled = new CompletableFuture<Void>();
+		long started, finished;
+		/**
+		 * done, failed or cancelled once the job is done.
+		 */
+		volatile String state = "running";
+
+		String time() {
+			long end = done.isDone() ? finished : System.nanoTime();
+			return String.format(Locale.ROOT, "%.1fs", (end - started) / 1e9);
+		}
+	}
+
+	/**
+	 * Jobs that are running, or done but not reported yet, by id.
+	 */
+	TreeMap<Integer,Job> jobs = new TreeMap<Integer,Job>();
+	int next = 1;
+	/**
+	 * Tells what the commands read and write. It remembers the macros defined so far.
+	 */
+	Batch names = new Batch(new ArrayList<String>());
+
+	/**
+	 * Runs the command s of the console: either one of jobs, wait and cancel, or a command to start in the
+	 * background, or a command of Prover.dispatch, after the jobs it depends on.
+	 * @return false if s is exit or quit.
+	 * @throws Exception
+	 */
+	public boolean dispatch(String s) throws Exception {
+		Matcher m;
+		if(s.matches(REGEXP_FOR_jobs_COMMAND)) {
+			for(Job job:jobs.values()) {
+				System.out.println("[" + job.id + "] " + job.state + " " + job.time() + " " + job.command);
+			}
+			return true;
+		}
+		if((m = PATTERN_FOR_wait_COMMAND.matcher(s)).matches()) {
+			waitFor(m.group(1).trim().isEmpty() ? jobs.values() : jobs(m.group(1)));
+			return true;
+		}
+		if((m = PATTERN_FOR_cancel_COMMAND.matcher(s)).matches()) {
+			for(Job job:jobs(m.group(1))) {
+				job.cancelled.complete(null);
+				ResourceGovernor.cancel(job.thread, "cancelled");
+			}
+			return true;
+		}
+		String command = null;
+		if((m = PATTERN_FOR_bg_PREFIX.matcher(s)).matches()) {
+			command = m.group(1);
+		} else if((m = PATTERN_FOR_bg_SUFFIX.matcher(s)).matches()) {
+			command = m.group(1) + m.group(2);
+		}
+		if(command != null) {
+			start(command);
+			return true;
+		}
+		waitFor(dependencies(names.access(s)));
+		return Prover.dispatch(s);
+	}
+
+	/**
+	 * Prints the jobs that are done, and what they printed.
+	 */
+	public void report() {
+		for(Job job:new ArrayList<Job>(jobs.values())) {
+			if(!job.done.isDone())continue;
+			System.out.println("[" + job.id + "] " + job.state + " in " + job.time() + ": " + job.command);
+			job.output.replay(System.out, System.err);
+			jobs.remove(job.id);
+		}
+	}
+
+	private void start(String command) throws Exception {
+		Batch.Access access = names.access(command);
+		if(access.barrier) {
+			throw new Exception("This command cannot run in the background.");
+		}
+		Job job = new Job();
+		job.id = next++;
+		job.command = command;
+		job.access = access;
+		List<Job> before = dependencies(access);
+		job.thread = new Thread(null, () -> run(job, before), "walnut-job-" + job.id, Batch.STACK_SIZE);
+		job.thread.setDaemon(true);
+		jobs.put(job.id, job);
+		job.started = System.nanoTime();
+		job.thread.start();
+		String after = "";
+		for(Job j:before) {
+			after += (after.isEmpty() ? " (after " : ", ") + j.id;
+		}
+		System.out.println("[" + job.id + "] " + command + (after.isEmpty() ? "" : after + ")"));
+	}
+
+	private void run(Job job,List<Job> before) {
+		ResourceGovernor.detach();
+		job.output.start();
+		try {
+			CompletableFuture.anyOf(futures(before), job.cancelled).join();
+			// a cancelled job gets an Abort from dispatch
+			Prover.dispatch(job.command);
+			job.state = "done";
+		} catch(Exception e) {
+			job.state = job.cancelled.isDone() ? "cancelled" : "failed";
+			System.out.flush();
+			System.err.println(e.getMessage() + UtilityMethods.newLine() + "\t: " + job.command);
+			System.err.flush();
+		} finally {
+			// an Error, e.g., an OutOfMemoryError
+			if(job.state.equals("running"))job.state = "failed";
+			job.output.stop();
+			ResourceGovernor.release();
+			job.finished = System.nanoTime();
+			job.done.complete(null);
+		}
+	}
+
+	/**
+	 * @return the running jobs that a command accessing a has to wait for.
+	 */
+	private List<Job> dependencies(Batch.Access a) {
+		List<Job> before = new ArrayList<Job>();
+		for(Job job:jobs.values()) {
+			if(!job.done.isDone() && job.access.conflicts(a))before.add(job);
+		}
+		return before;
+	}
+
+	/**
+	 * Waits for the jobs, then reports them. Like any command, the wait stops on Ctrl-C (and on walnut.limit.time).
+	 */
+	private void waitFor(Collection<Job> before) throws Exception {
+		CompletableFuture<Void> all = futures(before);
+		if(!all.isDone()) {
+			String ids = "";
+			for(Job job:before) {
+				if(!job.done.isDone())ids += (ids.isEmpty() ? "" : ", ") + job.id;
+			}
+			System.out.println("waiting for job " + ids);
+			ResourceGovernor.Budget previous = ResourceGovernor.begin();
+			try {
+				while(true) {
+					try {
+						all.get(100, TimeUnit.MILLISECONDS);
+						break;
+					} catch(TimeoutException e) {
+						ResourceGovernor.check(0);
+					}
+				}
+			} finally {
+				ResourceGovernor.end(previous);
+			}
+		}
+		report();
+	}
+
+	private static CompletableFuture<Void> futures(Collection<Job> jobs) {
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for(Job job:jobs) {
+			futures.add(job.done);
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+	}
+
+	private List<Job> jobs(String ids) throws Exception {
+		List<Job> list = new ArrayList<Job>();
+		Matcher m = PATTERN_FOR_A_NUMBER.matcher(ids);
+		while(m.find()) {
+			Job job = jobs.get(Integer.parseInt(m.group()));
+			if(job == null)throw new Exception("There is no job " + m.group() + ".");
+			list.add(job);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,126 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a thread prints while it runs one command, for commands that do not print straight to the console:
+ * the commands of a batch, the commands sent to a Daemon, and the background jobs of the console (see Jobs).<br>
+ * install replaces System.out and System.err, once, with streams that send what a thread writes to the
+ * OutputCapture it started, and to the original streams if it did not start one.
+ * By default the output is kept, as a sequence of pieces written to System.out or System.err, until replay.
+ */
+public class OutputCapture {
+	static ThreadLocal<OutputCapture> current = new ThreadLocal<OutputCapture>();
+	static PrintStream out, err;
+
+	List<ByteArrayOutputStream> pieces = new ArrayList<ByteArrayOutputStream>();
+	List<Boolean> toErr = new ArrayList<Boolean>();
+
+	public static synchronized void install() {
+		if(out != null)return;
+		out = System.out;
+		err = System.err;
+		out.flush();
+		err.flush();
+		System.setOut(new PrintStream(new Router(out, false), true));
+		System.setErr(new PrintStream(new Router(err, true), true));
+	}
+
+	/**
+	 * From now on, what this thread prints goes to this capture.
+	 */
+	public void start() {
+		install();
+		current.set(this);
+	}
+
+	public void stop() {
+		System.out.flush();
+		System.err.flush();
+		current.remove();
+	}
+
+	/**
+	 * @return true if what this thread prints is captured.
+	 */
+	public static boolean capturing() {
+		return current.get() != null;
+	}
+
+	/**
+	 * Synchronized, since the threads that work for the one that started this capture write to it too (see Computer).
+	 */
+	protected synchronized void write(boolean toErr,byte[] b,int off,int len) throws IOException {
+		if(pieces.isEmpty() || this.toErr.get(this.toErr.size() - 1) != toErr) {
+			pieces.add(new ByteArrayOutputStream());
+			this.toErr.add(toErr);
+		}
+		pieces.get(pieces.size() - 1).write(b, off, len);
+	}
+
+	protected void flush() throws IOException {
+	}
+
+	/**
+	 * Prints the captured output to out and err, in the order it was written.
+	 */
+	public synchronized void replay(PrintStream out,PrintStream err) {
+		for(int i = 0; i < pieces.size(); i++) {
+			PrintStream p = toErr.get(i) ? err : out;
+			p.write(pieces.get(i).toByteArray(), 0, pieces.get(i).size());
+			p.flush();
+		}
+	}
+
+	static class Router extends OutputStream {
+		OutputStream target;
+		boolean toErr;
+
+		Router(OutputStream target,boolean toErr) {
+			this.target = target;
+			this.toErr = toErr;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b,int off,int len) throws IOException {
+			OutputCapture c = current.get();
+			if(c == null)target.write(b, off, len);
+			else c.write(toErr, b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			OutputCapture c = current.get();
+			if(c == null)target.flush();
+			else c.flush();
+		}
+	}
+}
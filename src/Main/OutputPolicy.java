@@ -0,0 +1,138 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which files eval and def write to Result, and writes them.<br>
+ * The policy is read from system properties:<br>
+ * - walnut.output.txt, walnut.output.gv and walnut.output.log (true by default) turn the .txt, .gv and _log.txt files off.
+ *   The _detailed_log.txt of a command ending in :: and the matrices of a command with free variables are always written.<br>
+ * - walnut.output.gv.states: automata with more states than this are not drawn.<br>
+ * - walnut.output.gv.summary (10000 by default): automata with more states than this are drawn as the graph of their
+ *   strongly connected components, see Automaton.draw.<br>
+ * - walnut.output.matrices (maple by default): a comma separated list of the formats of the matrices written by eval and def
+ *   with free variables: maple (dense, name.mpl), sparse (Maple with storage=sparse, name_sparse.mpl), mtx (Matrix Market,
+ *   one name_M_..., name_v and name_w.mtx file per matrix and vector) and binary (name.lrb), see Automata.LinearRepresentation.<br>
+ * - walnut.output.async (true by default): files are written by a background thread, while the next command runs.
+ *   At most QUEUE_SIZE writes wait at a time; a command that would exceed this waits instead.<br>
+ * Writes to the libraries go through Automata.LibraryCache, which keeps the automaton in memory until its file is written.
+ * Commands that look at the library files in other ways must call flush first, which Prover.dispatch does for every
+ * command but eval and def.
+ */
+public class OutputPolicy {
+	public static boolean WRITE_TXT = !"false".equals(System.getProperty("walnut.output.txt"));
+	public static boolean WRITE_GV = !"false".equals(System.getProperty("walnut.output.gv"));
+	public static boolean WRITE_LOG = !"false".equals(System.getProperty("walnut.output.log"));
+	public static int GV_MAX_STATES = Integer.getInteger("walnut.output.gv.states", Integer.MAX_VALUE);
+	public static int GV_SUMMARY_STATES = Integer.getInteger("walnut.output.gv.summary", 10000);
+	public static Set<String> MATRIX_FORMATS = new HashSet<String>(Arrays.asList(System.getProperty("walnut.output.matrices", "maple").split("\\s*,\\s*")));
+	public static boolean ASYNC = !"false".equals(System.getProperty("walnut.output.async"));
+	public static int QUEUE_SIZE = 4;
+
+	static ThreadPoolExecutor writer;
+
+	/**
+	 * Runs task in the background if ASYNC, and right away otherwise. Exceptions and errors thrown by task, e.g.,
+	 * OutOfMemoryError, are printed to System.err.
+	 * @param task
+	 */
+	public static synchronized void submit(Task task) {
+		Runnable r = () -> {
+			try {
+				task.run();
+			} catch(Exception | Error e) {
+				System.out.flush();
+				System.err.println(e.getMessage() != null ? e.getMessage() : e.toString());
+				System.err.flush();
+			}
+		};
+		if(!ASYNC) {
+			r.run();
+			return;
+		}
+		writer().execute(r);
+	}
+
+	/**
+	 * Waits until everything submitted so far is written.
+	 */
+	public static void flush() {
+		ThreadPoolExecutor w;
+		synchronized(OutputPolicy.class) {
+			w = writer;
+		}
+		if(w == null)return;
+		Future<?> done = w.submit(() -> {});
+		try {
+			done.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException e) {
+			// the empty task does not throw
+		}
+	}
+
+	/**
+	 * @param states
+	 * @return true if an automaton with the given number of states should be drawn.
+	 */
+	public static boolean draw(int states) {
+		return WRITE_GV && states <= GV_MAX_STATES;
+	}
+
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	private static ThreadPoolExecutor writer() {
+		if(writer == null) {
+			writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+				r -> {
+					Thread t = new Thread(r, "walnut-output");
+					t.setDaemon(true);
+					return t;
+				},
+				(r, executor) -> {
+					// the queue is full: wait for room, so that files are still written in order. An interrupt, e.g.,
+					// from Batch shutting down its pool, must not drop the write: we keep waiting and interrupt again after.
+					boolean interrupted = false;
+					while(true) {
+						try {
+							executor.getQueue().put(r);
+							break;
+						} catch(InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if(interrupted)Thread.currentThread().interrupt();
+				});
+			Runtime.getRuntime().addShutdownHook(new Thread(OutputPolicy::flush));
+		}
+		return writer;
+	}
+}
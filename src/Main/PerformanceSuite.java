@@ -0,0 +1,437 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import Automata.Automaton;
+
+/**
+ * Runs a set of command files as a performance regression test, and compares the results with a baseline.<br>
+ * java Main.PerformanceSuite [--save-baseline] [file ...] runs every file (a curated set of Command Files by default)
+ * RUNS times, each time in a fresh JVM, in a scratch copy of the libraries with an empty number system cache.
+ * For every command it records the wall time (including writing its files), the peak heap usage and the largest
+ * intermediate automaton (see Automaton.getPeakStates).<br>
+ * The results go to Test Results/Performance Tests/report.json. Every metric of every command is compared with
+ * baseline.tsv in the same directory: a time or heap change counts when Welch's t-test finds it significant at 99%
+ * and it is larger than both a relative threshold and an absolute one. Any change in the number of states counts.
+ * --save-baseline makes this run the new baseline. The exit code is 1 if something regressed.<br>
+ * Options (system properties): walnut.perf.runs (5), walnut.perf.threshold.time (0.10),
+ * walnut.perf.threshold.millis (5), walnut.perf.threshold.heap (0.20), walnut.perf.threshold.bytes (1048576), and
+ * walnut.perf.jvm (-Xss64m), the options of the JVMs that run the files.
+ */
+public class PerformanceSuite {
+	static String[] SUITE = {
+		"fibonacci_tests.txt", "paperfolding_tests.txt", "period_doubling_tests.txt", "rudin_shapiro_tests.txt",
+		"thue_tests.txt", "critical_exponent_x3.txt", "morphism_image_tests.txt", "rich2.txt"};
+	static int RUNS = Integer.getInteger("walnut.perf.runs", 5);
+	static double TIME_THRESHOLD = Double.parseDouble(System.getProperty("walnut.perf.threshold.time", "0.10"));
+	static double MILLIS_THRESHOLD = Double.parseDouble(System.getProperty("walnut.perf.threshold.millis", "5"));
+	static double HEAP_THRESHOLD = Double.parseDouble(System.getProperty("walnut.perf.threshold.heap", "0.20"));
+	static double BYTES_THRESHOLD = Double.parseDouble(System.getProperty("walnut.perf.threshold.bytes", "1048576"));
+	static String JVM_OPTIONS = System.getProperty("walnut.perf.jvm", "-Xss64m");
+	static String BASELINE = "baseline.tsv";
+	static String REPORT = "report.json";
+
+	static String[] METRICS = {"time_ms", "peak_heap_bytes", "max_states"};
+
+	/**
+	 * The measurements of one command of one file, in all runs: samples[m] holds the values of METRICS[m].
+	 */
+	static class Command {
+		String file;
+		int index;
+		String text;
+		List<List<Double>> samples = new ArrayList<List<Double>>();
+
+		Command(String file,int index,String text) {
+			this.file = file;
+			this.index = index;
+			this.text = text;
+			for(int m = 0; m < METRICS.length; m++) {
+				samples.add(new ArrayList<Double>());
+			}
+		}
+
+		String key() {
+			return file + "\t" + index;
+		}
+	}
+
+	List<String> files;
+	Map<String,Command> results = new LinkedHashMap<String,Command>();
+	List<String> failures = new ArrayList<String>();
+	File scratch;
+
+	public PerformanceSuite(List<String> files) {
+		this.files = files;
+	}
+
+	public static void main(String[] args) throws Exception {
+		UtilityMethods.setPaths();
+		if(args.length == 3 && args[0].equals("--worker")) {
+			worker(args[1], args[2]);
+			System.exit(0);
+		}
+		boolean save = false;
+		List<String> files = new ArrayList<String>();
+		for(String arg:args) {
+			if(arg.equals("--save-baseline"))save = true;
+			else files.add(arg);
+		}
+		if(files.isEmpty())files.addAll(Arrays.asList(SUITE));
+		PerformanceSuite suite = new PerformanceSuite(files);
+		suite.run();
+		String directory = UtilityMethods.get_address_for_performance_test_results();
+		new File(directory).mkdirs();
+		Map<String,Command> baseline = read(directory + BASELINE);
+		int regressions = suite.report(baseline, directory + REPORT);
+		if(save) {
+			suite.write(directory + BASELINE);
+			System.out.println("Saved the baseline to " + directory + BASELINE);
+		}
+		System.exit(regressions > 0 || !suite.failures.isEmpty() ? 1 : 0);
+	}
+
+	/**
+	 * Runs every file RUNS times.
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		scratch = Files.createTempDirectory("walnut-perf").toFile();
+		try {
+			for(String library:new String[] {
+					UtilityMethods.ADDRESS_FOR_AUTOMATA_LIBRARY, UtilityMethods.ADDRESS_FOR_WORDS_LIBRARY,
+					UtilityMethods.ADDRESS_FOR_MACRO_LIBRARY, UtilityMethods.ADDRESS_FOR_MORPHISM_LIBRARY,
+					UtilityMethods.ADDRESS_FOR_CUSTOM_BASES, UtilityMethods.ADDRESS_FOR_COMMAND_FILES}) {
+				copy(new File(EvaluationContext.current().getDirectory() + library).toPath(), new File(scratch, library).toPath());
+			}
+			new File(scratch, UtilityMethods.ADDRESS_FOR_RESULT).mkdirs();
+			for(int run = 1; run <= RUNS; run++) {
+				for(String file:files) {
+					System.out.println("run " + run + "/" + RUNS + ": " + file);
+					runFile(file);
+				}
+			}
+		} finally {
+			delete(scratch.toPath());
+		}
+	}
+
+	private void runFile(String file) throws Exception {
+		delete(new File(scratch, UtilityMethods.ADDRESS_FOR_NUMBER_SYSTEM_CACHE).toPath());
+		File metrics = new File(scratch, "metrics.tsv");
+		File log = new File(UtilityMethods.get_address_for_performance_test_results() + "logs", file.replace(".txt", ".log"));
+		log.getParentFile().mkdirs();
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		for(String option:JVM_OPTIONS.trim().split("\\s+")) {
+			if(!option.isEmpty())command.add(option);
+		}
+		command.add("-cp");
+		command.add(absoluteClassPath());
+		command.add(PerformanceSuite.class.getName());
+		command.add("--worker");
+		command.add(file);
+		command.add(metrics.getAbsolutePath());
+		Process process = new ProcessBuilder(command)
+			.directory(scratch)
+			.redirectErrorStream(true)
+			.redirectOutput(log)
+			.start();
+		int status = process.waitFor();
+		if(status != 0) {
+			failures.add(file);
+			System.err.println(file + " failed with exit code " + status + ", see " + log.getPath());
+		}
+		if(!metrics.isFile())return;
+		for(String line:Files.readAllLines(metrics.toPath(), StandardCharsets.UTF_8)) {
+			String[] fields = line.split("\t", 5);
+			Command c = results.computeIfAbsent(file + "\t" + fields[0],
+				k -> new Command(file, Integer.parseInt(fields[0]), fields[4]));
+			for(int m = 0; m < METRICS.length; m++) {
+				c.samples.get(m).add(Double.parseDouble(fields[m + 1]));
+			}
+		}
+		metrics.delete();
+	}
+
+	/**
+	 * Runs the commands of file, in this JVM, and writes the measurements of each of them to metrics.
+	 */
+	static void worker(String file,String metrics) throws Exception {
+		List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+		for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP)heap.add(pool);
+		}
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(UtilityMethods.get_address_for_command_files() + file), "utf-8"));
+			PrintWriter out = new PrintWriter(metrics, "utf-8")) {
+			String s;
+			int index = 0;
+			while((s = Prover.nextCommand(in, false)) != null) {
+				if(s.matches(Prover.REGEXP_FOR_exit_COMMAND))break;
+				System.out.println(s);
+				if(s.matches(Prover.REGEXP_FOR_EMPTY_COMMAND))continue;
+				// so that the garbage of the previous command does not count
+				System.gc();
+				for(MemoryPoolMXBean pool:heap) {
+					pool.resetPeakUsage();
+				}
+				Automaton.resetPeakStates();
+				long timeBefore = System.nanoTime();
+				try {
+					Prover.dispatch(s);
+				} catch(Exception e) {
+					System.out.flush();
+					System.err.println(e.getMessage() + UtilityMethods.newLine() + "\t: " + s);
+					System.err.flush();
+				}
+				OutputPolicy.flush();
+				long timeAfter = System.nanoTime();
+				long peak = 0;
+				for(MemoryPoolMXBean pool:heap) {
+					peak += pool.getPeakUsage().getUsed();
+				}
+				out.println(index + "\t" + String.format(Locale.ROOT, "%.3f", (timeAfter - timeBefore) / 1e6) + "\t" +
+					peak + "\t" + Automaton.getPeakStates() + "\t" + s.replaceAll("\\s+", " "));
+				out.flush();
+				index++;
+			}
+		}
+	}
+
+	/**
+	 * Compares the results with baseline, prints the changes and writes the report to address.
+	 * @return the number of regressions.
+	 * @throws IOException
+	 */
+	public int report(Map<String,Command> baseline,String address) throws IOException {
+		int regressions = 0, improvements = 0;
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"runs\": ").append(RUNS).append(",\n");
+		json.append("  \"baseline\": ").append(baseline == null ? "false" : "true").append(",\n");
+		json.append("  \"failures\": [");
+		for(int i = 0; i < failures.size(); i++) {
+			json.append(i == 0 ? "" : ", ").append(quote(failures.get(i)));
+		}
+		json.append("],\n  \"commands\": [");
+		boolean first = true;
+		for(Command c:results.values()) {
+			Command b = baseline == null ? null : baseline.get(c.key());
+			if(b != null && !b.text.equals(c.text))b = null;
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    {\"file\": ").append(quote(c.file)).append(", \"index\": ").append(c.index)
+				.append(", \"command\": ").append(quote(c.text)).append(", \"metrics\": {");
+			for(int m = 0; m < METRICS.length; m++) {
+				List<Double> current = c.samples.get(m);
+				json.append(m == 0 ? "" : ", ").append(quote(METRICS[m])).append(": {");
+				json.append("\"mean\": ").append(number(mean(current)));
+				json.append(", \"stddev\": ").append(number(Math.sqrt(variance(current))));
+				json.append(", \"samples\": ").append(current.toString());
+				String verdict = "new";
+				if(b != null) {
+					List<Double> old = b.samples.get(m);
+					double change = mean(old) == 0 ? 0 : (mean(current) - mean(old)) / mean(old);
+					verdict = verdict(m, old, current);
+					json.append(", \"baseline_mean\": ").append(number(mean(old)));
+					json.append(", \"baseline_stddev\": ").append(number(Math.sqrt(variance(old))));
+					json.append(", \"change\": ").append(number(change));
+					if(verdict.equals("regression"))regressions++;
+					if(verdict.equals("improvement"))improvements++;
+					if(!verdict.equals("unchanged")) {
+						System.out.println(String.format(Locale.ROOT, "%-11s %-15s %+7.1f%%  %s: %s",
+							verdict, METRICS[m], 100 * change, c.file, c.text));
+					}
+				}
+				json.append(", \"verdict\": ").append(quote(verdict)).append("}");
+			}
+			json.append("}}");
+		}
+		json.append("\n  ],\n  \"regressions\": ").append(regressions)
+			.append(",\n  \"improvements\": ").append(improvements).append("\n}\n");
+		Files.write(new File(address).toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+		if(baseline == null) {
+			System.out.println("No baseline to compare with. Use --save-baseline to make this run the baseline.");
+		}
+		System.out.println(results.size() + " commands, " + regressions + " regressions, " + improvements +
+			" improvements. The report is in " + address);
+		return regressions;
+	}
+
+	/**
+	 * @param m the index of the metric in METRICS
+	 * @return regression, improvement or unchanged.
+	 */
+	static String verdict(int m,List<Double> old,List<Double> current) {
+		double difference = mean(current) - mean(old);
+		if(METRICS[m].equals("max_states")) {
+			return difference > 0 ? "regression" : difference < 0 ? "improvement" : "unchanged";
+		}
+		double relative = m == 0 ? TIME_THRESHOLD : HEAP_THRESHOLD;
+		double absolute = m == 0 ? MILLIS_THRESHOLD : BYTES_THRESHOLD;
+		if(Math.abs(difference) <= absolute || Math.abs(difference) <= relative * mean(old))return "unchanged";
+		if(!significant(old, current))return "unchanged";
+		return difference > 0 ? "regression" : "improvement";
+	}
+
+	/**
+	 * @return true if Welch's t-test finds that the means of a and b differ, at the 99% level.
+	 */
+	static boolean significant(List<Double> a,List<Double> b) {
+		if(a.size() < 2 || b.size() < 2)return true;
+		double va = variance(a) / a.size(), vb = variance(b) / b.size();
+		if(va + vb == 0)return mean(a) != mean(b);
+		double t = Math.abs(mean(a) - mean(b)) / Math.sqrt(va + vb);
+		double df = (va + vb) * (va + vb) /
+			(va * va / (a.size() - 1) + vb * vb / (b.size() - 1));
+		return t > student((int)Math.floor(df));
+	}
+
+	/**
+	 * @return the quantile of the Student t distribution with df degrees of freedom for a two sided test at 99%.
+	 */
+	static double student(int df) {
+		double[] t = {63.657, 9.925, 5.841, 4.604, 4.032, 3.707, 3.499, 3.355, 3.250, 3.169};
+		if(df < 1)return t[0];
+		if(df <= t.length)return t[df - 1];
+		if(df <= 15)return 2.947;
+		if(df <= 20)return 2.845;
+		if(df <= 30)return 2.750;
+		return 2.576;
+	}
+
+	static double mean(List<Double> x) {
+		double sum = 0;
+		for(double v:x)sum += v;
+		return x.isEmpty() ? 0 : sum / x.size();
+	}
+
+	static double variance(List<Double> x) {
+		if(x.size() < 2)return 0;
+		double mean = mean(x), sum = 0;
+		for(double v:x)sum += (v - mean) * (v - mean);
+		return sum / (x.size() - 1);
+	}
+
+	/**
+	 * Writes the results as a baseline: one line per command with the file, the index of the command in the file,
+	 * the samples of each metric separated by commas, and the command.
+	 */
+	public void write(String address) throws IOException {
+		try (PrintWriter out = new PrintWriter(address, "utf-8")) {
+			out.println("# file\tindex\t" + String.join("\t", METRICS) + "\tcommand");
+			for(Command c:results.values()) {
+				StringBuilder line = new StringBuilder(c.file + "\t" + c.index);
+				for(List<Double> samples:c.samples) {
+					line.append("\t");
+					for(int i = 0; i < samples.size(); i++) {
+						line.append(i == 0 ? "" : ",").append(samples.get(i));
+					}
+				}
+				out.println(line + "\t" + c.text);
+			}
+		}
+	}
+
+	/**
+	 * @return the baseline in address, or null if there is none.
+	 */
+	static Map<String,Command> read(String address) throws IOException {
+		File file = new File(address);
+		if(!file.isFile())return null;
+		Map<String,Command> baseline = new LinkedHashMap<String,Command>();
+		for(String line:Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			if(line.startsWith("#") || line.trim().isEmpty())continue;
+			String[] fields = line.split("\t", METRICS.length + 3);
+			Command c = new Command(fields[0], Integer.parseInt(fields[1]), fields[METRICS.length + 2]);
+			for(int m = 0; m < METRICS.length; m++) {
+				for(String v:fields[m + 2].split(",")) {
+					if(!v.isEmpty())c.samples.get(m).add(Double.parseDouble(v));
+				}
+			}
+			baseline.put(c.key(), c);
+		}
+		return baseline;
+	}
+
+	private static String number(double x) {
+		if(Double.isNaN(x) || Double.isInfinite(x))return "null";
+		return String.format(Locale.ROOT, "%.6g", x);
+	}
+
+	private static String quote(String s) {
+		StringBuilder b = new StringBuilder("\"");
+		for(char c:s.toCharArray()) {
+			if(c == '"' || c == '\\')b.append('\\').append(c);
+			else if(c < 0x20)b.append(String.format("\\u%04x", (int)c));
+			else b.append(c);
+		}
+		return b.append('"').toString();
+	}
+
+	private static String absoluteClassPath() {
+		List<String> entries = new ArrayList<String>();
+		for(String entry:System.getProperty("java.class.path").split(File.pathSeparator)) {
+			entries.add(new File(entry).getAbsolutePath());
+		}
+		return String.join(File.pathSeparator, entries);
+	}
+
+	private static void copy(Path from,Path to) throws IOException {
+		if(!Files.exists(from))return;
+		try (Stream<Path> paths = Files.walk(from)) {
+			for(Path p:(Iterable<Path>)paths::iterator) {
+				Path target = to.resolve(from.relativize(p).toString());
+				if(Files.isDirectory(p))Files.createDirectories(target);
+				else Files.copy(p, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+
+	private static void delete(Path path) throws IOException {
+		if(!Files.exists(path))return;
+		try (Stream<Path> paths = Files.walk(path)) {
+			for(Path p:(Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(p);
+			}
+		}
+	}
+}
@@ -22,14 +22,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import Automata.NumberSystem;
 import Automata.Automaton;
+import Automata.LibraryCache;
 import Token.AlphabetLetter;
 import Token.ArithmeticOperator;
 import Token.Function;
@@ -64,9 +65,22 @@ public class Predicate {
 	Matcher MATCHER_FOR_RIGHT_PARENTHESIS;
 	Matcher MATCHER_FOR_WHITESPACE;
 
-	static HashMap<String,NumberSystem> number_system_Hash = new HashMap<String,NumberSystem>();
-	public static HashMap<String,NumberSystem> get_number_system_Hash(){
-		return number_system_Hash;
+	/**
+	 * @return the number systems of the current EvaluationContext, by name.
+	 */
+	public static Map<String,NumberSystem> get_number_system_Hash(){
+		return EvaluationContext.current().getNumberSystems();
+	}
+	/**
+	 * @param name
+	 * @return the number system called name in the current EvaluationContext. It is created the first time it is asked for.
+	 * @throws Exception if there is no number system called name.
+	 */
+	public static NumberSystem get_number_system(String name) throws Exception {
+		return EvaluationContext.current().getNumberSystem(name);
+	}
+	public static void remove_number_system(String name) {
+		EvaluationContext.current().removeNumberSystem(name);
 	}
 
 	static String REGEXP_FOR_LOGICAL_OPERATORS = "\\G\\s*(`|\\^|\\&|\\~|\\||=>|<=>|E|A|I)";
@@ -165,18 +179,13 @@ public class Predicate {
 			} else if(MATCHER_FOR_RELATIONAL_OPERATORS.find(index)) {
 				lastTokenWasOperator = true;
 				Matcher matcher = MATCHER_FOR_RELATIONAL_OPERATORS;
-				if(!number_system_Hash.containsKey(current_number_system)) {
-					number_system_Hash.put(current_number_system, new NumberSystem(current_number_system));
-				}
-				op = new RelationalOperator(real_starting_position + matcher.start(1), matcher.group(1), number_system_Hash.get(current_number_system));
+				op = new RelationalOperator(real_starting_position + matcher.start(1), matcher.group(1), get_number_system(current_number_system));
 				op.put(postOrder, operator_Stack);
 				index = matcher.end();
 			} else if(MATCHER_FOR_ARITHMETIC_OPERATORS.find(index)) {
 				lastTokenWasOperator = true;
 				Matcher matcher = MATCHER_FOR_ARITHMETIC_OPERATORS;
-				if(!number_system_Hash.containsKey(current_number_system))
-					number_system_Hash.put(current_number_system, new NumberSystem(current_number_system));
-				op = new ArithmeticOperator(real_starting_position + matcher.start(1), matcher.group(1), number_system_Hash.get(current_number_system));
+				op = new ArithmeticOperator(real_starting_position + matcher.start(1), matcher.group(1), get_number_system(current_number_system));
 				op.put(postOrder,operator_Stack);
 				index = matcher.end();
 			} else if(MATCHER_FOR_WORD.find(index)) {
@@ -204,9 +213,7 @@ public class Predicate {
 				if(!lastTokenWasOperator)throw new Exception(
 					"An operator is missing: char at " + (real_starting_position+index));
 				lastTokenWasOperator = false;
-				if(!number_system_Hash.containsKey(current_number_system))
-					number_system_Hash.put(current_number_system, new NumberSystem(current_number_system));
-				t = new NumberLiteral(real_starting_position + MATCHER_FOR_NUMBER_LITERAL.start(1),UtilityMethods.parseInt(MATCHER_FOR_NUMBER_LITERAL.group(1)),number_system_Hash.get(current_number_system));
+				t = new NumberLiteral(real_starting_position + MATCHER_FOR_NUMBER_LITERAL.start(1),UtilityMethods.parseInt(MATCHER_FOR_NUMBER_LITERAL.group(1)),get_number_system(current_number_system));
 				t.put(postOrder);
 				index = MATCHER_FOR_NUMBER_LITERAL.end();
 			} else if(MATCHER_FOR_ALPHABET_LETTER.find(index)) {
@@ -292,7 +299,7 @@ public class Predicate {
 		Pattern p_leftBracket = Pattern.compile(r_leftBracket);
 		Matcher m_leftBracket = p_leftBracket.matcher(predicate);
 
-		Automaton A = new Automaton(UtilityMethods.get_address_for_words_library()+matcher.group(1)+".txt");
+		Automaton A = LibraryCache.load(UtilityMethods.get_address_for_words_library()+matcher.group(1)+".txt");
 
 		Stack<Character> bracket_Stack = new Stack<Character>();
 		bracket_Stack.push('[');
@@ -339,7 +346,7 @@ public class Predicate {
 	}
 	private int put_function(String default_number_system)throws Exception{
 		Matcher matcher = MATCHER_FOR_FUNCTION;
-		Automaton A = new Automaton(UtilityMethods.get_address_for_automata_library()+matcher.group(1)+".txt");
+		Automaton A = LibraryCache.load(UtilityMethods.get_address_for_automata_library()+matcher.group(1)+".txt");
 		Stack<Character> parenthesis_Stack = new Stack<Character>();
 		parenthesis_Stack.push('(');
 		int i = matcher.end();
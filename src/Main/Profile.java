@@ -0,0 +1,236 @@
+/*	 Copyright 2016 Hamoon Mousavi
+ *
+ * 	 This file is part of Walnut.
+ *
+ *   Walnut is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Walnut is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Walnut.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package Main;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Stack;
+
+import Automata.Automaton;
+import Automata.Metrics;
+import Token.Function;
+import Token.Token;
+import Token.Word;
+
+/**
+ * The profile of the evaluation of a predicate, for the profile and explain commands: the tree of the predicate,
+ * with, for every node, the time spent on it alone and on its subtree, the largest intermediate automaton
+ * (see Automaton.getPeakStates), the number of states of its result, and how its time splits between products,
+ * determinizations, minimizations and the rest.<br>
+ * Computer calls before and after around every token it evaluates. The phases come from the Metrics events of the
+ * evaluating thread: the time of an operation that another one called is taken out of the caller,
+ * e.g., the determinization in a minimization is not counted as minimization.
+ */
+public class Profile implements Metrics.Sink {
+	static String[] PHASES = {"product", "determinize", "minimize"};
+	/**
+	 * Subformulas longer than this are cut in the table.
+	 */
+	static int MAX_LABEL = 60;
+
+	static class Node {
+		Token token;
+		String label;
+		List<Node> children = new ArrayList<Node>();
+		/**
+		 * The index of this node in the evaluation order, counting only nodes with operands.
+		 */
+		int step;
+		long selfNanos;
+		long totalNanos;
+		int peakStates;
+		int outputStates = -1;
+		long[] phaseNanos = new long[PHASES.length];
+	}
+
+	Stack<Node> nodes = new Stack<Node>();
+	List<Metrics.Event> events = new ArrayList<Metrics.Event>();
+	int steps;
+	long timeBefore;
+
+	public void accept(Metrics.Event e) {
+		events.add(e);
+	}
+
+	void before(Token t) {
+		events.clear();
+		Automaton.resetPeakStates();
+		timeBefore = System.nanoTime();
+	}
+
+	void after(Token t,Stack<Expression> S) throws Exception {
+		long time = System.nanoTime() - timeBefore;
+		Node node = push(t);
+		node.selfNanos = time;
+		node.totalNanos = time;
+		for(Node child:node.children) {
+			node.totalNanos += child.totalNanos;
+		}
+		node.peakStates = Automaton.getPeakStates();
+		Expression e = S.peek();
+		node.label = e.toString();
+		if(e.is(Type.automaton)) {
+			node.outputStates = e.M.TRUE_FALSE_AUTOMATON ? 0 : e.M.Q;
+			node.peakStates = Math.max(node.peakStates, node.outputStates);
+		}
+		addPhases(node);
+	}
+
+	/**
+	 * Pops the operands of t from the nodes, and pushes the node of t.
+	 */
+	private Node push(Token t) throws Exception {
+		if(nodes.size() < t.getArity())throw new Exception("token " + t + " requires " + t.getArity() + " operands");
+		Node node = new Node();
+		node.token = t;
+		node.label = t.toString();
+		if(t instanceof Word)node.label += "[...]";
+		if(t instanceof Function)node.label = "$" + node.label + "(...)";
+		for(int i = 0; i < t.getArity(); i++) {
+			node.children.add(0, nodes.pop());
+		}
+		if(t.getArity() > 0)node.step = ++steps;
+		nodes.push(node);
+		return node;
+	}
+
+	/**
+	 * Splits the time of the Metrics events received while node was evaluated between the PHASES.
+	 */
+	private void addPhases(Node node) {
+		List<Metrics.Event> sorted = new ArrayList<Metrics.Event>(events);
+		sorted.sort(Comparator.comparingLong((Metrics.Event e) -> e.startNanos).thenComparing(e -> -e.wallNanos));
+		// callees[i] is the time of the operations that sorted.get(i) called directly
+		long[] callees = new long[sorted.size()];
+		// the operations that contain the current one
+		Stack<Integer> open = new Stack<Integer>();
+		for(int i = 0; i < sorted.size(); i++) {
+			Metrics.Event e = sorted.get(i);
+			while(!open.isEmpty() && end(sorted.get(open.peek())) <= e.startNanos) {
+				open.pop();
+			}
+			if(!open.isEmpty())callees[open.peek()] += e.wallNanos;
+			open.push(i);
+		}
+		for(int i = 0; i < sorted.size(); i++) {
+			for(int p = 0; p < PHASES.length; p++) {
+				if(PHASES[p].equals(sorted.get(i).operation)) {
+					node.phaseNanos[p] += Math.max(0, sorted.get(i).wallNanos - callees[i]);
+				}
+			}
+		}
+	}
+
+	private static long end(Metrics.Event e) {
+		return e.startNanos + e.wallNanos;
+	}
+
+	/**
+	 * @return the table of the profile of the predicate.
+	 */
+	public String report(String predicate) {
+		StringBuilder s = new StringBuilder();
+		long total = 0;
+		long[] phases = new long[PHASES.length];
+		for(Node root:nodes) {
+			total += root.totalNanos;
+			sumPhases(root, phases);
+		}
+		s.append(String.format(Locale.ROOT, "profile of \"%s\": %.1fms%n", predicate, total / 1e6));
+		s.append(String.format(Locale.ROOT, "%9s %9s %8s %8s %8s %8s %8s %8s  %s%n",
+			"self ms", "total ms", "peak", "states", "product", "determ.", "minim.", "other", "subformula"));
+		for(Node root:nodes) {
+			print(s, root, "");
+		}
+		long other = total;
+		for(long p:phases)other -= p;
+		s.append(String.format(Locale.ROOT, "time: product %s, determinization %s, minimization %s, other %s%n",
+			share(phases[0], total), share(phases[1], total), share(phases[2], total), share(Math.max(0, other), total)));
+		return s.toString();
+	}
+
+	private void print(StringBuilder s,Node node,String indent) {
+		long other = node.selfNanos;
+		for(long p:node.phaseNanos)other -= p;
+		s.append(String.format(Locale.ROOT, "%9.1f %9.1f %8s %8s %8s %8s %8s %8s  %s%n",
+			node.selfNanos / 1e6, node.totalNanos / 1e6,
+			node.peakStates > 0 ? Integer.toString(node.peakStates) : "",
+			node.outputStates >= 0 ? Integer.toString(node.outputStates) : "",
+			share(node.phaseNanos[0], node.selfNanos), share(node.phaseNanos[1], node.selfNanos),
+			share(node.phaseNanos[2], node.selfNanos), share(Math.max(0, other), node.selfNanos),
+			indent + cut(node.label)));
+		for(Node child:node.children) {
+			print(s, child, indent + "  ");
+		}
+	}
+
+	private static void sumPhases(Node node,long[] phases) {
+		for(int p = 0; p < PHASES.length; p++) {
+			phases[p] += node.phaseNanos[p];
+		}
+		for(Node child:node.children) {
+			sumPhases(child, phases);
+		}
+	}
+
+	/**
+	 * The dry run of explain: nothing is evaluated.
+	 * @return the tree of the predicate, and the order in which its nodes would be evaluated.
+	 */
+	public static String plan(String predicate,List<Token> postOrder) throws Exception {
+		Profile profile = new Profile();
+		List<Node> order = new ArrayList<Node>();
+		for(Token t:postOrder) {
+			Node node = profile.push(t);
+			if(node.step > 0)order.add(node);
+		}
+		StringBuilder s = new StringBuilder();
+		s.append("plan of \"" + predicate + "\":" + UtilityMethods.newLine());
+		for(Node root:profile.nodes) {
+			planTree(s, root, "");
+		}
+		s.append("evaluation order:");
+		for(Node node:order) {
+			s.append(" [" + node.step + "] " + node.label);
+		}
+		s.append(UtilityMethods.newLine());
+		return s.toString();
+	}
+
+	private static void planTree(StringBuilder s,Node node,String indent) {
+		s.append(indent + (node.step > 0 ? "[" + node.step + "] " : "") + node.label + UtilityMethods.newLine());
+		for(Node child:node.children) {
+			planTree(s, child, indent + "  ");
+		}
+	}
+
+	/**
+	 * @return the percentage part/whole, or nothing if it is 0 or whole is too short to tell.
+	 */
+	private static String share(long part,long whole) {
+		if(whole < 50000 || part <= 0)return "";
+		return String.format(Locale.ROOT, "%.0f%%", 100.0 * part / whole);
+	}
+
+	private static String cut(String label) {
+		return label.length() <= MAX_LABEL ? label : label.substring(0, MAX_LABEL - 3) + "...";
+	}
+}
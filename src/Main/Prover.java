@@ -25,18 +25,30 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.File;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.LinkedList;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import Automata.Automaton;
+import Automata.LibraryCache;
+import Automata.LinearRepresentation;
+import Automata.Log;
+import Automata.Metrics;
 import Automata.Morphism;
 import Automata.NumberSystem;
 import Automata.OstrowskiNumeration;
+import Automata.ResourceGovernor;
+import Automata.WordEnumerator;
 
 /**
  * This class contains the main method. It is responsible to get a command from user
@@ -44,7 +56,7 @@ import Automata.OstrowskiNumeration;
  * @author Hamoon
  */
 public class Prover {
-	static String REGEXP_FOR_THE_LIST_OF_COMMANDS = "(eval|def|macro|reg|load|ost|exit|quit|cls|clear|combine|morphism|promote|image|inf|split|rsplit|join|test)";
+	static String REGEXP_FOR_THE_LIST_OF_COMMANDS = "(eval|def|macro|reg|load|ost|exit|quit|cls|clear|combine|morphism|promote|image|inf|split|rsplit|join|test|count|batch|profile|explain)";
 	static String REGEXP_FOR_EMPTY_COMMAND = "^\\s*(;|::|:)\\s*$";
 	/**
 	 * the high-level scheme of a command is a name followed by some arguments and ending in either ; : or ::
@@ -61,6 +73,12 @@ public class Prover {
 	static int L_FILENAME = 1;
 	static Pattern PATTERN_FOR_load_COMMAND = Pattern.compile(REGEXP_FOR_load_COMMAND);
 
+	static String REGEXP_FOR_batch_COMMAND = "^\\s*batch\\s+(\\w+\\.txt)\\s*(;|::|:)\\s*$";
+	static Pattern PATTERN_FOR_batch_COMMAND = Pattern.compile(REGEXP_FOR_batch_COMMAND);
+
+	static String REGEXP_FOR_profile_COMMAND = "^\\s*(profile|explain)\\s+((eval|def)\\s.*)$";
+	static Pattern PATTERN_FOR_profile_COMMAND = Pattern.compile(REGEXP_FOR_profile_COMMAND, Pattern.DOTALL);
+
 	static String REGEXP_FOR_eval_def_COMMANDS = "^\\s*(eval|def)\\s+([a-zA-Z]\\w*)((\\s+([a-zA-Z]\\w*))*)\\s+\"(.*)\"\\s*(;|::|:)\\s*$";
 	/**
 	 * important groups in REGEXP_FOR_eval_def_COMMANDS
@@ -146,6 +164,17 @@ public class Prover {
 	static Pattern PATTERN_FOR_test_COMMAND = Pattern.compile(REGEXP_FOR_test_COMMAND);
 	static int GROUP_TEST_NAME = 1, GROUP_TEST_NUM = 2;
 
+	static String REGEXP_FOR_count_COMMAND = "^\\s*count\\s+([a-zA-Z]\\w*)\\s+(len\\s+(\\d+)|((\\s*\\[\\s*\\d*\\s*])+))(\\s+mod\\s+(\\d+))?\\s*(;|::|:)\\s*$";
+	static Pattern PATTERN_FOR_count_COMMAND = Pattern.compile(REGEXP_FOR_count_COMMAND);
+	static int GROUP_COUNT_NAME = 1, GROUP_COUNT_LENGTH = 3, GROUP_COUNT_INPUT = 4, GROUP_COUNT_MODULUS = 7;
+	static String REGEXP_FOR_INPUT_IN_count_COMMAND = "\\[\\s*(\\d*)\\s*]";
+	static Pattern PATTERN_FOR_INPUT_IN_count_COMMAND = Pattern.compile(REGEXP_FOR_INPUT_IN_count_COMMAND);
+
+	/**
+	 * The background jobs of the console.
+	 */
+	static Jobs jobs = new Jobs();
+
 	/**
 	 * if the command line argument is not empty, we treat args[0] as a filename.
 	 * if this is the case, we read from the file and load its commands before we submit control to user.
@@ -194,8 +223,10 @@ public class Prover {
 		}
 
 		// Now we parse commands from the console.
+		handleInterrupts();
 		in = new BufferedReader(new InputStreamReader(System.in));
 		readBuffer(in, true);
+		OutputPolicy.flush();
 	}
 
 	/**
@@ -206,55 +237,35 @@ public class Prover {
 	 */
 	public static boolean readBuffer(BufferedReader in, boolean console){
 		try{
-		    StringBuffer buffer = new StringBuffer();
 			while(true) {
-				if (console) {
-					System.out.print(UtilityMethods.PROMPT);
+				if(console) {
+					jobs.report();
 				}
-
-				String s = in.readLine();
+				String s = nextCommand(in, console);
 				if(s == null) {
 					return true;
 				}
 
-		    	int index1 = s.indexOf(';');
-		    	int index2 = s.indexOf(':');
-		    	int index;
-		    	if(index1 != -1 && index2 != -1) {
-		    		index = (index1 < index2) ? index1 : index2;
-		    	} else if(index1 != -1) {
-					index = index1;
+				if(!console) {
+					if(ResourceGovernor.interrupted()) {
+						// Ctrl-C stops the whole file, not just its current command.
+						return true;
+					}
+					System.out.println(s);
 				} else {
-					index = index2;
+					ResourceGovernor.clearInterrupted();
 				}
 
-		    	if((s.length() - 1) > index && s.charAt(index + 1) == ':') {
-		    		index++;
-		    	}
-
-		    	if(index != -1) {
-		    		s = s.substring(0, index + 1);
-		    		buffer.append(s);
-		    		s = buffer.toString();
-		    		if(!console) {
-		    			System.out.println(s);
-		    		}
-
-		    		try {
-		    			if(!dispatch(s)) {
-		    				return false;
-		    			}
-		    		} catch(Exception e) {
-		    			System.out.flush();
-		    			System.err.println(e.getMessage() + UtilityMethods.newLine() + "\t: " + s);
-		    			System.err.flush();
-		    		}
-
-		    		buffer = new StringBuffer();
-		    	} else {
-		    		buffer.append(s);
-		    	}
-		    }
+				try {
+					if(!(console ? jobs.dispatch(s) : dispatch(s))) {
+						return false;
+					}
+				} catch(Exception e) {
+					System.out.flush();
+					System.err.println(e.getMessage() + UtilityMethods.newLine() + "\t: " + s);
+					System.err.flush();
+				}
+			}
 		} catch(IOException e) {
 			System.out.flush();
 			System.err.println(e.getMessage());
@@ -264,6 +275,81 @@ public class Prover {
 		return true;
 	}
 
+	/**
+	 * Makes Ctrl-C cancel the running command (see ResourceGovernor) instead of ending the session. Ctrl-C when no
+	 * command runs, or a second Ctrl-C before the cancelled command stopped, ends the session as usual.
+	 */
+	private static void handleInterrupts() {
+		try {
+			// sun.misc.Signal is not part of the Java API, so we reach it through reflection: it may be missing,
+			// and javac warns about every direct use of it.
+			Class<?> signal = Class.forName("sun.misc.Signal");
+			Class<?> handler = Class.forName("sun.misc.SignalHandler");
+			Object onInterrupt = Proxy.newProxyInstance(handler.getClassLoader(), new Class<?>[] {handler}, (proxy, method, arguments) -> {
+				switch(method.getName()) {
+					case "handle":
+						if(ResourceGovernor.interrupted() || !ResourceGovernor.interrupt()) {
+							System.exit(130);
+						}
+						System.err.println(UtilityMethods.newLine() + "cancelling the current command, press Ctrl-C again to exit");
+						return null;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == arguments[0];
+					default:
+						return "Ctrl-C handler";
+				}
+			});
+			signal.getMethod("handle", signal, handler).invoke(null, signal.getConstructor(String.class).newInstance("INT"), onInterrupt);
+		} catch(ReflectiveOperationException | RuntimeException e) {
+			// no sun.misc.Signal, or no such signal on this platform
+		}
+	}
+
+	/**
+	 * Reads lines from in until one of them contains ; or : and returns everything read up to and including the
+	 * terminator (;, : or ::). The rest of that line is dropped.
+	 * @param in
+	 * @param console = true if in = System.in, in which case the prompt is printed before each line.
+	 * @return the next command, or null if we hit end of file first.
+	 * @throws IOException
+	 */
+	public static String nextCommand(BufferedReader in, boolean console) throws IOException {
+		StringBuffer buffer = new StringBuffer();
+		while(true) {
+			if (console) {
+				System.out.print(UtilityMethods.PROMPT);
+			}
+
+			String s = in.readLine();
+			if(s == null) {
+				return null;
+			}
+
+			int index1 = s.indexOf(';');
+			int index2 = s.indexOf(':');
+			int index;
+			if(index1 != -1 && index2 != -1) {
+				index = (index1 < index2) ? index1 : index2;
+			} else if(index1 != -1) {
+				index = index1;
+			} else {
+				index = index2;
+			}
+
+			if((s.length() - 1) > index && s.charAt(index + 1) == ':') {
+				index++;
+			}
+
+			if(index != -1) {
+				buffer.append(s.substring(0, index + 1));
+				return buffer.toString();
+			}
+			buffer.append(s);
+		}
+	}
+
 	public static boolean dispatch(String s) throws Exception{
 		if(s.matches(REGEXP_FOR_EMPTY_COMMAND)) {
 			// If the command is just ; or : do nothing.
@@ -280,6 +366,11 @@ public class Prover {
 			throw new Exception("No such command exists.");
 		}
 
+		if(!commandName.equals("eval") && !commandName.equals("def")) {
+			// only eval and def are sure to read the library through LibraryCache, which sees files that are not written yet.
+			OutputPolicy.flush();
+		}
+
 		if(commandName.equals("exit") || commandName.equals("quit")){
 			if(s.matches(REGEXP_FOR_exit_COMMAND)) {
 				return false;
@@ -288,8 +379,25 @@ public class Prover {
 			throw new Exception("Invalid command.");
 		} else if(commandName.equals("load")) {
 			if(!loadCommand(s)) return false;
-		} else if(commandName.equals("eval") || commandName.equals("def")) {
+		} else if(commandName.equals("batch")) {
+			if(!batchCommand(s)) return false;
+		} else {
+			// load and batch are not limited as a whole: each of their commands is.
+			ResourceGovernor.Budget previous = ResourceGovernor.begin();
+			try {
+				dispatchCommand(commandName, s);
+			} finally {
+				ResourceGovernor.end(previous);
+			}
+		}
+		return true;
+	}
+
+	private static void dispatchCommand(String commandName,String s) throws Exception {
+		if(commandName.equals("eval") || commandName.equals("def")) {
 			eval_def_commands(s);
+		} else if(commandName.equals("profile") || commandName.equals("explain")) {
+			profileCommand(s);
 		} else if(commandName.equals("macro")) {
 			macroCommand(s);
 		} else if(commandName.equals("reg")) {
@@ -316,10 +424,11 @@ public class Prover {
 			joinCommand(s);
 		} else if (commandName.equals("test")) {
 			testCommand(s);
+		} else if (commandName.equals("count")) {
+			countCommand(s);
 		} else {
 			throw new Exception("Invalid command " + commandName + ".");
 		}
-		return true;
 	}
 
 	public static TestCase dispatchForIntegrationTest(String s) throws Exception{
@@ -335,13 +444,18 @@ public class Prover {
 			throw new Exception("No such command exists.");
 		}
 
+		if(!commandName.equals("eval") && !commandName.equals("def")) {
+			// only eval and def are sure to read the library through LibraryCache, which sees files that are not written yet.
+			OutputPolicy.flush();
+		}
+
 		if(commandName.equals("exit") || commandName.equals("quit")) {
 			if(s.matches(REGEXP_FOR_exit_COMMAND)) return null;
 			throw new Exception("Invalid command.");
 		} else if(commandName.equals("load")){
 			if(!loadCommand(s)) return null;
 		} else if(commandName.equals("eval") || commandName.equals("def")) {
-			return eval_def_commands(s);
+			return eval_def_commands(s, true);
 		} else if(commandName.equals("macro")) {
 			return macroCommand(s);
 		} else if(commandName.equals("reg")) {
@@ -358,6 +472,14 @@ public class Prover {
 			return rsplitCommand(s);
 		} else if (commandName.equals("join")) {
 			return joinCommand(s);
+		} else if (commandName.equals("test")) {
+			return testCommand(s);
+		} else if (commandName.equals("count")) {
+			BigInteger count = countCommand(s);
+			return new TestCase(s,null,"","",count == null ? "infinite" : count.toString());
+		} else if (commandName.equals("inf")) {
+			String infReg = infiniteValues(s);
+			return new TestCase(s,null,"","",infReg.isEmpty() ? "finite" : infReg);
 		} else {
 			throw new Exception("Invalid command: " + commandName);
 		}
@@ -395,7 +517,81 @@ public class Prover {
 		return true;
 	}
 
+	/**
+	 * batch x.txt; runs the commands of the file x.txt like load x.txt; does, except that commands that do not depend on
+	 * each other run at the same time, see Batch. The output is printed in the order of the file.
+	 * @param s
+	 * @return false if the file contains exit
+	 * @throws Exception
+	 */
+	public static boolean batchCommand(String s) throws Exception {
+		Matcher m = PATTERN_FOR_batch_COMMAND.matcher(s);
+		if(!m.find()) throw new Exception("Invalid use of batch command.");
+		List<String> commands = new ArrayList<String>();
+		boolean exit = false;
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(
+					new FileInputStream(
+						UtilityMethods.get_address_for_command_files() +
+						m.group(L_FILENAME)),
+					"utf-8"))) {
+			String command;
+			while((command = nextCommand(in, false)) != null) {
+				if(command.matches(REGEXP_FOR_exit_COMMAND)) {
+					exit = true;
+					break;
+				}
+				commands.add(command);
+			}
+		} catch (IOException e) {
+			System.out.flush();
+			System.err.println(e.getMessage());
+			System.err.flush();
+			return true;
+		}
+		new Batch(commands).run();
+		return !exit;
+	}
+
 	public static TestCase eval_def_commands(String s) throws Exception {
+		return eval_def_commands(s, false);
+	}
+
+	/**
+	 * @param readMatrices whether the .mpl and _detailed_log.txt files, which are written straight to disk, are read back into the returned TestCase.
+	 */
+	public static TestCase eval_def_commands(String s,boolean readMatrices) throws Exception {
+		return eval_def_commands(s, readMatrices, null);
+	}
+
+	/**
+	 * profile eval/def ...; runs the eval or def command, and then prints its Profile: the tree of the predicate with
+	 * the time, the largest intermediate automaton and the number of states of every subformula, and how the time splits
+	 * between products, determinizations and minimizations.<br>
+	 * explain eval/def ...; is the dry run: it only prints the tree of the predicate and the order in which it
+	 * would be evaluated.
+	 * @param s
+	 * @throws Exception
+	 */
+	public static void profileCommand(String s) throws Exception {
+		Matcher m = PATTERN_FOR_profile_COMMAND.matcher(s);
+		if(!m.find()) throw new Exception("Invalid use of profile/explain command.");
+		String command = m.group(2);
+		Matcher e = PATTERN_FOR_eval_def_COMMANDS.matcher(command);
+		if(!e.find()) {
+			throw new Exception("Invalid use of eval/def command.");
+		}
+		if(m.group(1).equals("explain")) {
+			Predicate p = new Predicate(e.group(ED_PREDICATE));
+			System.out.print(Profile.plan(e.group(ED_PREDICATE), p.get_postOrder()));
+			return;
+		}
+		Profile profile = new Profile();
+		eval_def_commands(command, false, profile);
+		System.out.print(profile.report(e.group(ED_PREDICATE)));
+	}
+
+	private static TestCase eval_def_commands(String s,boolean readMatrices,Profile profile) throws Exception {
 		Automaton M = null;
 
 		Matcher m = PATTERN_FOR_eval_def_COMMANDS.matcher(s);
@@ -411,23 +607,23 @@ public class Prover {
 		boolean printSteps = m.group(ED_ENDING).equals(":");
 		boolean printDetails = m.group(ED_ENDING).equals("::");
 
-		Computer c = new Computer(m.group(ED_PREDICATE), printSteps, printDetails);
-		c.write(UtilityMethods.get_address_for_result() + m.group(ED_NAME)+".txt");
-		c.drawAutomaton(UtilityMethods.get_address_for_result() + m.group(ED_NAME) + ".gv");
-
-		if(free_variables.size() > 0) {
-			c.writeMatrices(
-				UtilityMethods.get_address_for_result()+m.group(ED_NAME)+".mpl", free_variables);
-		}
+		Metrics.Aggregator summary = Metrics.startSummary();
+		Computer c;
+		try {
+			c = new Computer(m.group(ED_PREDICATE), printSteps, printDetails, profile,
+				UtilityMethods.get_address_for_result() + m.group(ED_NAME));
+			c.writeResults(UtilityMethods.get_address_for_result() + m.group(ED_NAME));
 
-		c.writeLog(UtilityMethods.get_address_for_result() + m.group(ED_NAME) + "_log.txt");
-		if(printDetails) {
-			c.writeDetailedLog(
-				UtilityMethods.get_address_for_result() + m.group(ED_NAME) + "_detailed_log.txt");
-		}
+			if(free_variables.size() > 0) {
+				c.writeMatrices(
+					UtilityMethods.get_address_for_result()+m.group(ED_NAME), free_variables);
+			}
 
-		if(m.group(ED_TYPE).equals("def")) {
-			c.write(UtilityMethods.get_address_for_automata_library() + m.group(ED_NAME) + ".txt");
+			if(m.group(ED_TYPE).equals("def")) {
+				LibraryCache.write(c.getTheFinalResult(), UtilityMethods.get_address_for_automata_library() + m.group(ED_NAME) + ".txt");
+			}
+		} finally {
+			Metrics.endSummary(summary);
 		}
 
 		M = c.getTheFinalResult();
@@ -438,8 +634,29 @@ public class Prover {
 				System.out.println("_____\nFALSE");
 			}
 		}
+		String witness = c.witness();
+		if(witness != null) {
+			System.out.println(witness);
+		}
+		if(summary != null && !summary.isEmpty()) {
+			System.out.print(summary.summary());
+		}
 
-		return new TestCase(s, M, "", c.mpl, printDetails ? c.log_details.toString() : "");
+		String mpl = "";
+		if(readMatrices && free_variables.size() > 0 && OutputPolicy.MATRIX_FORMATS.contains("maple")) {
+			mpl = new String(Files.readAllBytes(Paths.get(UtilityMethods.get_address_for_result()+m.group(ED_NAME)+".mpl")), "UTF-8");
+		}
+		String details = "";
+		if(printDetails) {
+			// only the beginning of a long log is kept in memory, the whole log is in the file
+			details = readMatrices ?
+				new String(Files.readAllBytes(Paths.get(UtilityMethods.get_address_for_result()+m.group(ED_NAME)+"_detailed_log.txt")), "UTF-8") :
+				c.log_details.toString();
+		}
+		if(witness != null) {
+			details += witness;
+		}
+		return new TestCase(s, M, "", mpl, details);
 	}
 
 	public static TestCase macroCommand(String s) throws Exception {
@@ -471,10 +688,8 @@ public class Prover {
 		if(m.group(R_LIST_OF_ALPHABETS) == null) {
 			String base = "msd_2";
 			try{
-				if(!Predicate.number_system_Hash.containsKey(base))
-					Predicate.number_system_Hash.put(base, new NumberSystem(base));
-				ns = Predicate.number_system_Hash.get(base);
-				numSys.add(Predicate.number_system_Hash.get(base));
+				ns = Predicate.get_number_system(base);
+				numSys.add(ns);
 			}catch(Exception e){
 				throw new Exception("number system " + base + " does not exist: char at " + m.start(R_NUMBER_SYSTEM)+UtilityMethods.newLine()+"\t:"+e.getMessage());
 			}
@@ -489,10 +704,8 @@ public class Prover {
 				if(m1.group(9) != null)base =  m1.group(9)+"_2";
 				if(m1.group(10) != null)base = "msd_"+m1.group(10);
 				try{
-					if(!Predicate.number_system_Hash.containsKey(base))
-						Predicate.number_system_Hash.put(base, new NumberSystem(base));
-					ns = Predicate.number_system_Hash.get(base);
-					numSys.add(Predicate.number_system_Hash.get(base));
+					ns = Predicate.get_number_system(base);
+					numSys.add(ns);
 				}catch(Exception e){
 					throw new Exception("number system " + base + " does not exist: char at " + m.start(R_NUMBER_SYSTEM)+UtilityMethods.newLine()+"\t:"+e.getMessage());
 				}
@@ -554,7 +767,7 @@ public class Prover {
 
 		R.draw(UtilityMethods.get_address_for_result()+m.group(R_NAME)+".gv",m.group(R_REGEXP), false);
 		R.write(UtilityMethods.get_address_for_result()+m.group(R_NAME)+".txt");
-		R.write(UtilityMethods.get_address_for_automata_library()+m.group(R_NAME)+".txt");
+		LibraryCache.write(R, UtilityMethods.get_address_for_automata_library()+m.group(R_NAME)+".txt");
 
 		return new TestCase(s,R,"","","");
 	}
@@ -569,7 +782,7 @@ public class Prover {
 		boolean printDetails = m.group(GROUP_COMBINE_END).equals("::");
 
 		String prefix = new String();
-		StringBuffer log = new StringBuffer();
+		Log log = new Log();
 
 
 		List<String> automataNames = new ArrayList<String>();
@@ -596,13 +809,13 @@ public class Prover {
 		if (automataNames.size() == 0) {
 			throw new Exception("Combine requires at least one automaton as input.");
 		}
-		Automaton first = new Automaton(UtilityMethods.get_address_for_automata_library()+automataNames.get(0)+".txt");
+		Automaton first = LibraryCache.load(UtilityMethods.get_address_for_automata_library()+automataNames.get(0)+".txt");
 		automataNames.remove(0);
 
 		Automaton C = first.combine(automataNames, outputs, printSteps, prefix, log);
 		C.draw(UtilityMethods.get_address_for_result()+m.group(GROUP_COMBINE_NAME)+".gv", s, true);
 		C.write(UtilityMethods.get_address_for_result()+m.group(GROUP_COMBINE_NAME)+".txt");
-		C.write(UtilityMethods.get_address_for_words_library()+m.group(GROUP_COMBINE_NAME)+".txt");
+		LibraryCache.write(C, UtilityMethods.get_address_for_words_library()+m.group(GROUP_COMBINE_NAME)+".txt");
 
 		return new TestCase(s,C,"","","");
 	}
@@ -632,7 +845,7 @@ public class Prover {
 		Automaton P = h.toWordAutomaton();
 		P.draw(UtilityMethods.get_address_for_result()+m.group(GROUP_PROMOTE_NAME)+".gv", s, true);
 		P.write(UtilityMethods.get_address_for_result()+m.group(GROUP_PROMOTE_NAME)+".txt");
-		P.write(UtilityMethods.get_address_for_words_library()+m.group(GROUP_PROMOTE_NAME)+".txt");
+		LibraryCache.write(P, UtilityMethods.get_address_for_words_library()+m.group(GROUP_PROMOTE_NAME)+".txt");
 
 		return new TestCase(s,P,"","","");
 	}
@@ -650,7 +863,7 @@ public class Prover {
 		String combineString = "combine " + m.group(GROUP_IMAGE_NEW_NAME);
 
 		// We need to know the number system of our old automaton: the new one should match, as should intermediary expressions
-		Automaton M =  new Automaton(UtilityMethods.get_address_for_words_library()+m.group(GROUP_IMAGE_OLD_NAME)+".txt");
+		Automaton M =  LibraryCache.load(UtilityMethods.get_address_for_words_library()+m.group(GROUP_IMAGE_OLD_NAME)+".txt");
 		String numSysName = "";
 		if (M.NS.size() > 0) {
 			numSysName = M.NS.get(0).toString();
@@ -668,26 +881,148 @@ public class Prover {
 		
 		I.draw(UtilityMethods.get_address_for_result()+m.group(GROUP_IMAGE_NEW_NAME)+".gv", s, true);
 		I.write(UtilityMethods.get_address_for_result()+m.group(GROUP_IMAGE_NEW_NAME)+".txt");
-		I.write(UtilityMethods.get_address_for_words_library()+m.group(GROUP_IMAGE_NEW_NAME)+".txt");
+		LibraryCache.write(I, UtilityMethods.get_address_for_words_library()+m.group(GROUP_IMAGE_NEW_NAME)+".txt");
 		return new TestCase(s,I,"","","");
 	}
 
 	public static boolean infCommand(String s) throws Exception {
+		return !infiniteValues(s).isEmpty();
+	}
+
+	/**
+	 * @return the regular expression of infinitely many values that inf prints, or the empty string if the automaton
+	 * accepts finitely many values.
+	 */
+	private static String infiniteValues(String s) throws Exception {
 		Matcher m = PATTERN_FOR_inf_COMMAND.matcher(s);
 		if(!m.find()) {
 			throw new Exception("Invalid use of inf command.");
 		}
-		Automaton M = new Automaton(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_INF_NAME)+".txt");
-		M = removeLeadTrailZeroes(M, m.group(GROUP_INF_NAME));
-		String infReg = M.infinite();
-		if (infReg == "") {
+		Automaton M = LibraryCache.load(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_INF_NAME)+".txt");
+		// we don't want to count multiple representations of the same value as distinct accepted values
+		M.randomLabel();
+		String infReg = M.infinite(M.label);
+		if (infReg.isEmpty()) {
 			System.out.println("Automaton " + m.group(GROUP_INF_NAME) + " accepts finitely many values.");
-			return false;
 		}
 		else {
 			System.out.println(infReg);
-			return true;
 		}
+		return infReg;
+	}
+
+	/**
+	 * count x len L; prints the number of words of length L that the automaton x accepts.<br>
+	 * count x [n] [] ... ; has one pair of brackets per input of x. The inputs with a number n read the representation
+	 * of n, and the inputs with empty brackets take every value. So it prints the number of values of the latter for
+	 * which x accepts, e.g., count x [100] []; is the number of j with x(100,j), or infinite if there are infinitely many.
+	 * With only empty brackets, it is the number of tuples that x accepts.<br>
+	 * Both can end with mod m to count modulo m. The counts are computed as products of the linear representation of x.
+	 * @param s
+	 * @return the count, or null if it is infinite.
+	 * @throws Exception
+	 */
+	public static BigInteger countCommand(String s) throws Exception {
+		Matcher m = PATTERN_FOR_count_COMMAND.matcher(s);
+		if(!m.find()) {
+			throw new Exception("Invalid use of count command.");
+		}
+		Automaton M = LibraryCache.load(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_COUNT_NAME)+".txt");
+		if(M.TRUE_FALSE_AUTOMATON) {
+			throw new Exception("Automaton " + m.group(GROUP_COUNT_NAME) + " has no inputs to count.");
+		}
+		BigInteger modulus = null;
+		if(m.group(GROUP_COUNT_MODULUS) != null) {
+			modulus = new BigInteger(m.group(GROUP_COUNT_MODULUS));
+			if(modulus.signum() == 0)throw new Exception("The modulus of count must be positive.");
+		}
+
+		M.randomLabel();
+		List<String> variables = new ArrayList<String>();
+		List<List<Integer>> representations = new ArrayList<List<Integer>>();
+		if(m.group(GROUP_COUNT_LENGTH) == null) {
+			Matcher m1 = PATTERN_FOR_INPUT_IN_count_COMMAND.matcher(m.group(GROUP_COUNT_INPUT));
+			int i = 0;
+			while(m1.find()) {
+				if(i < M.A.size() && !m1.group(1).isEmpty()) {
+					if(M.NS.get(i) == null) {
+						throw new Exception("Input " + i + " of " + m.group(GROUP_COUNT_NAME) + " is not a number.");
+					}
+					variables.add(M.label.get(i));
+					representations.add(M.NS.get(i).representation(new BigInteger(m1.group(1))));
+				}
+				i++;
+			}
+			if(i != M.A.size()) {
+				throw new Exception("Automaton " + m.group(GROUP_COUNT_NAME) + " has " + M.A.size() + " inputs, but count gives " + i + ".");
+			}
+		}
+
+		LinearRepresentation L = new LinearRepresentation(M, variables);
+		BigInteger count;
+		if(m.group(GROUP_COUNT_LENGTH) != null) {
+			count = L.accept(L.power(L.initial(), 0, new BigInteger(m.group(GROUP_COUNT_LENGTH)), modulus), modulus);
+		} else {
+			// without numbers the order of the digits does not matter: there is nothing to pad.
+			boolean msd = variables.isEmpty() || M.NS.get(M.label.indexOf(variables.get(0))).isMsd();
+			int length = 0;
+			for(int k = 0; k < variables.size(); k++) {
+				if(M.NS.get(M.label.indexOf(variables.get(k))).isMsd() != msd) {
+					throw new Exception("The inputs of count must be all msd or all lsd.");
+				}
+				length = Math.max(length, representations.get(k).size());
+			}
+			/**
+			 * The numbers are padded with zeros on the most significant side, so that the other inputs can be longer.
+			 * With Q zeros we count the values that are accepted with a representation at most Q digits longer than
+			 * the numbers. If more values are accepted with Q+1 more zeros, a loop on these zeros leads to acceptance
+			 * after the first nonzero digit of the other inputs, so infinitely many values are accepted.
+			 */
+			int zero = L.matrix(new ArrayList<Integer>(Collections.nCopies(variables.size(), 0)));
+			BigInteger[] u = L.initial(), longer;
+			if(msd) {
+				if(zero != -1)u = L.power(u, zero, BigInteger.valueOf(L.Q), null);
+				longer = zero == -1 ? u : L.power(u, zero, BigInteger.valueOf(L.Q + 1), null);
+				u = readNumbers(L, u, representations, length, msd);
+				longer = readNumbers(L, longer, representations, length, msd);
+			} else {
+				u = readNumbers(L, u, representations, length, msd);
+				if(zero != -1)u = L.power(u, zero, BigInteger.valueOf(L.Q), null);
+				longer = zero == -1 ? u : L.power(u, zero, BigInteger.valueOf(L.Q + 1), null);
+			}
+			count = L.accept(u, null);
+			if(L.accept(longer, null).compareTo(count) > 0) {
+				System.out.println("infinite");
+				return null;
+			}
+			if(modulus != null)count = count.mod(modulus);
+		}
+		System.out.println(count);
+		return count;
+	}
+
+	/**
+	 * @return u times the matrices of the digits of the representations, padded to the given length.
+	 */
+	private static BigInteger[] readNumbers(LinearRepresentation L,BigInteger[] u,List<List<Integer>> representations,int length,boolean msd) {
+		for(int t = 0; t < length; t++) {
+			List<Integer> values = new ArrayList<Integer>();
+			for(List<Integer> r:representations) {
+				// shorter representations are padded with zeros on the side of the most significant digit.
+				int padding = length - r.size();
+				int position = msd ? t - padding : t;
+				values.add(position >= 0 && position < r.size() ? r.get(position) : 0);
+			}
+			int matrix = L.matrix(values);
+			if(matrix == -1) {
+				// a digit that is not in the alphabet of its input: no word is accepted.
+				u = u.clone();
+				Arrays.fill(u, BigInteger.ZERO);
+				return u;
+			}
+			u = L.multiply(u, matrix, null);
+		}
+		return u;
 	}
 
 	public static TestCase splitCommand(String s) throws Exception {
@@ -701,10 +1036,10 @@ public class Prover {
 				= UtilityMethods.get_address_for_automata_library() + m.group(GROUP_SPLIT_AUTOMATA)+".txt";
 		Automaton M; boolean isDFAO;
 		if ((new File(addressForWordAutomaton)).exists()) {
-			M = new Automaton(addressForWordAutomaton);
+			M = LibraryCache.load(addressForWordAutomaton);
 			isDFAO = true;
 		} else if ((new File(addressForAutomaton)).exists()) {
-			M = new Automaton(addressForAutomaton);
+			M = LibraryCache.load(addressForAutomaton);
 			isDFAO = false;
 		} else {
 			throw new Exception("Automaton " + m.group(GROUP_SPLIT_AUTOMATA) + " does not exist.");
@@ -713,7 +1048,7 @@ public class Prover {
 		boolean printSteps = m.group(GROUP_SPLIT_END).equals(":");
 		boolean printDetails = m.group(GROUP_SPLIT_END).equals("::");
 		String prefix = new String();
-		StringBuffer log = new StringBuffer();
+		Log log = new Log();
 
 		Matcher m1 = PATTERN_FOR_INPUT_IN_split_COMMAND.matcher(m.group(GROUP_SPLIT_INPUT));
 		List<String> inputs = new ArrayList<>();
@@ -739,9 +1074,9 @@ public class Prover {
 		N.draw(UtilityMethods.get_address_for_result()+m.group(GROUP_SPLIT_NAME)+".gv", s, isDFAO);
 		N.write(UtilityMethods.get_address_for_result()+m.group(GROUP_SPLIT_NAME)+".txt");
 		if (isDFAO) {
-			N.write(UtilityMethods.get_address_for_words_library()+m.group(GROUP_SPLIT_NAME)+".txt");
+			LibraryCache.write(N, UtilityMethods.get_address_for_words_library()+m.group(GROUP_SPLIT_NAME)+".txt");
 		} else {
-			N.write(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_SPLIT_NAME)+".txt");
+			LibraryCache.write(N, UtilityMethods.get_address_for_automata_library()+m.group(GROUP_SPLIT_NAME)+".txt");
 		}
 		return new TestCase(s, N, "", "", "");
 	}
@@ -757,10 +1092,10 @@ public class Prover {
 				= UtilityMethods.get_address_for_automata_library() + m.group(GROUP_RSPLIT_AUTOMATA)+".txt";
 		Automaton M; boolean isDFAO;
 		if ((new File(addressForWordAutomaton)).exists()) {
-			M = new Automaton(addressForWordAutomaton);
+			M = LibraryCache.load(addressForWordAutomaton);
 			isDFAO = true;
 		} else if ((new File(addressForAutomaton)).exists()) {
-			M = new Automaton(addressForAutomaton);
+			M = LibraryCache.load(addressForAutomaton);
 			isDFAO = false;
 		} else {
 			throw new Exception("Automaton " + m.group(GROUP_RSPLIT_AUTOMATA) + " does not exist.");
@@ -769,7 +1104,7 @@ public class Prover {
 		boolean printSteps = m.group(GROUP_RSPLIT_END).equals(":");
 		boolean printDetails = m.group(GROUP_RSPLIT_END).equals("::");
 		String prefix = new String();
-		StringBuffer log = new StringBuffer();
+		Log log = new Log();
 
 		Matcher m1 = PATTERN_FOR_INPUT_IN_rsplit_COMMAND.matcher(m.group(GROUP_RSPLIT_INPUT));
 		List<String> inputs = new ArrayList<>();
@@ -795,9 +1130,9 @@ public class Prover {
 		N.draw(UtilityMethods.get_address_for_result()+m.group(GROUP_RSPLIT_NAME)+".gv", s, isDFAO);
 		N.write(UtilityMethods.get_address_for_result()+m.group(GROUP_RSPLIT_NAME)+".txt");
 		if (isDFAO) {
-			N.write(UtilityMethods.get_address_for_words_library()+m.group(GROUP_RSPLIT_NAME)+".txt");
+			LibraryCache.write(N, UtilityMethods.get_address_for_words_library()+m.group(GROUP_RSPLIT_NAME)+".txt");
 		} else {
-			N.write(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_RSPLIT_NAME)+".txt");
+			LibraryCache.write(N, UtilityMethods.get_address_for_automata_library()+m.group(GROUP_RSPLIT_NAME)+".txt");
 		}
 		return new TestCase(s, N, "", "", "");
 	}
@@ -810,7 +1145,7 @@ public class Prover {
 		boolean printSteps = m.group(GROUP_JOIN_END).equals(":");
 		boolean printDetails = m.group(GROUP_JOIN_END).equals("::");
 		String prefix = new String();
-		StringBuffer log = new StringBuffer();
+		Log log = new Log();
 
 		Matcher m1 = PATTERN_FOR_AN_AUTOMATON_IN_join_COMMAND.matcher(m.group(GROUP_JOIN_AUTOMATA));
 		List<Automaton> subautomata = new ArrayList<>();
@@ -823,10 +1158,10 @@ public class Prover {
 					= UtilityMethods.get_address_for_automata_library()+automatonName+".txt";
 			Automaton M;
 			if ((new File(addressForWordAutomaton)).exists()) {
-				M = new Automaton(addressForWordAutomaton);
+				M = LibraryCache.load(addressForWordAutomaton);
 				isDFAO = true;
 			} else if ((new File(addressForAutomaton)).exists()) {
-				M = new Automaton(addressForAutomaton);
+				M = LibraryCache.load(addressForAutomaton);
 			} else {
 				throw new Exception("Automaton " + m.group(GROUP_RSPLIT_AUTOMATA) + " does not exist.");
 			}
@@ -850,14 +1185,14 @@ public class Prover {
 		N.draw(UtilityMethods.get_address_for_result()+m.group(GROUP_JOIN_NAME)+".gv", s, isDFAO);
 		N.write(UtilityMethods.get_address_for_result()+m.group(GROUP_JOIN_NAME)+".txt");
 		if (isDFAO) {
-			N.write(UtilityMethods.get_address_for_words_library()+m.group(GROUP_JOIN_NAME)+".txt");
+			LibraryCache.write(N, UtilityMethods.get_address_for_words_library()+m.group(GROUP_JOIN_NAME)+".txt");
 		} else {
-			N.write(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_JOIN_NAME)+".txt");
+			LibraryCache.write(N, UtilityMethods.get_address_for_automata_library()+m.group(GROUP_JOIN_NAME)+".txt");
 		}
 		return new TestCase(s, N, "", "", "");
 	}
 
-	public static void testCommand(String s) throws Exception {
+	public static TestCase testCommand(String s) throws Exception {
 		Matcher m = PATTERN_FOR_test_COMMAND.matcher(s);
 		if(!m.find()) {
 			throw new Exception("Invalid use of test command.");
@@ -867,56 +1202,36 @@ public class Prover {
 
 		// We find the first n inputs accepted by our automaton, lexicographically. If less than n inputs are accepted,
     	// we output all that are.
-		Automaton M = new Automaton(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_TEST_NAME)+".txt");
+		Automaton M = LibraryCache.load(UtilityMethods.get_address_for_automata_library()+m.group(GROUP_TEST_NAME)+".txt");
 
 		// we don't want to count multiple representations of the same value as distinct accepted values
 		M = removeLeadTrailZeroes(M, m.group(GROUP_TEST_NAME));
 
-		// We will be intersecting this automaton with various regex automata, so it needs to be labelled.
-		M.randomLabel();
-
 		String infSubcommand = "inf " + m.group(GROUP_TEST_NAME) + ";";
 		boolean infinite = infCommand(infSubcommand);
-		
-		String incLengthReg = "";
-		incLengthReg += "reg " + m.group(GROUP_TEST_NAME) + "_len ";
-		for (int i=0; i<M.A.size(); i++) {
-			String alphaString = M.A.get(i).toString();
-			alphaString = alphaString.substring(1, alphaString.length()-1);
-			alphaString = "{" + alphaString + "} ";
-			incLengthReg += alphaString;
-		}
-
-		String dotReg = "";
-        int searchLength = 0;
-		List<String> accepted = new ArrayList<String>();
-        while(true) {
-            searchLength++;
-            dotReg += ".";
-			TestCase retrieval = regCommand(incLengthReg + "\"" + dotReg + "\";");
-			Automaton R = retrieval.result.clone();
-
-			// and-ing automata uses the cross product routine, which requires labeled automata
-			R.label = M.label;
-			Automaton N = M.and(R, false, null, null);
-			N.findAccepted(searchLength, needed - accepted.size());
-			accepted.addAll(N.accepted);
-			if(accepted.size() >= needed) {
-				break;
-			}
-
-            // If our automaton accepts finitely many inputs, it does not have a non-redundant cycle, and so the highest length input that could be
-            // accepted is equal to the number of states in the automaton
-            if (!(infinite) && (searchLength >= M.Q)) {
-                break;
-            }
-        }
-		if (accepted.size() < needed) {
-			System.out.println(m.group(GROUP_TEST_NAME) + " only accepts " + Integer.toString(accepted.size()) + " inputs, which are as follows: ");
-		}
-		for (String input : accepted) {
-			System.out.println(input);
+
+		// If our automaton accepts finitely many inputs, it does not have a non-redundant cycle, and so the highest length input that could be
+		// accepted is equal to the number of states in the automaton
+		WordEnumerator E = new WordEnumerator(M);
+		StringBuilder details = new StringBuilder();
+		Consumer<String> out = line -> {
+			System.out.println(line);
+			details.append(line + UtilityMethods.newLine());
+		};
+		if(!infinite) {
+			long total = 0;
+			for(int length = 1; length <= M.Q && total < needed; length++) {
+				total += E.count(length);
+			}
+			if(total < needed) {
+				out.accept(m.group(GROUP_TEST_NAME) + " only accepts " + Long.toString(total) + " inputs, which are as follows: ");
+			}
+		}
+		long found = 0;
+		for(int length = 1; found < needed && (infinite || length <= M.Q); length++) {
+			found += E.enumerate(length, needed - found, out);
 		}
+		return new TestCase(s,null,"","",details.toString());
 	}
 
 	public static void ostCommand(String s) throws Exception {
@@ -931,6 +1246,9 @@ public class Prover {
 			m.group(GROUP_OST_PERIOD));
 		ostr.createRepresentationAutomaton();
 		ostr.createAdderAutomaton();
+		// number systems built from the old files of this base are stale now.
+		Predicate.remove_number_system("msd_" + ostr.getName());
+		Predicate.remove_number_system("lsd_" + ostr.getName());
 	}
 
 	public static void clearScreen() {
@@ -26,7 +26,6 @@ import java.util.List;
  *
  */
 public class UtilityMethods {
-	static String dir = "";
 	static String ADDRESS_FOR_COMMAND_FILES = "Command Files/";
 	static String ADDRESS_FOR_MACRO_LIBRARY = "Macro Library/";
 	static String ADDRESS_FOR_AUTOMATA_LIBRARY = "Automata Library/";
@@ -36,48 +35,60 @@ public class UtilityMethods {
 	static String ADDRESS_FOR_CUSTOM_BASES = "Custom Bases/";
 	static String ADDRESS_FOR_TEST_LIBRARY = "Test Library/";
 	static String ADDRESS_FOR_INTEGRATION_TEST_RESULTS = "Test Results/Integration Tests/";
+	static String ADDRESS_FOR_PERFORMANCE_TEST_RESULTS = "Test Results/Performance Tests/";
+	static String ADDRESS_FOR_NUMBER_SYSTEM_CACHE = "Cache/Number Systems/";
 
 	static String PROMPT = "\n[Walnut]$ ";
 
+	/**
+	 * Sets the directory of the default EvaluationContext: the parent of the working directory if it is bin,
+	 * the working directory otherwise. The addresses below are those of the current EvaluationContext.
+	 */
 	public static void setPaths(){
 		String path = System.getProperty("user.dir");
 		if(path.substring(path.length()-3).equals("bin"))
-			dir = "../";
+			EvaluationContext.getDefault().directory = "../";
 	}
 
 	public static String get_address_for_command_files() {
-		return dir + ADDRESS_FOR_COMMAND_FILES;
+		return EvaluationContext.current().directory + ADDRESS_FOR_COMMAND_FILES;
 	}
 
 	public static String get_address_for_automata_library() {
-		return dir + ADDRESS_FOR_AUTOMATA_LIBRARY;
+		return EvaluationContext.current().directory + ADDRESS_FOR_AUTOMATA_LIBRARY;
 	}
 
 	public static String get_address_for_macro_library() {
-		return dir + ADDRESS_FOR_MACRO_LIBRARY;
+		return EvaluationContext.current().directory + ADDRESS_FOR_MACRO_LIBRARY;
 	}
 
 	public static String get_address_for_result() {
-		return dir + ADDRESS_FOR_RESULT;
+		return EvaluationContext.current().directory + ADDRESS_FOR_RESULT;
 	}
 
 	public static String get_address_for_custom_bases() {
-		return dir + ADDRESS_FOR_CUSTOM_BASES;
+		return EvaluationContext.current().directory + ADDRESS_FOR_CUSTOM_BASES;
 	}
 
 	public static String get_address_for_words_library() {
-		return dir + ADDRESS_FOR_WORDS_LIBRARY;
+		return EvaluationContext.current().directory + ADDRESS_FOR_WORDS_LIBRARY;
 	}
 
 	public static String get_address_for_morphism_library() {
-		return dir + ADDRESS_FOR_MORPHISM_LIBRARY;
+		return EvaluationContext.current().directory + ADDRESS_FOR_MORPHISM_LIBRARY;
 	}
 
 	public static String get_address_for_test_library() {
-		return dir + ADDRESS_FOR_TEST_LIBRARY;
+		return EvaluationContext.current().directory + ADDRESS_FOR_TEST_LIBRARY;
 	}
 	public static String get_address_for_integration_test_results() {
-		return dir + ADDRESS_FOR_INTEGRATION_TEST_RESULTS;
+		return EvaluationContext.current().directory + ADDRESS_FOR_INTEGRATION_TEST_RESULTS;
+	}
+	public static String get_address_for_performance_test_results() {
+		return EvaluationContext.current().directory + ADDRESS_FOR_PERFORMANCE_TEST_RESULTS;
+	}
+	public static String get_address_for_number_system_cache() {
+		return EvaluationContext.current().directory + ADDRESS_FOR_NUMBER_SYSTEM_CACHE;
 	}
 
 
@@ -20,6 +20,7 @@ package Token;
 import java.util.Stack;
 
 import Main.Expression;
+import Automata.Log;
 
 
 public class AlphabetLetter extends Token {
@@ -32,7 +33,7 @@ public class AlphabetLetter extends Token {
 	public String toString(){
 		return Integer.toString(value);
 	}
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		S.push(new Expression("@"+Integer.toString(value), value));
 	}
 }
@@ -21,7 +21,9 @@ import java.util.HashSet;
 import java.util.Stack;
 
 import Main.Expression;
+import Automata.Log;
 import Automata.Automaton;
+import Automata.LinearForm;
 import Automata.NumberSystem;
 import Main.Type;
 import Main.UtilityMethods;
@@ -43,7 +45,7 @@ public class ArithmeticOperator extends Operator{
 	public String toString(){
 		return op+"_"+number_system;
 	}
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		if(S.size() < getArity())throw new Exception("operator " + op + " requires " + getArity()+ " operands");
 		Expression b = S.pop();
 		if(!(b.is(Type.alphabetLetter) || b.is(Type.word) || b.is(Type.arithmetic) || b.is(Type.variable) || b.is(Type.numberLiteral)))
@@ -61,12 +63,13 @@ public class ArithmeticOperator extends Operator{
 				S.push(b);
 				return;
 			}
+			b.materialize(print,prefix+" ",log);
 			String c = getUniqueString();
 			// b + c = 0
 			Automaton M = number_system.arithmetic(b.identifier,c,0,"+");
-			String preStep = prefix + "computing " + op+b;
-			log.append(preStep + UtilityMethods.newLine());
 			if(print){
+				String preStep = prefix + "computing " + op+b;
+				log.append(preStep + UtilityMethods.newLine());
 				System.out.println(preStep);
 			}
 			if(b.is(Type.arithmetic)){
@@ -75,9 +78,9 @@ public class ArithmeticOperator extends Operator{
 				M.quantify(b.identifier,print,prefix+" ",log);
 			}
 			S.push(new Expression("("+op+b+")",M,c));
-			String postStep = prefix + "computed " + op+b;
-			log.append(postStep + UtilityMethods.newLine());
 			if(print){
+				String postStep = prefix + "computed " + op+b;
+				log.append(postStep + UtilityMethods.newLine());
 				System.out.println(postStep);
 			}
 			return;
@@ -124,11 +127,27 @@ public class ArithmeticOperator extends Operator{
 		}
 		String c = getUniqueString();
 		Automaton M;
-		String preStep = prefix + "computing " + a+op+b;
-		log.append(preStep + UtilityMethods.newLine());
 		if(print){
+			String preStep = prefix + "computing " + a+op+b;
+			log.append(preStep + UtilityMethods.newLine());
 			System.out.println(preStep);
 		}
+		LinearForm linear = linear(a,b,false,print,prefix+" ",log);
+		if(linear != null && !linear.fits("=", LinearForm.variable(number_system, c)) && (a.linear != null || b.linear != null)){
+			// e.g., the coefficients of 65536*(65536*y) do not fit in an int: we keep 65536*y as an automaton.
+			linear = linear(a,b,true,print,prefix+" ",log);
+		}
+		if(linear != null && linear.fits("=", LinearForm.variable(number_system, c))){
+			S.push(new Expression("("+a+op+b+")",linear,c));
+			if(print){
+				String postStep = prefix + "computed " + a+op+b;
+				log.append(postStep + UtilityMethods.newLine());
+				System.out.println(postStep);
+			}
+			return;
+		}
+		a.materialize(print,prefix+" ",log);
+		b.materialize(print,prefix+" ",log);
 		if( (a.is(Type.word) && (b.is(Type.arithmetic) || b.is(Type.variable))) ||
 				((a.is(Type.arithmetic) || a.is(Type.variable)) && b.is(Type.word)) ) {
 			/* We rewrite T[a] * 5 = z as
@@ -198,10 +217,36 @@ public class ArithmeticOperator extends Operator{
 			}
 		}
 		S.push(new Expression("("+a+op+b+")",M,c));
-		String postStep = prefix + "computed " + a+op+b;
-		log.append(postStep + UtilityMethods.newLine());
 		if(print){
+			String postStep = prefix + "computed " + a+op+b;
+			log.append(postStep + UtilityMethods.newLine());
 			System.out.println(postStep);
 		}
 	}
+	/**
+	 * @param opaque if true, the arithmetic operands are kept as automata instead of being expanded.
+	 * @return the linear form of a op b, or null if it cannot be computed symbolically.
+	 * In that case, and when the linear form is too large for NumberSystem.linear, we fall back to the addition
+	 * automaton of number_system.
+	 */
+	private LinearForm linear(Expression a,Expression b,boolean opaque,boolean print,String prefix,Log log) throws Exception{
+		if(a.is(Type.word) || b.is(Type.word) || a.is(Type.alphabetLetter) || b.is(Type.alphabetLetter))return null;
+		if(op.equals("*") && ((a.is(Type.numberLiteral) && a.constant == 0) || (b.is(Type.numberLiteral) && b.constant == 0)))return null;
+		if((op.equals("*") || op.equals("/")) && !b.is(Type.numberLiteral) && !(op.equals("*") && a.is(Type.numberLiteral)))return null;
+		LinearForm f = linearForm(a,number_system,opaque,print,prefix,log);
+		LinearForm g = linearForm(b,number_system,opaque,print,prefix,log);
+		if(f == null || g == null)return null;
+		switch(op){
+			case "+":
+				return f.plus(g);
+			case "-":
+				return f.minus(g);
+			case "*":
+				return a.is(Type.numberLiteral) ? g.times(a.constant) : f.times(b.constant);
+			case "/":
+				return f.dividedBy(b.constant,getUniqueString());
+			default:
+				return null;
+		}
+	}
 }
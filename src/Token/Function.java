@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Stack;
 
 import Main.Expression;
+import Automata.Log;
 import Main.UtilityMethods;
 import Automata.Automaton;
 
@@ -40,7 +41,7 @@ public class Function extends Token {
 	public String toString(){
 		return name;
 	}
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		if(S.size() < getArity())throw new Exception("function " + name + " requires " + getArity()+ " arguments");
 		Stack<Expression> temp = new Stack<Expression>();
 		List<Expression> args = new ArrayList<Expression>();
@@ -48,9 +49,9 @@ public class Function extends Token {
 			temp.push(S.pop());
 		}
 		String stringValue = name+"(";
-		String preStep = prefix + "computing " + stringValue + "...)";  
-		log.append(preStep + UtilityMethods.newLine());
 		if(print){
+			String preStep = prefix + "computing " + stringValue + "...)";
+			log.append(preStep + UtilityMethods.newLine());
 			System.out.println(preStep);
 		}
 		Automaton M = new Automaton(true);
@@ -84,6 +85,7 @@ public class Function extends Token {
 				}
 				break;
 			case arithmetic:
+				currentArg.materialize(print,prefix+" ",log);
 				identifiers.add(currentArg.identifier);
 				M = M.and(currentArg.M,print,prefix+" ",log);
 				quantify.add(currentArg.identifier);
@@ -119,9 +121,9 @@ public class Function extends Token {
 		
 		stringValue += ")";
 		S.push(new Expression(stringValue,A));
-		String postStep = prefix + "computed " + stringValue;  
-		log.append(postStep + UtilityMethods.newLine());
 		if(print){
+			String postStep = prefix + "computed " + stringValue;
+			log.append(postStep + UtilityMethods.newLine());
 			System.out.println(postStep);
 		}
 	}
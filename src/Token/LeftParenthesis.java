@@ -18,11 +18,12 @@
 
 package Token;
 import Main.Expression;
+import Automata.Log;
 import java.util.Stack;
 
 
 public class LeftParenthesis extends Operator{
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{}
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{}
 	public LeftParenthesis(int position){
 		this.op = "(";
 		setPositionInPredicate(position);
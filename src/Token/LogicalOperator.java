@@ -23,12 +23,18 @@ import java.util.List;
 import java.util.Stack;
 
 import Main.Expression;
+import Automata.Log;
 import Automata.Automaton;
 import Main.Type;
 import Main.UtilityMethods;
 
 public class LogicalOperator extends Operator{
 	int number_of_quantified_variables;
+	/**
+	 * Whether the quantifiers E and A keep a copy of the automaton they quantify as the witness of their result.
+	 * Computer only sets it for the last operator of a predicate, whose result is the one witness() reads.
+	 */
+	public boolean keepWitness;
 	public LogicalOperator(int position,String op) throws Exception{
 		this.op = op;
 		setPriority();
@@ -45,7 +51,7 @@ public class LogicalOperator extends Operator{
 		setPositionInPredicate(position);
 	}
 
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		if(S.size() < getArity())throw new Exception("operator " + op + " requires " + getArity()+ " operands");
 		
 		if(op.equals("~") || op.equals("`")){actNegationOrReverse(S,print,prefix,log);return;}
@@ -55,9 +61,9 @@ public class LogicalOperator extends Operator{
 		Expression a = S.pop();
 		
 		if(a.is(Type.automaton) && b.is(Type.automaton)){
-			String preStep = prefix + "computing "+a+op+b;  
-			log.append(preStep + UtilityMethods.newLine());
 			if(print){
+				String preStep = prefix + "computing "+a+op+b;
+				log.append(preStep + UtilityMethods.newLine());
 				System.out.println(preStep);
 			}
 			switch(op){
@@ -67,9 +73,9 @@ public class LogicalOperator extends Operator{
 				case "=>":S.push(new Expression("("+a+op+b+")",a.M.imply(b.M,print,prefix+" ",log)));break;
 				case "<=>":S.push(new Expression("("+a+op+b+")",a.M.iff(b.M,print,prefix+" ",log)));break;
 			}
-			String postStep = prefix + "computed "+a+op+b;  
-			log.append(postStep + UtilityMethods.newLine());
 			if(print){
+				String postStep = prefix + "computed "+a+op+b;
+				log.append(postStep + UtilityMethods.newLine());
 				System.out.println(postStep);
 			}
 			return;
@@ -77,12 +83,12 @@ public class LogicalOperator extends Operator{
 		throw new Exception("operator " + op + " cannot be applied to operands "+a +" and "+b +" of types " + a.getType() +" and " + b.getType() + " respectively");
 			
 	}
-	private void actNegationOrReverse(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	private void actNegationOrReverse(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		Expression a = S.pop();
 		if(a.is(Type.automaton)){
-			String preStep = prefix + "computing "+op + a;  
-			log.append(preStep + UtilityMethods.newLine());
 			if(print){
+				String preStep = prefix + "computing "+op + a;
+				log.append(preStep + UtilityMethods.newLine());
 				System.out.println(preStep);
 			}
 			if(op.equals("`"))
@@ -90,26 +96,26 @@ public class LogicalOperator extends Operator{
 			if(op.equals("~"))
 				a.M.not(print,prefix+" ",log);
 			S.push(new Expression(op + a,a.M));
-			String postStep = prefix + "computed "+op+a;  
-			log.append(postStep + UtilityMethods.newLine());
 			if(print){
+				String postStep = prefix + "computed "+op+a;
+				log.append(postStep + UtilityMethods.newLine());
 				System.out.println(postStep);
 			}
 			return;
 		}
 		throw new Exception("operator " + op + " cannot be applied to the operand "+a +" of type " + a.getType());		
 	}
-	private void actQuantifier(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	private void actQuantifier(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		String stringValue = "("+op + " ";
 		Stack<Expression> temp = new Stack<Expression>();
 		List<Expression> operands = new ArrayList<Expression>();
-		Automaton M = null;
+		Automaton M = null, witness = null;
 		for(int i = 0; i < getArity();i++){
 			temp.push(S.pop());
 		}
-		String preStep = prefix + "computing quantifier "+op;  
-		log.append(preStep + UtilityMethods.newLine());
 		if(print){
+			String preStep = prefix + "computing quantifier "+op;
+			log.append(preStep + UtilityMethods.newLine());
 			System.out.println(preStep);
 		}
 		List<String> list_of_identifiers_to_quantify = new ArrayList<String>();
@@ -131,23 +137,27 @@ public class LogicalOperator extends Operator{
 					throw new Exception("the last operand of "+op+" can only be of type " + Type.automaton);
 				M = operands.get(i).M;
 				if(op.equals("E")){
+					if(keepWitness)witness = M.clone();
 					M.quantify(new HashSet<String>(list_of_identifiers_to_quantify),print,prefix+" ",log);
 				} else if (op.equals("A")){
 					M.not(print,prefix+" ",log);
+					if(keepWitness)witness = M.clone();
 					M.quantify(new HashSet<String>(list_of_identifiers_to_quantify),print,prefix+" ",log);
 					M.not(print,prefix+" ",log);
 				} else {
-					M = M.removeLeadingZeroes(list_of_identifiers_to_quantify, print, prefix+" ", log);
-					String infReg = M.infinite();
+					String infReg = M.infinite(list_of_identifiers_to_quantify);
 					M = infReg.equals("") ? new Automaton(false) : new Automaton(true);
 				}
 			}
 		}
 		stringValue += ")";
-		S.push(new Expression(stringValue,M));
-		String postStep = prefix + "computed quantifier "+stringValue;  
-		log.append(postStep + UtilityMethods.newLine());
+		Expression result = new Expression(stringValue,M);
+		result.witness = witness;
+		result.counterexample = op.equals("A");
+		S.push(result);
 		if(print){
+			String postStep = prefix + "computed quantifier "+stringValue;
+			log.append(postStep + UtilityMethods.newLine());
 			System.out.println(postStep);
 		}
 	}
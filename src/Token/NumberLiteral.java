@@ -21,6 +21,7 @@ import java.util.Stack;
 
 import Automata.NumberSystem;
 import Main.Expression;
+import Automata.Log;
 
 
 public class NumberLiteral extends Token {
@@ -35,7 +36,7 @@ public class NumberLiteral extends Token {
 	public String toString(){
 		return Integer.toString(value);
 	}
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		S.push(new Expression(Integer.toString(value), value,base));
 	}
 }
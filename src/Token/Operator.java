@@ -20,6 +20,11 @@ package Token;
 import java.util.List;
 import java.util.Stack;
 
+import Automata.LinearForm;
+import Automata.NumberSystem;
+import Main.Expression;
+import Automata.Log;
+
 
 public abstract class Operator extends Token{
 	protected boolean leftParenthesis = false;
@@ -85,4 +90,33 @@ public abstract class Operator extends Token{
 		}
 	}
 	public int getPriority(){return priority;}
+	/**
+	 * @param e
+	 * @param number_system
+	 * @return the linear form of e in number_system, or null if number_system does not support linear arithmetic
+	 * or e is not a variable, a non negative number literal, or an arithmetic expression.
+	 * @throws Exception
+	 */
+	protected LinearForm linearForm(Expression e,NumberSystem number_system,boolean print,String prefix,Log log) throws Exception{
+		return linearForm(e,number_system,false,print,prefix,log);
+	}
+	/**
+	 * @param opaque if true, an arithmetic expression is kept as its automaton even if it has a linear form.
+	 */
+	protected LinearForm linearForm(Expression e,NumberSystem number_system,boolean opaque,boolean print,String prefix,Log log) throws Exception{
+		if(number_system == null || !number_system.isLinear())return null;
+		switch(e.T){
+			case variable:
+				return LinearForm.variable(number_system, e.identifier);
+			case numberLiteral:
+				if(e.constant < 0)return null;
+				return LinearForm.constant(number_system, e.constant);
+			case arithmetic:
+				if(!opaque && e.linear != null && e.linear.getNumberSystem() == number_system)return e.linear;
+				e.materialize(print, prefix, log);
+				return LinearForm.operand(number_system, e.identifier, e.M);
+			default:
+				return null;
+		}
+	}
 }
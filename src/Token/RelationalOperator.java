@@ -18,7 +18,9 @@
 
 package Token;
 import Main.Expression;
+import Automata.Log;
 import Automata.Automaton;
+import Automata.LinearForm;
 import Automata.NumberSystem;
 import Main.Type;
 import Main.UtilityMethods;
@@ -39,7 +41,7 @@ public class RelationalOperator extends Operator{
 	public String toString(){
 		return op+"_"+number_system;
 	}
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 
 		if(S.size() < getArity())throw new Exception("operator " + op + " requires " + getArity()+ " operands");
 		Expression b = S.pop();
@@ -49,11 +51,26 @@ public class RelationalOperator extends Operator{
 			S.push(new Expression(a+op+b,new Automaton(compare(a.constant,b.constant))));
 			return;
 		}
-		String preStep = prefix + "computing " + a+op+b;
-		log.append(preStep + UtilityMethods.newLine());
-		if(print) {
+		if(print){
+			String preStep = prefix + "computing " + a+op+b;
+			log.append(preStep + UtilityMethods.newLine());
 			System.out.println(preStep);
 		}
+		if(a.linear != null || b.linear != null){
+			LinearForm f = linearForm(a,number_system,print,prefix+" ",log);
+			LinearForm g = linearForm(b,number_system,print,prefix+" ",log);
+			if(f != null && g != null && f.fits(op,g)){
+				S.push(new Expression(a+op+b,f.compare(op,g,print,prefix+" ",log)));
+				if(print){
+					String postStep = prefix + "computed " + a+op+b;
+					log.append(postStep + UtilityMethods.newLine());
+					System.out.println(postStep);
+				}
+				return;
+			}
+		}
+		a.materialize(print,prefix+" ",log);
+		b.materialize(print,prefix+" ",log);
 		if( (a.is(Type.word) && (b.is(Type.arithmetic) || b.is(Type.variable))) ||
 				((a.is(Type.arithmetic) || a.is(Type.variable)) && b.is(Type.word)) ) {
 			/* We rewrite T[a] < b as
@@ -147,9 +164,9 @@ public class RelationalOperator extends Operator{
 		else{
 			throw new Exception("operator " + op + " cannot be applied to operands "+a+" and " +b+ " of types " + a.getType() +" and " + b.getType() + " respectively");
 		}	
-		String postStep = prefix + "computed " + a+op+b;  
-		log.append(postStep + UtilityMethods.newLine());
 		if(print){
+			String postStep = prefix + "computed " + a+op+b;
+			log.append(postStep + UtilityMethods.newLine());
 			System.out.println(postStep);
 		}
 	}
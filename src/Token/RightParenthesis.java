@@ -18,13 +18,14 @@
 
 package Token;
 import Main.Expression;
+import Automata.Log;
 import java.util.List;
 import java.util.Stack;
 
 
 public class RightParenthesis extends Operator{
 	
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{}
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{}
 	public RightParenthesis(int position){
 		setPositionInPredicate(position);
 	}
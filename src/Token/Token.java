@@ -21,26 +21,26 @@ package Token;
 import java.util.List;
 import java.util.Stack;
 
+import Main.EvaluationContext;
 import Main.Expression;
+import Automata.Log;
 
 public abstract class Token {
 	int arity;
 	int positionInPredicate;
-	static char uniqueChar = 1000;
 	/**
 	 * 
 	 * @return a string. It is gauranteed that the string does not have ascii characters, and that no two calls
-	 * return the same value.
+	 * in the same EvaluationContext return the same value.
 	 */
 	protected String getUniqueString(){
-		uniqueChar++;
-		return Character.toString(uniqueChar);
+		return EvaluationContext.current().uniqueString();
 	}
 	public void put(List<Token> postOrder){
 		postOrder.add(this);
 	}
 
-	public abstract void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception;
+	public abstract void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception;
 	public boolean isOperator(){
 		return false;
 	}
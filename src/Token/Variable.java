@@ -21,6 +21,7 @@ package Token;
 import java.util.Stack;
 
 import Main.Expression;
+import Automata.Log;
 
 
 public class Variable extends Token{
@@ -33,7 +34,7 @@ public class Variable extends Token{
 	public String toString(){
 		return name;
 	}
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		S.push(new Expression(name));
 	}
 }
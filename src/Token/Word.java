@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Stack;
 
 import Main.Expression;
+import Automata.Log;
 import Main.UtilityMethods;
 import Automata.Automaton;
 
@@ -38,7 +39,7 @@ public class Word extends Token{
 	public String toString(){
 		return name;
 	}
-	public void act(Stack<Expression> S,boolean print,String prefix,StringBuffer log) throws Exception{
+	public void act(Stack<Expression> S,boolean print,String prefix,Log log) throws Exception{
 		if(S.size() < getArity())throw new Exception("word " + name + " requires " + getArity()+ " indices");
 		Stack<Expression> temp = new Stack<Expression>();
 		List<Expression> indices = new ArrayList<Expression>();
@@ -46,9 +47,9 @@ public class Word extends Token{
 			temp.push(S.pop());
 		}
 		String stringValue = name;
-		String preStep = prefix + "computing " + stringValue+ "[...]";  
-		log.append(preStep + UtilityMethods.newLine());
 		if(print){
+			String preStep = prefix + "computing " + stringValue+ "[...]";
+			log.append(preStep + UtilityMethods.newLine());
 			System.out.println(preStep);
 		}
 		List<String> identifiers = new ArrayList<String>();
@@ -78,6 +79,7 @@ public class Word extends Token{
 				}
 				break;
 			case arithmetic:
+				currentIndex.materialize(print,prefix+" ",log);
 				identifiers.add(currentIndex.identifier);
 				M = M.and(currentIndex.M,print,prefix+" ",log);
 				quantify.add(currentIndex.identifier);
@@ -106,9 +108,9 @@ public class Word extends Token{
 		}
 		W.bind(identifiers);
 		S.push(new Expression(stringValue,W,M,quantify));
-		String postStep = prefix + "computed " + stringValue;  
-		log.append(postStep + UtilityMethods.newLine());
 		if(print){
+			String postStep = prefix + "computed " + stringValue;
+			log.append(postStep + UtilityMethods.newLine());
 			System.out.println(postStep);
 		}
 	}